@@ -0,0 +1,103 @@
+package com.cameron.alberts.chestlock;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Maps;
+import net.minecraft.block.Block;
+import net.minecraft.init.Blocks;
+import net.minecraft.init.Bootstrap;
+import net.minecraft.util.math.BlockPos;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares a lock lookup in the {@link ChestBlock} keyed map the manager used to keep against the same lookup in
+ * a {@link ChestLockTable}. Both lookups start from what the event handlers have, a {@link Block} and a
+ * {@link BlockPos}, half of the looked up positions are locked.
+ *
+ * Run with {@code ./gradlew jmh}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ChestLockTableBenchmark {
+    private static final int LOOKUPS = 1024;
+    private static final int WORLD_RADIUS = 10000;
+
+    @Param({"1000", "100000"})
+    private int lockedChests;
+
+    private Map<ChestBlock, Map<String, ChestPermissions>> chestPermissions;
+    private ChestLockTable table;
+    private BlockPos[] lookups;
+    private Block block;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        Bootstrap.register();
+        block = Blocks.CHEST;
+
+        final Map<String, ChestPermissions> permissionsMap = ImmutableMap.of("owner", ChestPermissions.ROOT);
+        final String unlocalizedName = block.getUnlocalizedName();
+        final int typeId = ChestBlock.getTypeId(block);
+        final Random random = new Random(0);
+
+        chestPermissions = Maps.newConcurrentMap();
+        table = new ChestLockTable();
+        lookups = new BlockPos[LOOKUPS];
+
+        for (int index = 0; index < lockedChests; index++) {
+            BlockPos blockPos = randomBlockPos(random);
+            chestPermissions.put(new ChestBlock(unlocalizedName, blockPos), permissionsMap);
+            table.put(ChestPos.pack(blockPos.getX(), blockPos.getY(), blockPos.getZ()), typeId, ChestAcl.root(0), 0);
+
+            if (index < LOOKUPS / 2) {
+                lookups[index * 2] = blockPos;
+            }
+        }
+
+        for (int index = 0; index < LOOKUPS; index++) {
+            if (lookups[index] == null) {
+                lookups[index] = randomBlockPos(random);
+            }
+        }
+    }
+
+    @Benchmark
+    public void chestBlockMap(final Blackhole blackhole) {
+        for (BlockPos blockPos : lookups) {
+            blackhole.consume(chestPermissions.containsKey(new ChestBlock(block.getUnlocalizedName(), blockPos)));
+        }
+    }
+
+    @Benchmark
+    public void chestLockTable(final Blackhole blackhole) {
+        for (BlockPos blockPos : lookups) {
+            int typeId = ChestBlock.getTypeId(block);
+            blackhole.consume(table.contains(ChestPos.pack(blockPos.getX(), blockPos.getY(), blockPos.getZ()), typeId));
+        }
+    }
+
+    private static BlockPos randomBlockPos(final Random random) {
+        return new BlockPos(random.nextInt(2 * WORLD_RADIUS) - WORLD_RADIUS,
+                random.nextInt(256),
+                random.nextInt(2 * WORLD_RADIUS) - WORLD_RADIUS);
+    }
+}
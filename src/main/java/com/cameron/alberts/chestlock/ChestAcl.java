@@ -0,0 +1,167 @@
+package com.cameron.alberts.chestlock;
+
+import com.google.common.collect.Interner;
+import com.google.common.collect.Interners;
+
+import javax.annotation.Nullable;
+import java.util.Arrays;
+import java.util.Map;
+
+/**
+ * Immutable set of players and their {@link ChestPermissions} on a locked chest, players are the ids handed out by
+ * {@link ChestLockPlayerRegistry}. Acls are interned, every chest with the same players and permissions points to
+ * one canonical acl, so thousands of chests only locked to their owner cost one reference each. Changing an acl
+ * never modifies it, {@link #with(int, ChestPermissions)} and {@link #without(int)} return the canonical acl for
+ * the result instead.
+ *
+ * Player ids are kept sorted so a permission check is a binary search over an int array.
+ * Since acls are canonical two acls are equal if and only if they are the same reference.
+ */
+final class ChestAcl {
+    // Weak so acls no chest points to anymore can be collected
+    private static final Interner<ChestAcl> INTERNER = Interners.newWeakInterner();
+    private static final ChestPermissions[] PERMISSIONS = ChestPermissions.values();
+
+    private final int[] playerIds;
+    // Ordinal of each player's permission, same index as playerIds
+    private final byte[] permissions;
+    private final int hashCode;
+
+    private ChestAcl(final int[] playerIds, final byte[] permissions) {
+        this.playerIds = playerIds;
+        this.permissions = permissions;
+        this.hashCode = 31 * Arrays.hashCode(playerIds) + Arrays.hashCode(permissions);
+    }
+
+    /**
+     * @return the canonical acl with exactly these players and permissions.
+     */
+    static ChestAcl of(final Map<Integer, ChestPermissions> permissions) {
+        int[] playerIds = new int[permissions.size()];
+        int index = 0;
+
+        for (int playerId : permissions.keySet()) {
+            playerIds[index++] = playerId;
+        }
+
+        Arrays.sort(playerIds);
+        byte[] ordinals = new byte[playerIds.length];
+
+        for (index = 0; index < playerIds.length; index++) {
+            ordinals[index] = (byte) permissions.get(playerIds[index]).ordinal();
+        }
+
+        return INTERNER.intern(new ChestAcl(playerIds, ordinals));
+    }
+
+    /**
+     * @return the canonical acl of a newly registered chest, only {@code playerId} with {@link ChestPermissions#ROOT}.
+     */
+    static ChestAcl root(final int playerId) {
+        return INTERNER.intern(new ChestAcl(new int[] {playerId}, new byte[] {(byte) ChestPermissions.ROOT.ordinal()}));
+    }
+
+    /**
+     * @return the permission of the player, or null if the player isn't in this acl.
+     */
+    @Nullable
+    ChestPermissions get(final int playerId) {
+        int index = Arrays.binarySearch(playerIds, playerId);
+        return index < 0 ? null : PERMISSIONS[permissions[index]];
+    }
+
+    /**
+     * @return the canonical acl with {@code playerId} set to {@code permission}, this acl if nothing changes.
+     */
+    ChestAcl with(final int playerId, final ChestPermissions permission) {
+        int index = Arrays.binarySearch(playerIds, playerId);
+        byte ordinal = (byte) permission.ordinal();
+
+        if (index >= 0) {
+            if (permissions[index] == ordinal) {
+                return this;
+            }
+
+            byte[] changedPermissions = permissions.clone();
+            changedPermissions[index] = ordinal;
+            return INTERNER.intern(new ChestAcl(playerIds, changedPermissions));
+        }
+
+        int insertAt = -index - 1;
+        int[] changedPlayerIds = new int[playerIds.length + 1];
+        byte[] changedPermissions = new byte[permissions.length + 1];
+        System.arraycopy(playerIds, 0, changedPlayerIds, 0, insertAt);
+        System.arraycopy(permissions, 0, changedPermissions, 0, insertAt);
+        changedPlayerIds[insertAt] = playerId;
+        changedPermissions[insertAt] = ordinal;
+        System.arraycopy(playerIds, insertAt, changedPlayerIds, insertAt + 1, playerIds.length - insertAt);
+        System.arraycopy(permissions, insertAt, changedPermissions, insertAt + 1, permissions.length - insertAt);
+        return INTERNER.intern(new ChestAcl(changedPlayerIds, changedPermissions));
+    }
+
+    /**
+     * @return the canonical acl without {@code playerId}, this acl if the player isn't in it.
+     */
+    ChestAcl without(final int playerId) {
+        int index = Arrays.binarySearch(playerIds, playerId);
+
+        if (index < 0) {
+            return this;
+        }
+
+        int[] changedPlayerIds = new int[playerIds.length - 1];
+        byte[] changedPermissions = new byte[permissions.length - 1];
+        System.arraycopy(playerIds, 0, changedPlayerIds, 0, index);
+        System.arraycopy(permissions, 0, changedPermissions, 0, index);
+        System.arraycopy(playerIds, index + 1, changedPlayerIds, index, playerIds.length - index - 1);
+        System.arraycopy(permissions, index + 1, changedPermissions, index, permissions.length - index - 1);
+        return INTERNER.intern(new ChestAcl(changedPlayerIds, changedPermissions));
+    }
+
+    int size() {
+        return playerIds.length;
+    }
+
+    /**
+     * Players are ordered by id, {@code for (int index = 0; index < acl.size(); index++)} visits all of them.
+     */
+    int playerIdAt(final int index) {
+        return playerIds[index];
+    }
+
+    ChestPermissions permissionAt(final int index) {
+        return PERMISSIONS[permissions[index]];
+    }
+
+    @Override
+    public boolean equals(final Object other) {
+        if (this == other) {
+            return true;
+        }
+
+        if (!(other instanceof ChestAcl)) {
+            return false;
+        }
+
+        ChestAcl otherAcl = (ChestAcl) other;
+        return hashCode == otherAcl.hashCode
+                && Arrays.equals(playerIds, otherAcl.playerIds)
+                && Arrays.equals(permissions, otherAcl.permissions);
+    }
+
+    @Override
+    public int hashCode() {
+        return hashCode;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder("{");
+
+        for (int index = 0; index < playerIds.length; index++) {
+            builder.append(index == 0 ? "" : ", ").append(playerIds[index]).append('=').append(permissionAt(index));
+        }
+
+        return builder.append('}').toString();
+    }
+}
@@ -1,8 +1,8 @@
 package com.cameron.alberts.chestlock;
 
-import com.cameron.alberts.utils.BlockUtils;
 import com.google.common.collect.ImmutableList;
-import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Maps;
 import lombok.AllArgsConstructor;
 import lombok.Value;
 import net.minecraft.block.Block;
@@ -11,20 +11,33 @@ import net.minecraft.util.math.BlockPos;
 import net.minecraft.world.World;
 
 import javax.annotation.Nullable;
+import java.util.Collections;
+import java.util.IdentityHashMap;
 import java.util.List;
-import java.util.Set;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.stream.Collectors;
 
 @Value
 @AllArgsConstructor
 public class ChestBlock {
-    private static final Set<String> POSSIBLE_DOUBLE_CHESTS_NAMES = ImmutableSet.of(
-        Blocks.CHEST.getUnlocalizedName()
-    );
+    // Unlocalized name of every type id. Names of blocks that aren't registered containers only show up in saves
+    // made with a different set of containers.
+    private static final List<String> TYPE_NAMES = new CopyOnWriteArrayList<>();
 
-    private static final Set<String> CHEST_NAMES = ImmutableSet.of(
-            Blocks.CHEST.getUnlocalizedName(),
-            Blocks.ENDER_CHEST.getUnlocalizedName()
-    );
+    // Keyed by identity, looking a block up only compares references and allocates nothing
+    private static volatile Map<Block, ChestType> chestTypesByBlock;
+    private static volatile Map<String, ChestType> chestTypesByName;
+
+    static {
+        // Only the vanilla chests until the configured containers are registered
+        registerChestTypes(ImmutableMap.of(
+                Blocks.CHEST, ChestPartners.HORIZONTAL,
+                Blocks.ENDER_CHEST, ChestPartners.NONE
+        ));
+    }
+
+    public static final int NOT_A_CHEST = -1;
 
     private final String unlocalizedName;
     private final ChestPos chestPos;
@@ -34,35 +47,109 @@ public class ChestBlock {
        this.chestPos = new ChestPos(blockPos);
     }
 
-    public static boolean isDoubleChestBlockType(final Block block) {
-        return POSSIBLE_DOUBLE_CHESTS_NAMES.contains(block.getUnlocalizedName());
+    /**
+     * Replaces the blocks that can be locked, called once every mod has registered its blocks. Type ids are
+     * never reused, a block that was registered before keeps its id.
+     * @param containers every block that can be locked and how the other blocks of its container are found.
+     */
+    public static void registerChestTypes(final Map<Block, ChestPartners> containers) {
+        Map<Block, ChestType> typesByBlock = new IdentityHashMap<>();
+        Map<String, ChestType> typesByName = Maps.newHashMap();
+
+        containers.forEach((block, partners) -> {
+            ChestType chestType = new ChestType(block, getTypeId(block.getUnlocalizedName()), partners);
+            typesByBlock.put(block, chestType);
+            typesByName.putIfAbsent(block.getUnlocalizedName(), chestType);
+        });
+
+        chestTypesByName = ImmutableMap.copyOf(typesByName);
+        chestTypesByBlock = Collections.unmodifiableMap(typesByBlock);
+    }
+
+    /**
+     * @return the chest type of the block, or null if it isn't a chest.
+     */
+    @Nullable
+    public static ChestType getChestType(final Block block) {
+        return chestTypesByBlock.get(block);
     }
 
     public static boolean isChest(final Block block) {
-        return CHEST_NAMES.contains(block.getUnlocalizedName());
+        return chestTypesByBlock.containsKey(block);
+    }
+
+    /**
+     * @return the type id of the chest block used to key the lock tables, or {@link #NOT_A_CHEST}.
+     */
+    public static int getTypeId(final Block block) {
+        ChestType chestType = getChestType(block);
+        return chestType == null ? NOT_A_CHEST : chestType.getTypeId();
     }
 
-    public static List<ChestBlock> getSurroundingChestBlocks(final ChestBlock chestBlock) {
+    /**
+     * @return the type id of the block with this unlocalized name, names that aren't a chest block are given
+     * a new id the first time they are seen.
+     */
+    public static int getTypeId(final String unlocalizedName) {
+        int typeId = TYPE_NAMES.indexOf(unlocalizedName);
+
+        if (typeId != NOT_A_CHEST) {
+            return typeId;
+        }
+
+        synchronized (TYPE_NAMES) {
+            typeId = TYPE_NAMES.indexOf(unlocalizedName);
+
+            if (typeId == NOT_A_CHEST) {
+                TYPE_NAMES.add(unlocalizedName);
+                typeId = TYPE_NAMES.size() - 1;
+            }
+
+            return typeId;
+        }
+    }
+
+    public static String getTypeName(final int typeId) {
+        return TYPE_NAMES.get(typeId);
+    }
+
+    public int getTypeId() {
+        return getTypeId(unlocalizedName);
+    }
+
+    /**
+     * @return every position the other blocks of the chest's container can be at, a container can only be
+     * placed next to one container of its type so any of them that is locked belongs to this one. Empty if
+     * the chest's type isn't a registered multi-block container anymore.
+     */
+    public static List<ChestBlock> getPartnerChestBlocks(final ChestBlock chestBlock) {
         final String unlocalizedName = chestBlock.getUnlocalizedName();
-        final ChestPos chestPos = chestBlock.getChestPos();
-        return ImmutableList.of(
-                new ChestBlock(unlocalizedName, chestPos.north()),
-                new ChestBlock(unlocalizedName, chestPos.south()),
-                new ChestBlock(unlocalizedName, chestPos.west()),
-                new ChestBlock(unlocalizedName, chestPos.east())
-        );
+        ChestType chestType = chestTypesByName.get(unlocalizedName);
+
+        if (chestType == null || !chestType.isMultiBlock()) {
+            return ImmutableList.of();
+        }
+
+        return chestType.getPartners().partnersOf(chestBlock.getChestPos()).stream()
+                .map(chestPos -> new ChestBlock(unlocalizedName, chestPos))
+                .collect(Collectors.toList());
     }
 
+    /**
+     * @return the first block next to {@code blockPos} that forms one container with the block there, or null.
+     */
     @Nullable
     public static ChestBlock getSurroundingChestBlock(final World world, final BlockPos blockPos) {
         Block block = world.getBlockState(blockPos).getBlock();
-        String blockNameToFind = block.getUnlocalizedName();
+        ChestType chestType = getChestType(block);
 
-        for (BlockPos bp : BlockUtils.getSurroundingBlockPos(blockPos)) {
-            Block foundBlock = world.getBlockState(bp).getBlock();
+        if (chestType == null) {
+            return null;
+        }
 
-            if (isDoubleChestBlockType(foundBlock) && foundBlock.getUnlocalizedName().equals(blockNameToFind)) {
-                return new ChestBlock(blockNameToFind, bp);
+        for (BlockPos partnerPos : chestType.getPartners().partnersOf(blockPos)) {
+            if (getTypeId(world.getBlockState(partnerPos).getBlock()) == chestType.getTypeId()) {
+                return new ChestBlock(block.getUnlocalizedName(), partnerPos);
             }
         }
 
@@ -1,9 +1,40 @@
 package com.cameron.alberts.chestlock;
 
 public enum ChestCommandEnum {
-    REGISTER,
-    ADD_OWNER,
-    ADD_MOD,
-    ADD_USER,
-    REMOVE;
+    REGISTER(Kind.CHEST),
+    ADD_OWNER(Kind.CHEST),
+    ADD_MOD(Kind.CHEST),
+    ADD_USER(Kind.CHEST),
+    REMOVE(Kind.CHEST),
+    // Bulk commands, run as a ChestLockJobs job and only allowed for operators
+    LOCK_AREA(Kind.BULK),
+    TRANSFER(Kind.BULK),
+    STRIP(Kind.BULK),
+    CANCEL(Kind.BULK),
+    // Query commands, answered by ChestLockQueries and only allowed for operators
+    LIST(Kind.QUERY),
+    INFO(Kind.QUERY),
+    WHO(Kind.QUERY),
+    // Group commands, change the members of a ChestLockGroups group
+    GROUP_CREATE(Kind.GROUP),
+    GROUP_ADD(Kind.GROUP),
+    GROUP_REMOVE(Kind.GROUP);
+
+    public enum Kind {
+        // Changes the chest the sender is looking at
+        CHEST,
+        BULK,
+        QUERY,
+        GROUP
+    }
+
+    private final Kind kind;
+
+    ChestCommandEnum(final Kind kind) {
+        this.kind = kind;
+    }
+
+    public Kind getKind() {
+        return this.kind;
+    }
 }
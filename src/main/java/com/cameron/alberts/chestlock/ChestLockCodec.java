@@ -0,0 +1,216 @@
+package com.cameron.alberts.chestlock;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import net.minecraft.nbt.NBTTagCompound;
+import net.minecraft.nbt.NBTTagList;
+import net.minecraft.nbt.NBTTagString;
+import net.minecraftforge.common.util.Constants;
+
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Binary NBT encoding of a {@link ChestLockSnapshot}. Everything is stored in native NBT
+ * arrays instead of json strings:
+ * <ul>
+ *     <li>Names and Players: a deduplicated table of every player, the last known name and the UUID as
+ *     {@value #UUID_STRIDE} ints. Referenced everywhere else by index and turned back into player ids through
+ *     {@link ChestLockPlayerRegistry} when read. Format 1 saves have no UUIDs, their names are resolved instead.</li>
+ *     <li>Types: a deduplicated table of block unlocalized names, referenced by index.</li>
+ *     <li>Acls: every distinct {@link ChestAcl} written once as {@code [entryCount, (playerIndex << 3 | ordinal)...]}.
+ *     Every chest with the same acl shares one acl index.</li>
+ *     <li>Chests: {@value #CHEST_STRIDE} ints per chest, the {@link ChestPos#toLong()} high and low words,
+ *     the type index, the acl index and the owner player index.</li>
+ * </ul>
+ */
+final class ChestLockCodec {
+    private static final String FORMAT_KEY = ChestLockManager.CHEST_LOCK_MANAGER_SAVE_KEY + "_Format";
+    private static final String SEQUENCE_KEY = ChestLockManager.CHEST_LOCK_MANAGER_SAVE_KEY + "_JournalSequence";
+    private static final String NAMES_KEY = ChestLockManager.CHEST_LOCK_MANAGER_SAVE_KEY + "_Names";
+    private static final String PLAYERS_KEY = ChestLockManager.CHEST_LOCK_MANAGER_SAVE_KEY + "_Players";
+    private static final String TYPES_KEY = ChestLockManager.CHEST_LOCK_MANAGER_SAVE_KEY + "_Types";
+    private static final String ACLS_KEY = ChestLockManager.CHEST_LOCK_MANAGER_SAVE_KEY + "_Acls";
+    private static final String CHESTS_KEY = ChestLockManager.CHEST_LOCK_MANAGER_SAVE_KEY + "_Chests";
+
+    private static final int FORMAT_VERSION = 2;
+    // Saves from before UUIDs were stored
+    private static final int NAMES_ONLY_FORMAT_VERSION = 1;
+    private static final int UUID_STRIDE = 4;
+    private static final int CHEST_STRIDE = 5;
+    private static final int PERMISSION_BITS = 3;
+    private static final int PERMISSION_MASK = (1 << PERMISSION_BITS) - 1;
+    private static final int NO_OWNER = -1;
+    private static final ChestPermissions[] PERMISSIONS = ChestPermissions.values();
+
+    private ChestLockCodec() {}
+
+    static boolean isBinaryFormat(final NBTTagCompound compound) {
+        return compound.hasKey(FORMAT_KEY, Constants.NBT.TAG_INT);
+    }
+
+    static void write(final NBTTagCompound compound,
+                      final ChestLockSnapshot snapshot,
+                      final ChestLockPlayerRegistry players) {
+        final Map<Integer, Integer> playerIndexes = Maps.newLinkedHashMap();
+        final Map<String, Integer> types = Maps.newLinkedHashMap();
+        final ChestBlock[] chestBlocks = snapshot.getChestBlocks();
+        final int[] aclIndexes = snapshot.getAclIndexes();
+        final int[] owners = snapshot.getOwners();
+        final int[] chests = new int[chestBlocks.length * CHEST_STRIDE];
+
+        for (int index = 0; index < chestBlocks.length; index++) {
+            ChestBlock chestBlock = chestBlocks[index];
+            long packedPos = chestBlock.getChestPos().toLong();
+            int offset = index * CHEST_STRIDE;
+
+            chests[offset] = (int) (packedPos >>> 32);
+            chests[offset + 1] = (int) packedPos;
+            chests[offset + 2] = indexOf(types, chestBlock.getUnlocalizedName());
+            chests[offset + 3] = aclIndexes[index];
+            chests[offset + 4] = owners[index] == ChestLockPlayerRegistry.NO_PLAYER
+                    ? NO_OWNER : indexOf(playerIndexes, owners[index]);
+        }
+
+        int aclArrayLength = 0;
+        for (ChestAcl acl : snapshot.getAcls()) {
+            aclArrayLength += 1 + acl.size();
+        }
+
+        final int[] aclArray = new int[aclArrayLength];
+        int offset = 0;
+        for (ChestAcl acl : snapshot.getAcls()) {
+            aclArray[offset++] = acl.size();
+            for (int entry = 0; entry < acl.size(); entry++) {
+                aclArray[offset++] = indexOf(playerIndexes, acl.playerIdAt(entry)) << PERMISSION_BITS
+                        | acl.permissionAt(entry).ordinal();
+            }
+        }
+
+        compound.setInteger(FORMAT_KEY, FORMAT_VERSION);
+        compound.setLong(SEQUENCE_KEY, snapshot.getSequence());
+        final NBTTagList names = new NBTTagList();
+        final int[] uuids = new int[playerIndexes.size() * UUID_STRIDE];
+        offset = 0;
+        // LinkedHashMap, iteration order matches the assigned indexes
+        for (int playerId : playerIndexes.keySet()) {
+            UUID uuid = players.uuidOf(playerId);
+            names.appendTag(new NBTTagString(players.nameOf(playerId)));
+            uuids[offset++] = (int) (uuid.getMostSignificantBits() >>> 32);
+            uuids[offset++] = (int) uuid.getMostSignificantBits();
+            uuids[offset++] = (int) (uuid.getLeastSignificantBits() >>> 32);
+            uuids[offset++] = (int) uuid.getLeastSignificantBits();
+        }
+
+        compound.setTag(NAMES_KEY, names);
+        compound.setIntArray(PLAYERS_KEY, uuids);
+        compound.setTag(TYPES_KEY, toTagList(types));
+        compound.setIntArray(ACLS_KEY, aclArray);
+        compound.setIntArray(CHESTS_KEY, chests);
+    }
+
+    /**
+     * @return the last journal sequence number contained in the encoded snapshot.
+     */
+    static long readSequence(final NBTTagCompound compound) {
+        return compound.getLong(SEQUENCE_KEY);
+    }
+
+    static ChestLockSnapshot read(final NBTTagCompound compound, final ChestLockPlayerRegistry players) {
+        int formatVersion = compound.getInteger(FORMAT_KEY);
+        if (formatVersion != FORMAT_VERSION && formatVersion != NAMES_ONLY_FORMAT_VERSION) {
+            throw new RuntimeException("Unknown ChestLockManager save format " + formatVersion);
+        }
+
+        final String[] names = fromTagList(compound.getTagList(NAMES_KEY, Constants.NBT.TAG_STRING));
+        final int[] playerIds = formatVersion == FORMAT_VERSION
+                ? readPlayerIds(names, compound.getIntArray(PLAYERS_KEY), players)
+                : resolvePlayerIds(names, players);
+        final String[] types = fromTagList(compound.getTagList(TYPES_KEY, Constants.NBT.TAG_STRING));
+        final int[] aclArray = compound.getIntArray(ACLS_KEY);
+        final int[] chests = compound.getIntArray(CHESTS_KEY);
+
+        final List<ChestAcl> acls = Lists.newArrayList();
+        int offset = 0;
+        while (offset < aclArray.length) {
+            int entryCount = aclArray[offset++];
+            Map<Integer, ChestPermissions> acl = Maps.newHashMap();
+
+            for (int entry = 0; entry < entryCount; entry++) {
+                int packedPermission = aclArray[offset++];
+                acl.put(playerIds[packedPermission >>> PERMISSION_BITS], PERMISSIONS[packedPermission & PERMISSION_MASK]);
+            }
+
+            acls.add(ChestAcl.of(acl));
+        }
+
+        final int chestCount = chests.length / CHEST_STRIDE;
+        final ChestBlock[] chestBlocks = new ChestBlock[chestCount];
+        final int[] aclIndexes = new int[chestCount];
+        final int[] owners = new int[chestCount];
+
+        for (int index = 0; index < chestCount; index++) {
+            offset = index * CHEST_STRIDE;
+            long packedPos = ((long) chests[offset] << 32) | (chests[offset + 1] & 0xFFFFFFFFL);
+            int ownerIndex = chests[offset + 4];
+
+            chestBlocks[index] = new ChestBlock(types[chests[offset + 2]], ChestPos.fromLong(packedPos));
+            aclIndexes[index] = chests[offset + 3];
+            owners[index] = ownerIndex == NO_OWNER ? ChestLockPlayerRegistry.NO_PLAYER : playerIds[ownerIndex];
+        }
+
+        return new ChestLockSnapshot(chestBlocks, aclIndexes, acls, owners, readSequence(compound));
+    }
+
+    private static int[] readPlayerIds(final String[] names, final int[] uuids, final ChestLockPlayerRegistry players) {
+        int[] playerIds = new int[names.length];
+
+        for (int index = 0; index < names.length; index++) {
+            int offset = index * UUID_STRIDE;
+            UUID uuid = new UUID(((long) uuids[offset] << 32) | (uuids[offset + 1] & 0xFFFFFFFFL),
+                    ((long) uuids[offset + 2] << 32) | (uuids[offset + 3] & 0xFFFFFFFFL));
+            playerIds[index] = players.idOf(uuid, names[index]);
+        }
+
+        return playerIds;
+    }
+
+    private static int[] resolvePlayerIds(final String[] names, final ChestLockPlayerRegistry players) {
+        int[] playerIds = new int[names.length];
+
+        for (int index = 0; index < names.length; index++) {
+            playerIds[index] = players.resolve(names[index]);
+        }
+
+        return playerIds;
+    }
+
+    private static <T> int indexOf(final Map<T, Integer> table, final T value) {
+        Integer index = table.get(value);
+
+        if (index == null) {
+            index = table.size();
+            table.put(value, index);
+        }
+
+        return index;
+    }
+
+    private static NBTTagList toTagList(final Map<String, Integer> table) {
+        // The table is a LinkedHashMap so iteration order matches the assigned indexes
+        NBTTagList tagList = new NBTTagList();
+        table.keySet().forEach(value -> tagList.appendTag(new NBTTagString(value)));
+        return tagList;
+    }
+
+    private static String[] fromTagList(final NBTTagList tagList) {
+        String[] values = new String[tagList.tagCount()];
+
+        for (int index = 0; index < values.length; index++) {
+            values[index] = tagList.getStringTagAt(index);
+        }
+
+        return values;
+    }
+}
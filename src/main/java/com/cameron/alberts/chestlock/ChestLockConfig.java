@@ -0,0 +1,152 @@
+package com.cameron.alberts.chestlock;
+
+import com.google.common.collect.Maps;
+import com.google.common.primitives.Ints;
+import lombok.extern.log4j.Log4j2;
+import net.minecraft.block.Block;
+import net.minecraft.block.material.EnumPushReaction;
+import net.minecraftforge.common.config.Configuration;
+
+import java.io.File;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * The mod's configuration file, read once in pre-initialization. Values that name blocks are only resolved once
+ * every mod has registered its blocks.
+ */
+@Log4j2
+public final class ChestLockConfig {
+    private static final String CONTAINERS_CATEGORY = "containers";
+    private static final String JOBS_CATEGORY = "jobs";
+    private static final String METRICS_CATEGORY = "metrics";
+    private static final String ENTRY_SEPARATOR = "=";
+    private static final String[] DEFAULT_CONTAINERS = {
+            "minecraft:chest=horizontal",
+            "minecraft:trapped_chest=horizontal",
+            "minecraft:ender_chest=none",
+            "minecraft:furnace=none",
+            "minecraft:lit_furnace=none"
+    };
+    // Counted on every lock lookup, only worth their cost while tuning the filters
+    private static final String[] DEFAULT_SAMPLE_RATES = {
+            ChestLockFilter.REJECTIONS_METRIC + "=0",
+            ChestLockFilter.PASSES_METRIC + "=0",
+            ChestLockFilter.FALSE_POSITIVES_METRIC + "=0"
+    };
+
+    private final String[] containers;
+    private final int jobBudgetMicros;
+    private final int timerSummarySeconds;
+    private final boolean rawTimers;
+    private final int defaultSampleRate;
+    private final String[] sampleRates;
+
+    private ChestLockConfig(final Configuration configuration) {
+        configuration.setCategoryComment(CONTAINERS_CATEGORY, "Blocks that are locked when placed");
+        this.containers = configuration.getStringList("containers", CONTAINERS_CATEGORY, DEFAULT_CONTAINERS,
+                "One <block registry name>=<partners> per line, partners is none for single block containers, "
+                        + "horizontal for containers that join the same block north, south, west or east of them "
+                        + "like the double chest, or adjacent for containers that join the same block on any side. "
+                        + "Blocks a piston breaks, like shulker boxes, can't be locked since anyone could break them");
+        this.jobBudgetMicros = configuration.getInt("tickBudgetMicros", JOBS_CATEGORY, 2000, 100, 50000,
+                "How long bulk lock commands may run every tick, in microseconds");
+        this.timerSummarySeconds = configuration.getInt("timerSummarySeconds", METRICS_CATEGORY, 60, 1, 3600,
+                "How often timer percentiles, counters, gauges and sizes are written to metrics.json, in seconds");
+        this.rawTimers = configuration.getBoolean("rawTimers", METRICS_CATEGORY, false,
+                "Write every timing to metrics.json on its own line instead of the periodic summaries, for debugging");
+        this.defaultSampleRate = configuration.getInt("defaultSampleRate", METRICS_CATEGORY, 1, 0, 1000000,
+                "Time 1 in this many calls of every timer without a sample rate of its own, 0 disables every metric "
+                        + "without one and metrics.json isn't opened unless a metric is enabled");
+        this.sampleRates = configuration.getStringList("sampleRates", METRICS_CATEGORY, DEFAULT_SAMPLE_RATES,
+                "One <metric name>=<sample rate> per line, like handlePlayerInteractRightClick=10 or canOpenDenied=0. "
+                        + "Counters, gauges and sizes are recorded in full unless their rate is 0");
+    }
+
+    /**
+     * Reads the configuration file, writing the defaults of every value that is missing.
+     */
+    public static ChestLockConfig load(final File file) {
+        Configuration configuration = new Configuration(file);
+        configuration.load();
+        ChestLockConfig config = new ChestLockConfig(configuration);
+
+        if (configuration.hasChanged()) {
+            configuration.save();
+        }
+
+        return config;
+    }
+
+    public int getJobBudgetMicros() {
+        return jobBudgetMicros;
+    }
+
+    public int getTimerSummarySeconds() {
+        return timerSummarySeconds;
+    }
+
+    public boolean isRawTimers() {
+        return rawTimers;
+    }
+
+    public int getDefaultSampleRate() {
+        return defaultSampleRate;
+    }
+
+    /**
+     * Parses the configured sample rates, entries without a metric name and a rate of 0 or more are logged
+     * and skipped.
+     * @return the sample rate of each metric, by name.
+     */
+    public Map<String, Integer> getSampleRates() {
+        Map<String, Integer> sampleRatesByName = Maps.newHashMap();
+
+        for (String entry : sampleRates) {
+            String[] parts = entry.split(ENTRY_SEPARATOR);
+            Integer sampleRate = parts.length == 2 ? Ints.tryParse(parts[1].trim()) : null;
+
+            if (sampleRate == null || sampleRate < 0) {
+                log.warn("Skipping sample rate {}, it doesn't name a metric and a rate of 0 or more", entry);
+                continue;
+            }
+
+            sampleRatesByName.put(parts[0].trim(), sampleRate);
+        }
+
+        return sampleRatesByName;
+    }
+
+    /**
+     * Resolves the configured containers, entries naming a block that doesn't exist, a block a piston breaks or
+     * with an unknown partners value are logged and skipped. A piston breaking a locked block would drop its
+     * contents for anyone, and the lock would outlive it.
+     * @return every block that can be locked and how the other blocks of its container are found.
+     */
+    public Map<Block, ChestPartners> getContainers() {
+        Map<Block, ChestPartners> containersByBlock = Maps.newLinkedHashMap();
+
+        for (String entry : containers) {
+            String[] parts = entry.split(ENTRY_SEPARATOR);
+            Block block = Block.getBlockFromName(parts[0].trim());
+
+            if (parts.length != 2 || block == null) {
+                log.warn("Skipping container {}, it doesn't name a block and its partners", entry);
+                continue;
+            }
+
+            if (block.getDefaultState().getMobilityFlag() == EnumPushReaction.DESTROY) {
+                log.warn("Skipping container {}, pistons break it so its lock couldn't be kept", entry);
+                continue;
+            }
+
+            try {
+                containersByBlock.put(block, ChestPartners.valueOf(parts[1].trim().toUpperCase(Locale.ROOT)));
+            } catch (IllegalArgumentException e) {
+                log.warn("Skipping container {}, partners has to be none, horizontal or adjacent", entry);
+            }
+        }
+
+        return containersByBlock;
+    }
+}
@@ -0,0 +1,90 @@
+package com.cameron.alberts.chestlock;
+
+import com.cameron.alberts.metrics.CounterMetric;
+
+import java.util.Arrays;
+
+/**
+ * The last few {@link ChestLockManager#canOpen(int, net.minecraft.block.Block, net.minecraft.util.math.BlockPos)}
+ * decisions of one player, so a player or a machine clicking the same chests over and over doesn't repeat the
+ * lookup every click. Each decision is stamped with the manager's acl version when it was made and only used
+ * while no acl has changed since, so a decision is never stale.
+ *
+ * Holds {@value #CAPACITY} decisions in plain arrays that a lookup scans, the decision is returned as the shared
+ * {@link Boolean} constants. Once full the least recently used decision is replaced. The hit and miss counters
+ * are shared by every cache.
+ */
+final class ChestLockDecisionCache {
+    static final int CAPACITY = 16;
+
+    private static final CounterMetric HITS = CounterMetric.create("decisionCacheHits");
+    private static final CounterMetric MISSES = CounterMetric.create("decisionCacheMisses");
+
+    private final long[] positions;
+    private final int[] typeIds;
+    private final long[] versions;
+    private final boolean[] decisions;
+    // Value of useClock when each decision was last used, the smallest one is replaced first
+    private final long[] lastUsed;
+    private long useClock;
+
+    ChestLockDecisionCache() {
+        this.positions = new long[CAPACITY];
+        this.typeIds = new int[CAPACITY];
+        this.versions = new long[CAPACITY];
+        this.decisions = new boolean[CAPACITY];
+        this.lastUsed = new long[CAPACITY];
+        Arrays.fill(positions, ChestLockTable.NO_KEY);
+    }
+
+    /**
+     * @param version the manager's acl version, read before the lookup.
+     * @return the decision made for the chest at this version, or null if there is none.
+     */
+    synchronized Boolean get(final long packedPos, final int typeId, final long version) {
+        int index = indexOf(packedPos, typeId);
+
+        if (index == ChestLockTable.NOT_FOUND || versions[index] != version) {
+            MISSES.increment();
+            return null;
+        }
+
+        HITS.increment();
+        lastUsed[index] = ++useClock;
+        return decisions[index];
+    }
+
+    /**
+     * @param version the manager's acl version read before the decision was made, if an acl changed since
+     * the decision is never returned.
+     */
+    synchronized void put(final long packedPos, final int typeId, final long version, final boolean decision) {
+        int index = indexOf(packedPos, typeId);
+
+        if (index == ChestLockTable.NOT_FOUND) {
+            index = 0;
+
+            for (int candidate = 1; candidate < CAPACITY; candidate++) {
+                if (lastUsed[candidate] < lastUsed[index]) {
+                    index = candidate;
+                }
+            }
+        }
+
+        positions[index] = packedPos;
+        typeIds[index] = typeId;
+        versions[index] = version;
+        decisions[index] = decision;
+        lastUsed[index] = ++useClock;
+    }
+
+    private int indexOf(final long packedPos, final int typeId) {
+        for (int index = 0; index < CAPACITY; index++) {
+            if (positions[index] == packedPos && typeIds[index] == typeId) {
+                return index;
+            }
+        }
+
+        return ChestLockTable.NOT_FOUND;
+    }
+}
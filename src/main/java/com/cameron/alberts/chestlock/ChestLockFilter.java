@@ -0,0 +1,118 @@
+package com.cameron.alberts.chestlock;
+
+import com.cameron.alberts.metrics.CounterMetric;
+
+/**
+ * Bloom filter of the positions locked in a {@link ChestLockTable}, checked before the table so the lookups for
+ * unlocked chests, which are almost all of them, return without probing the table. A filter can say a position
+ * might be locked when it isn't, but never the other way around.
+ *
+ * A filter holds {@value #BITS_PER_LOCK} bits per lock it was sized for and sets {@value #HASHES} bits per
+ * position, about a 0.25% false positive rate while full. Positions are only ever added, locks are never
+ * removed, and once the filter is full {@link #isFull(int)} tells the owner to build a bigger one with
+ * {@link #of(ChestLockTable)}.
+ *
+ * The counters are shared by every filter and written with the other metrics. They sit on the path of every
+ * lookup, so the default configuration disables them, see {@link ChestLockConfig}. Every lookup is either a
+ * rejection or a pass, the filter hit rate is the rejections over their sum.
+ */
+final class ChestLockFilter {
+    private static final int BITS_PER_LOCK = 16;
+    private static final int HASHES = 4;
+    private static final int MIN_BITS = 256;
+    // Finalizer constants of MurmurHash3, every bit of the position affects both halves of the mixed hash
+    private static final long MIX_MULTIPLIER_1 = 0xFF51AFD7ED558CCDL;
+    private static final long MIX_MULTIPLIER_2 = 0xC4CEB9FE1A85EC53L;
+
+    static final String REJECTIONS_METRIC = "filterRejections";
+    static final String PASSES_METRIC = "filterPasses";
+    static final String FALSE_POSITIVES_METRIC = "filterFalsePositives";
+    private static final CounterMetric REJECTIONS = CounterMetric.create(REJECTIONS_METRIC);
+    private static final CounterMetric PASSES = CounterMetric.create(PASSES_METRIC);
+    private static final CounterMetric FALSE_POSITIVES = CounterMetric.create(FALSE_POSITIVES_METRIC);
+
+    private final long[] bits;
+    private final int mask;
+    private final int capacity;
+
+    private ChestLockFilter(final int capacity) {
+        int bitCount = Math.max(MIN_BITS, Integer.highestOneBit(Math.max(1, capacity * BITS_PER_LOCK - 1)) << 1);
+        this.bits = new long[bitCount / Long.SIZE];
+        this.mask = bitCount - 1;
+        this.capacity = bitCount / BITS_PER_LOCK;
+    }
+
+    static ChestLockFilter empty() {
+        return new ChestLockFilter(0);
+    }
+
+    /**
+     * @return a filter of every position in the table, with room for as many locks again.
+     */
+    static ChestLockFilter of(final ChestLockTable table) {
+        ChestLockFilter filter = new ChestLockFilter(table.size() * 2);
+
+        for (int slot = table.nextSlot(0); slot != ChestLockTable.NOT_FOUND; slot = table.nextSlot(slot + 1)) {
+            filter.add(table.keyAt(slot));
+        }
+
+        return filter;
+    }
+
+    void add(final long packedPos) {
+        long hash = mix(packedPos);
+        int firstHash = (int) (hash >>> 32);
+        int secondHash = (int) hash | 1;
+
+        for (int index = 0; index < HASHES; index++) {
+            int bit = (firstHash + index * secondHash) & mask;
+            bits[bit >>> 6] |= 1L << bit;
+        }
+    }
+
+    /**
+     * @return false if the position is definitely not locked, true if it might be.
+     */
+    boolean mightContain(final long packedPos) {
+        long hash = mix(packedPos);
+        int firstHash = (int) (hash >>> 32);
+        int secondHash = (int) hash | 1;
+
+        for (int index = 0; index < HASHES; index++) {
+            int bit = (firstHash + index * secondHash) & mask;
+
+            if ((bits[bit >>> 6] & (1L << bit)) == 0) {
+                REJECTIONS.increment();
+                return false;
+            }
+        }
+
+        PASSES.increment();
+        return true;
+    }
+
+    /**
+     * Called when {@link #mightContain(long)} returned true but the table had no lock at the position.
+     */
+    static void recordFalsePositive() {
+        FALSE_POSITIVES.increment();
+    }
+
+    /**
+     * @return true once the filter holds as many locks as it was sized for.
+     */
+    boolean isFull(final int size) {
+        return size > capacity;
+    }
+
+    /**
+     * The two halves of the mixed position are the two hashes every bit index is derived from.
+     */
+    private static long mix(final long packedPos) {
+        long hash = packedPos ^ (packedPos >>> 33);
+        hash *= MIX_MULTIPLIER_1;
+        hash ^= hash >>> 33;
+        hash *= MIX_MULTIPLIER_2;
+        return hash ^ (hash >>> 33);
+    }
+}
@@ -0,0 +1,247 @@
+package com.cameron.alberts.chestlock;
+
+import com.google.common.collect.Maps;
+import lombok.extern.log4j.Log4j2;
+import net.minecraft.nbt.NBTTagCompound;
+import net.minecraft.nbt.NBTTagList;
+import net.minecraft.world.WorldSavedData;
+import net.minecraft.world.storage.MapStorage;
+import net.minecraftforge.common.util.Constants;
+
+import javax.annotation.Nullable;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+
+/**
+ * Named groups of players that can be given a {@link ChestPermissions} on a chest like a single player. A group
+ * is an id in the {@link ChestLockPlayerRegistry} with a UUID derived from its name, so {@link ChestAcl}s, region
+ * files and the journal store it exactly like a player. Its members are only stored here, once for every
+ * dimension, and are checked when a chest is opened, so adding or removing a member is one change no matter how
+ * many chests the group is on.
+ *
+ * Groups are shared by every dimension and saved in the server's global {@link MapStorage}. Each group has the
+ * player that created it as its owner, only the owner can change its members.
+ */
+@Log4j2
+public final class ChestLockGroups extends WorldSavedData {
+    // Player names can't contain it, so a group can never be mistaken for a player
+    public static final String GROUP_PREFIX = "#";
+    public static final int NO_GROUP = ChestLockPlayerRegistry.NO_PLAYER;
+    static final String CHEST_LOCK_GROUPS_SAVE_KEY = ChestLockMod.MOD_ID + "_ChestLockGroups";
+    private static final String GROUPS_KEY = "Groups";
+    private static final String NAME_KEY = "Name";
+    private static final String OWNER_KEY = "Owner";
+    private static final String OWNER_NAME_KEY = "OwnerName";
+    private static final String MEMBERS_KEY = "Members";
+    private static final String UUID_KEY = "Uuid";
+    private static final Pattern GROUP_NAME = Pattern.compile("[A-Za-z0-9_]{1,16}");
+
+    // Keyed by the group's player id
+    private final Map<Integer, Group> groups;
+    // Bumped after every membership change, a decision made from the groups is only valid while it doesn't change
+    private final AtomicLong version;
+    private ChestLockPlayerRegistry players;
+    // Groups read before the player registry was known, decoded by open
+    @Nullable
+    private NBTTagCompound savedCompound;
+
+    public ChestLockGroups(final String name) {
+        super(name);
+        this.groups = Maps.newConcurrentMap();
+        this.version = new AtomicLong();
+    }
+
+    ChestLockGroups(final ChestLockPlayerRegistry playerRegistry) {
+        this(CHEST_LOCK_GROUPS_SAVE_KEY);
+        this.players = playerRegistry;
+    }
+
+    /**
+     * Loads the groups from the server's global storage, every dimension shares the same storage.
+     */
+    static ChestLockGroups getChestLockGroups(final MapStorage storage, final ChestLockPlayerRegistry players) {
+        ChestLockGroups chestLockGroups = (ChestLockGroups) storage.getOrLoadData(ChestLockGroups.class, CHEST_LOCK_GROUPS_SAVE_KEY);
+
+        if (chestLockGroups == null) {
+            chestLockGroups = new ChestLockGroups(CHEST_LOCK_GROUPS_SAVE_KEY);
+            storage.setData(CHEST_LOCK_GROUPS_SAVE_KEY, chestLockGroups);
+        }
+
+        chestLockGroups.open(players);
+        return chestLockGroups;
+    }
+
+    /**
+     * Creates a group owned by {@code ownerId}.
+     * @param groupName the group's name without {@link #GROUP_PREFIX}.
+     */
+    public ChestLockManagerResult create(final int ownerId, final String groupName) {
+        if (!GROUP_NAME.matcher(groupName).matches()) {
+            return ChestLockManagerResult.INVALID_GROUP_NAME;
+        }
+
+        int groupId = players.idOf(uuidOf(groupName), GROUP_PREFIX + groupName);
+
+        if (groups.putIfAbsent(groupId, new Group(ownerId)) != null) {
+            return ChestLockManagerResult.GROUP_ALREADY_EXISTS;
+        }
+
+        markDirty();
+        return ChestLockManagerResult.SUCCESSFULLY_CREATED_GROUP;
+    }
+
+    public ChestLockManagerResult addMember(final int requestingPlayerId, final int groupId, final int playerId) {
+        Group group = groups.get(groupId);
+
+        if (group == null) {
+            return ChestLockManagerResult.GROUP_DOES_NOT_EXIST;
+        }
+
+        if (group.owner != requestingPlayerId) {
+            return ChestLockManagerResult.PERMISSION_DENIED;
+        }
+
+        if (!group.members.add(playerId)) {
+            return ChestLockManagerResult.USER_ALREADY_IN_GROUP;
+        }
+
+        version.incrementAndGet();
+        markDirty();
+        return ChestLockManagerResult.SUCCESSFULLY_ADDED_MEMBER;
+    }
+
+    public ChestLockManagerResult removeMember(final int requestingPlayerId, final int groupId, final int playerId) {
+        Group group = groups.get(groupId);
+
+        if (group == null) {
+            return ChestLockManagerResult.GROUP_DOES_NOT_EXIST;
+        }
+
+        if (group.owner != requestingPlayerId) {
+            return ChestLockManagerResult.PERMISSION_DENIED;
+        }
+
+        if (!group.members.remove(playerId)) {
+            return ChestLockManagerResult.USER_IS_NOT_IN_GROUP;
+        }
+
+        version.incrementAndGet();
+        markDirty();
+        return ChestLockManagerResult.SUCCESSFULLY_REMOVED_MEMBER;
+    }
+
+    /**
+     * @param groupName the group's name, with or without {@link #GROUP_PREFIX}.
+     * @return the id of the group, or {@link #NO_GROUP} if there is no such group.
+     */
+    public int getGroupId(final String groupName) {
+        String name = groupName.startsWith(GROUP_PREFIX) ? groupName.substring(GROUP_PREFIX.length()) : groupName;
+        int groupId = players.idOfName(GROUP_PREFIX + name);
+        return groups.containsKey(groupId) ? groupId : NO_GROUP;
+    }
+
+    /**
+     * @return true if {@code playerId} is a member of the group {@code groupId}, false if it isn't or
+     * {@code groupId} is a player.
+     */
+    boolean isMember(final int groupId, final int playerId) {
+        Group group = groups.get(groupId);
+        return group != null && group.members.contains(playerId);
+    }
+
+    boolean isEmpty() {
+        return groups.isEmpty();
+    }
+
+    long getVersion() {
+        return version.get();
+    }
+
+    /**
+     * Keeps the saved groups until {@link #open(ChestLockPlayerRegistry)} can turn their players into ids.
+     */
+    @Override
+    public void readFromNBT(final NBTTagCompound compound) {
+        savedCompound = compound;
+    }
+
+    @Override
+    public NBTTagCompound writeToNBT(final NBTTagCompound compound) {
+        if (players == null) {
+            return savedCompound == null ? compound : savedCompound;
+        }
+
+        NBTTagList groupList = new NBTTagList();
+
+        groups.forEach((groupId, group) -> {
+            NBTTagCompound groupCompound = new NBTTagCompound();
+            NBTTagList members = new NBTTagList();
+
+            groupCompound.setString(NAME_KEY, players.nameOf(groupId).substring(GROUP_PREFIX.length()));
+            groupCompound.setUniqueId(OWNER_KEY, players.uuidOf(group.owner));
+            groupCompound.setString(OWNER_NAME_KEY, players.nameOf(group.owner));
+            group.members.forEach(playerId -> {
+                NBTTagCompound member = new NBTTagCompound();
+                member.setUniqueId(UUID_KEY, players.uuidOf(playerId));
+                member.setString(NAME_KEY, players.nameOf(playerId));
+                members.appendTag(member);
+            });
+            groupCompound.setTag(MEMBERS_KEY, members);
+            groupList.appendTag(groupCompound);
+        });
+
+        compound.setTag(GROUPS_KEY, groupList);
+        return compound;
+    }
+
+    private void open(final ChestLockPlayerRegistry playerRegistry) {
+        players = playerRegistry;
+
+        if (savedCompound == null) {
+            return;
+        }
+
+        NBTTagList groupList = savedCompound.getTagList(GROUPS_KEY, Constants.NBT.TAG_COMPOUND);
+
+        for (int index = 0; index < groupList.tagCount(); index++) {
+            NBTTagCompound groupCompound = groupList.getCompoundTagAt(index);
+            String groupName = groupCompound.getString(NAME_KEY);
+            Group group = new Group(players.idOf(groupCompound.getUniqueId(OWNER_KEY), groupCompound.getString(OWNER_NAME_KEY)));
+            NBTTagList members = groupCompound.getTagList(MEMBERS_KEY, Constants.NBT.TAG_COMPOUND);
+
+            for (int member = 0; member < members.tagCount(); member++) {
+                NBTTagCompound memberCompound = members.getCompoundTagAt(member);
+                group.members.add(players.idOf(memberCompound.getUniqueId(UUID_KEY), memberCompound.getString(NAME_KEY)));
+            }
+
+            groups.put(players.idOf(uuidOf(groupName), GROUP_PREFIX + groupName), group);
+        }
+
+        savedCompound = null;
+        log.info("Loaded {} chest lock groups", groups.size());
+    }
+
+    /**
+     * The same name always gets the same UUID, so a chest's acl keeps pointing at the group across restarts.
+     */
+    private static UUID uuidOf(final String groupName) {
+        return UUID.nameUUIDFromBytes((CHEST_LOCK_GROUPS_SAVE_KEY + ":" + groupName.toLowerCase(Locale.ROOT))
+                .getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static final class Group {
+        private final int owner;
+        private final Set<Integer> members;
+
+        private Group(final int owner) {
+            this.owner = owner;
+            this.members = ConcurrentHashMap.newKeySet();
+        }
+    }
+}
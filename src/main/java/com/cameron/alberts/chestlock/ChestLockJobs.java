@@ -0,0 +1,312 @@
+package com.cameron.alberts.chestlock;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import lombok.extern.log4j.Log4j2;
+import net.minecraft.block.Block;
+import net.minecraft.command.ICommandSender;
+import net.minecraft.util.math.BlockPos;
+import net.minecraft.util.text.TextComponentString;
+import net.minecraft.util.text.TextFormatting;
+import net.minecraft.world.World;
+import net.minecraftforge.fml.common.eventhandler.SubscribeEvent;
+import net.minecraftforge.fml.common.gameevent.TickEvent;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+
+/**
+ * Runs bulk changes to the locks of a dimension a step at a time on the server thread, so a change to every
+ * chest of a big base never stalls a tick. Every tick the jobs share a budget of microseconds, the oldest job
+ * runs until it finishes or the budget is spent, then the next one. The sender of a job is told its progress
+ * every {@value #PROGRESS_INTERVAL_TICKS} ticks and once it finishes or is cancelled.
+ *
+ * While a job runs its manager doesn't compact, the job's changes are journaled as they are made and written to
+ * the region files together on the first world save after the last job ends.
+ *
+ * Only used on the server thread.
+ */
+@Log4j2
+public final class ChestLockJobs {
+    private static final int PROGRESS_INTERVAL_TICKS = 100;
+
+    private final ChestLockManagers managers;
+    private final long budgetNanos;
+    private final List<Job> jobs;
+    private int nextJobId;
+    private long tick;
+
+    /**
+     * @param budgetMicros how long the jobs may run every tick, together.
+     */
+    public ChestLockJobs(final ChestLockManagers chestLockManagers, final int budgetMicros) {
+        this.managers = chestLockManagers;
+        this.budgetNanos = TimeUnit.MICROSECONDS.toNanos(budgetMicros);
+        this.jobs = Lists.newArrayList();
+        this.nextJobId = 1;
+    }
+
+    /**
+     * Locks every unlocked chest in the loaded chunks of a cube around {@code center} to the player, chests next
+     * to a chest someone else locked are skipped.
+     * @return the id of the job.
+     */
+    public int lockArea(final ICommandSender sender,
+                        final World world,
+                        final BlockPos center,
+                        final int radius,
+                        final int playerId) {
+        ChestLockManager manager = managers.get(world);
+        String description = "lock the chests within " + radius + " blocks for " + manager.getPlayerName(playerId);
+        return submit(new AreaJob(nextJobId, description, sender, world, manager, center, radius, playerId));
+    }
+
+    /**
+     * Makes {@code toPlayerId} the root user of every chest {@code fromPlayerId} is the root user of.
+     * @param chestBlocks the chests {@code fromPlayerId} is the root user of, read off the server thread by
+     * {@link ChestLockQueries#chestsWith}.
+     * @return the id of the job.
+     */
+    public int transfer(final ICommandSender sender,
+                        final World world,
+                        final int fromPlayerId,
+                        final int toPlayerId,
+                        final List<ChestBlock> chestBlocks) {
+        ChestLockManager manager = managers.get(world);
+        String description = "transfer the chests of " + manager.getPlayerName(fromPlayerId)
+                + " to " + manager.getPlayerName(toPlayerId);
+        return submit(new ChestsJob(nextJobId, description, sender, world, manager, chestBlocks,
+                chestBlock -> manager.transfer(fromPlayerId, toPlayerId, chestBlock)));
+    }
+
+    /**
+     * Removes the player from every chest they were given access to.
+     * @param chestBlocks the chests the player was given access to, read off the server thread by
+     * {@link ChestLockQueries#chestsWith}.
+     * @return the id of the job.
+     */
+    public int strip(final ICommandSender sender, final World world, final int playerId, final List<ChestBlock> chestBlocks) {
+        ChestLockManager manager = managers.get(world);
+        String description = "remove " + manager.getPlayerName(playerId) + " from every chest";
+        return submit(new ChestsJob(nextJobId, description, sender, world, manager, chestBlocks,
+                chestBlock -> manager.strip(playerId, chestBlock)));
+    }
+
+    /**
+     * Stops a job, the changes it already made are kept.
+     * @return false if no job with that id is running.
+     */
+    public boolean cancel(final int jobId) {
+        for (Iterator<Job> iterator = jobs.iterator(); iterator.hasNext(); ) {
+            Job job = iterator.next();
+
+            if (job.id == jobId) {
+                iterator.remove();
+                end(job, TextFormatting.YELLOW + "was cancelled");
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Stops every job, called when the server is stopping.
+     */
+    public void cancelAll() {
+        jobs.forEach(job -> end(job, TextFormatting.YELLOW + "was cancelled, the server is stopping"));
+        jobs.clear();
+    }
+
+    @SubscribeEvent
+    public void handleServerTick(final TickEvent.ServerTickEvent serverTickEvent) {
+        if (serverTickEvent.phase != TickEvent.Phase.END || jobs.isEmpty()) {
+            return;
+        }
+
+        tick++;
+        long deadline = System.nanoTime() + budgetNanos;
+
+        for (Iterator<Job> iterator = jobs.iterator(); iterator.hasNext() && System.nanoTime() - deadline < 0; ) {
+            Job job = iterator.next();
+
+            // The dimension unloaded and its manager was released
+            if (managers.get(job.world) != job.manager) {
+                iterator.remove();
+                end(job, TextFormatting.YELLOW + "was cancelled, its dimension unloaded");
+                continue;
+            }
+
+            boolean hasMoreSteps = true;
+
+            while (hasMoreSteps && System.nanoTime() - deadline < 0) {
+                hasMoreSteps = job.step();
+            }
+
+            if (!hasMoreSteps) {
+                iterator.remove();
+                end(job, TextFormatting.GREEN + "finished");
+            }
+        }
+
+        if (tick % PROGRESS_INTERVAL_TICKS == 0) {
+            jobs.forEach(job -> job.sender.sendMessage(new TextComponentString(
+                    TextFormatting.YELLOW + "Job " + job.id + " is " + job.getProgress() + "% done")));
+        }
+    }
+
+    private int submit(final Job job) {
+        jobs.add(job);
+        nextJobId++;
+        job.manager.beginBulk();
+        log.info("{} started job {} to {}", job.sender.getName(), job.id, job.description);
+        job.sender.sendMessage(new TextComponentString(TextFormatting.GREEN + "Started job " + job.id + " to "
+                + job.description + ", cancel it with /chest CANCEL " + job.id));
+        return job.id;
+    }
+
+    private static void end(final Job job, final String outcome) {
+        job.manager.endBulk();
+        log.info("Job {} to {} {} after changing {} chests", job.id, job.description, outcome, job.changed);
+        job.sender.sendMessage(new TextComponentString("Job " + job.id + " " + outcome + TextFormatting.RESET
+                + ", " + job.changed + " chests changed"));
+    }
+
+    private abstract static class Job {
+        private final int id;
+        private final String description;
+        private final ICommandSender sender;
+        protected final World world;
+        protected final ChestLockManager manager;
+        protected int changed;
+
+        private Job(final int id,
+                    final String description,
+                    final ICommandSender sender,
+                    final World world,
+                    final ChestLockManager manager) {
+            this.id = id;
+            this.description = description;
+            this.sender = sender;
+            this.world = world;
+            this.manager = manager;
+        }
+
+        /**
+         * Makes one small piece of progress.
+         * @return false once the job is done.
+         */
+        abstract boolean step();
+
+        abstract int getProgress();
+    }
+
+    /**
+     * Checks every position of the cube, positions in chunks that aren't loaded are skipped.
+     */
+    private static final class AreaJob extends Job {
+        private final int minX;
+        private final int minY;
+        private final int minZ;
+        private final int sizeX;
+        private final int sizeY;
+        private final long positions;
+        private final int playerId;
+        private final BlockPos.MutableBlockPos blockPos;
+        private long position;
+
+        private AreaJob(final int id,
+                        final String description,
+                        final ICommandSender sender,
+                        final World world,
+                        final ChestLockManager manager,
+                        final BlockPos center,
+                        final int radius,
+                        final int playerId) {
+            super(id, description, sender, world, manager);
+            this.minX = center.getX() - radius;
+            this.minZ = center.getZ() - radius;
+            this.minY = Math.max(0, center.getY() - radius);
+            this.sizeX = radius * 2 + 1;
+            this.sizeY = Math.min(255, center.getY() + radius) - minY + 1;
+            this.positions = (long) sizeX * Math.max(0, sizeY) * sizeX;
+            this.playerId = playerId;
+            this.blockPos = new BlockPos.MutableBlockPos();
+        }
+
+        @Override
+        boolean step() {
+            if (position >= positions) {
+                return false;
+            }
+
+            blockPos.setPos(minX + (int) (position % sizeX),
+                    minY + (int) (position / sizeX % sizeY),
+                    minZ + (int) (position / sizeX / sizeY));
+            position++;
+
+            if (!world.isBlockLoaded(blockPos)) {
+                return true;
+            }
+
+            Block block = world.getBlockState(blockPos).getBlock();
+
+            if (ChestBlock.isChest(block) && !manager.contains(block, blockPos)) {
+                ChestBlock chestBlock = new ChestBlock(block.getUnlocalizedName(), blockPos);
+                ChestBlock surroundingChestBlock = ChestBlock.getSurroundingChestBlock(world, blockPos);
+
+                if (manager.register(playerId, chestBlock, surroundingChestBlock) == ChestLockManagerResult.SUCCESSFULLY_REGISTERED_CHEST) {
+                    changed++;
+                }
+            }
+
+            return true;
+        }
+
+        @Override
+        int getProgress() {
+            return positions == 0 ? 100 : (int) (position * 100 / positions);
+        }
+    }
+
+    /**
+     * Applies a change to every chest of a list made when the job started.
+     */
+    private static final class ChestsJob extends Job {
+        private final List<ChestBlock> chestBlocks;
+        private final Predicate<ChestBlock> change;
+        private int index;
+
+        private ChestsJob(final int id,
+                          final String description,
+                          final ICommandSender sender,
+                          final World world,
+                          final ChestLockManager manager,
+                          final List<ChestBlock> chestBlocks,
+                          final Predicate<ChestBlock> change) {
+            super(id, description, sender, world, manager);
+            this.chestBlocks = ImmutableList.copyOf(chestBlocks);
+            this.change = change;
+        }
+
+        @Override
+        boolean step() {
+            if (index >= chestBlocks.size()) {
+                return false;
+            }
+
+            if (change.test(chestBlocks.get(index++))) {
+                changed++;
+            }
+
+            return true;
+        }
+
+        @Override
+        int getProgress() {
+            return chestBlocks.isEmpty() ? 100 : index * 100 / chestBlocks.size();
+        }
+    }
+}
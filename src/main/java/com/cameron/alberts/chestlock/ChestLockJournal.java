@@ -0,0 +1,332 @@
+package com.cameron.alberts.chestlock;
+
+import com.cameron.alberts.metrics.CounterMetric;
+import com.google.common.collect.Lists;
+import lombok.extern.log4j.Log4j2;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only write-ahead journal of every change made to a {@link ChestLockManager}. Each change is
+ * appended as a small checksummed record with an increasing sequence number, so a snapshot only has to
+ * remember the last sequence number it contains and everything after it is replayed on top of it.
+ *
+ * Records are written to segment files named after the first sequence number they may contain. Every
+ * {@link #rollover()} starts a new segment, the segments before it are deleted by
+ * {@link #deleteSegmentsContainedBy(long)} once a snapshot containing them is known to be on disk.
+ *
+ * Players are written by UUID and last known name and turned back into player ids through the
+ * {@link ChestLockPlayerRegistry} on replay. Records written before UUIDs were stored only have the name.
+ *
+ * Changes to different regions are appended from different threads, every method that touches the open
+ * segment is synchronized so records are never interleaved.
+ */
+@Log4j2
+final class ChestLockJournal implements Closeable {
+    private static final String SEGMENT_SUFFIX = ".journal";
+    private static final int MAX_RECORD_BYTES = 1 << 16;
+    private static final CounterMetric JOURNAL_BYTES = CounterMetric.create("journalBytes");
+
+    // Name only records, still replayed but never written anymore
+    private static final byte REGISTER_BY_NAME = 0;
+    private static final byte SET_PERMISSION_BY_NAME = 2;
+    private static final byte REMOVE_PERMISSION_BY_NAME = 3;
+
+    private static final byte LINK = 1;
+    private static final byte REGISTER = 4;
+    private static final byte SET_PERMISSION = 5;
+    private static final byte REMOVE_PERMISSION = 6;
+
+    private static final ChestPermissions[] PERMISSIONS = ChestPermissions.values();
+
+    private final File directory;
+    private final String segmentPrefix;
+    private final ChestLockPlayerRegistry players;
+    private final ByteArrayOutputStream recordBuffer;
+    private final DataOutputStream record;
+    private final CRC32 crc;
+
+    private File segmentFile;
+    private DataOutputStream segment;
+    private long segmentBytes;
+    private long lastSequence;
+
+    /**
+     * Applies replayed records, each method is given the record's sequence number so records a region's
+     * file already contains can be skipped.
+     */
+    interface Replayer {
+        void register(long sequence, ChestBlock chestBlock, int playerId);
+
+        void link(long sequence, ChestBlock chestBlock, ChestBlock partnerChestBlock);
+
+        void setPermission(long sequence, ChestBlock chestBlock, int playerId, ChestPermissions permission);
+
+        void removePermission(long sequence, ChestBlock chestBlock, int playerId);
+    }
+
+    ChestLockJournal(final File directory, final String name, final ChestLockPlayerRegistry players) {
+        this.directory = directory;
+        this.segmentPrefix = name + "_";
+        this.players = players;
+        this.recordBuffer = new ByteArrayOutputStream();
+        this.record = new DataOutputStream(recordBuffer);
+        this.crc = new CRC32();
+    }
+
+    /**
+     * Replays every record newer than {@code snapshotSequence}, deletes the segments the snapshot already
+     * contains and opens a fresh segment for new records. Replay stops at the first torn or corrupt record,
+     * which can only be the tail of the last segment written before a crash.
+     * @param snapshotSequence the last sequence number known to be contained in the saved snapshots.
+     * @param replayer applies each replayed record to the manager.
+     */
+    void open(final long snapshotSequence, final Replayer replayer) throws IOException {
+        lastSequence = snapshotSequence;
+        deleteSegmentsContainedBy(snapshotSequence);
+        List<File> segments = listSegments();
+
+        for (File segmentToReplay : segments) {
+            replaySegment(segmentToReplay, snapshotSequence, replayer);
+        }
+
+        // The newest segment is never deleted, even when it is empty its name keeps sequence numbers
+        // increasing past everything already written to a snapshot
+        if (!segments.isEmpty()) {
+            lastSequence = Math.max(lastSequence, startSequence(segments.get(segments.size() - 1)) - 1);
+        }
+
+        openSegment();
+    }
+
+    synchronized void appendRegister(final ChestBlock chestBlock, final int playerId) throws IOException {
+        startRecord(REGISTER, chestBlock);
+        writePlayer(playerId);
+        finishRecord();
+    }
+
+    synchronized void appendLink(final ChestBlock chestBlock, final ChestBlock partnerChestBlock) throws IOException {
+        startRecord(LINK, chestBlock);
+        record.writeLong(partnerChestBlock.getChestPos().toLong());
+        finishRecord();
+    }
+
+    synchronized void appendSetPermission(final ChestBlock chestBlock, final int playerId, final ChestPermissions permission)
+            throws IOException {
+        startRecord(SET_PERMISSION, chestBlock);
+        writePlayer(playerId);
+        record.writeByte(permission.ordinal());
+        finishRecord();
+    }
+
+    synchronized void appendRemovePermission(final ChestBlock chestBlock, final int playerId) throws IOException {
+        startRecord(REMOVE_PERMISSION, chestBlock);
+        writePlayer(playerId);
+        finishRecord();
+    }
+
+    synchronized long getLastSequence() {
+        return lastSequence;
+    }
+
+    /**
+     * @return the number of bytes appended since the last {@link #rollover()}.
+     */
+    synchronized long getSegmentBytes() {
+        return segmentBytes;
+    }
+
+    /**
+     * Starts a new segment, called whenever a snapshot containing every record up to {@link #getLastSequence()}
+     * is about to be written.
+     */
+    synchronized void rollover() throws IOException {
+        close();
+        openSegment();
+    }
+
+    /**
+     * Deletes every segment whose records are all contained by a snapshot that is on disk.
+     * @param snapshotSequence the last sequence number contained in that snapshot.
+     */
+    synchronized void deleteSegmentsContainedBy(final long snapshotSequence) {
+        List<File> segments = listSegments();
+
+        // A segment is fully contained by the snapshot if the next segment starts at or before snapshotSequence + 1
+        for (int index = 0; index + 1 < segments.size(); index++) {
+            File segmentToDelete = segments.get(index);
+
+            if (startSequence(segments.get(index + 1)) <= snapshotSequence + 1 && !segmentToDelete.equals(segmentFile)) {
+                deleteSegment(segmentToDelete);
+            }
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (segment != null) {
+            segment.close();
+            segment = null;
+        }
+    }
+
+    private void startRecord(final byte operation, final ChestBlock chestBlock) throws IOException {
+        if (segment == null) {
+            throw new IOException("The journal is not open");
+        }
+
+        recordBuffer.reset();
+        record.writeByte(operation);
+        record.writeLong(lastSequence + 1);
+        record.writeLong(chestBlock.getChestPos().toLong());
+        record.writeUTF(chestBlock.getUnlocalizedName());
+    }
+
+    private void writePlayer(final int playerId) throws IOException {
+        UUID uuid = players.uuidOf(playerId);
+        record.writeLong(uuid.getMostSignificantBits());
+        record.writeLong(uuid.getLeastSignificantBits());
+        record.writeUTF(players.nameOf(playerId));
+    }
+
+    private int readPlayer(final DataInputStream input) throws IOException {
+        UUID uuid = new UUID(input.readLong(), input.readLong());
+        return players.idOf(uuid, input.readUTF());
+    }
+
+    private void finishRecord() throws IOException {
+        crc.reset();
+        crc.update(recordBuffer.toByteArray());
+
+        segment.writeInt(recordBuffer.size());
+        recordBuffer.writeTo(segment);
+        segment.writeInt((int) crc.getValue());
+        segment.flush();
+
+        segmentBytes += recordBuffer.size() + 2 * Integer.BYTES;
+        JOURNAL_BYTES.add(recordBuffer.size() + 2 * Integer.BYTES);
+        lastSequence++;
+    }
+
+    private void replaySegment(final File segmentToReplay, final long snapshotSequence, final Replayer replayer)
+            throws IOException {
+        try (DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(segmentToReplay)))) {
+            while (true) {
+                byte[] payload;
+
+                try {
+                    int recordBytes = input.readInt();
+                    if (recordBytes < 0 || recordBytes > MAX_RECORD_BYTES) {
+                        log.warn("Stopped replaying {} at a corrupt record", segmentToReplay.getName());
+                        return;
+                    }
+
+                    payload = new byte[recordBytes];
+                    input.readFully(payload);
+                    crc.reset();
+                    crc.update(payload);
+
+                    if (input.readInt() != (int) crc.getValue()) {
+                        log.warn("Stopped replaying {} at a corrupt record", segmentToReplay.getName());
+                        return;
+                    }
+                } catch (EOFException e) {
+                    // Either the end of the segment or a record torn by a crash
+                    return;
+                }
+
+                replayRecord(new DataInputStream(new ByteArrayInputStream(payload)), snapshotSequence, replayer);
+            }
+        }
+    }
+
+    private void replayRecord(final DataInputStream input, final long snapshotSequence, final Replayer replayer)
+            throws IOException {
+        byte operation = input.readByte();
+        long sequence = input.readLong();
+        long packedPos = input.readLong();
+        ChestBlock chestBlock = new ChestBlock(input.readUTF(), ChestPos.fromLong(packedPos));
+
+        if (sequence <= snapshotSequence) {
+            return;
+        }
+
+        switch (operation) {
+            case REGISTER:
+                replayer.register(sequence, chestBlock, readPlayer(input));
+                break;
+            case REGISTER_BY_NAME:
+                replayer.register(sequence, chestBlock, players.resolve(input.readUTF()));
+                break;
+            case LINK:
+                ChestPos partnerChestPos = ChestPos.fromLong(input.readLong());
+                replayer.link(sequence, chestBlock, new ChestBlock(chestBlock.getUnlocalizedName(), partnerChestPos));
+                break;
+            case SET_PERMISSION:
+                int playerId = readPlayer(input);
+                replayer.setPermission(sequence, chestBlock, playerId, PERMISSIONS[input.readByte()]);
+                break;
+            case SET_PERMISSION_BY_NAME:
+                int namedPlayerId = players.resolve(input.readUTF());
+                replayer.setPermission(sequence, chestBlock, namedPlayerId, PERMISSIONS[input.readByte()]);
+                break;
+            case REMOVE_PERMISSION:
+                replayer.removePermission(sequence, chestBlock, readPlayer(input));
+                break;
+            case REMOVE_PERMISSION_BY_NAME:
+                replayer.removePermission(sequence, chestBlock, players.resolve(input.readUTF()));
+                break;
+            default:
+                throw new IOException("Invalid journal operation " + operation);
+        }
+
+        lastSequence = Math.max(lastSequence, sequence);
+    }
+
+    private void openSegment() throws IOException {
+        // Any existing segment with this name holds no records past lastSequence, at most a torn record or
+        // nothing at all, so it is safe to truncate it
+        segmentFile = new File(directory, segmentPrefix + (lastSequence + 1) + SEGMENT_SUFFIX);
+        segment = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(segmentFile, false)));
+        segmentBytes = 0;
+    }
+
+    private List<File> listSegments() {
+        File[] files = directory.listFiles((dir, fileName) ->
+                fileName.startsWith(segmentPrefix) && fileName.endsWith(SEGMENT_SUFFIX));
+
+        if (files == null) {
+            return Lists.newArrayList();
+        }
+
+        List<File> segments = Lists.newArrayList(Arrays.asList(files));
+        segments.sort((a, b) -> Long.compare(startSequence(a), startSequence(b)));
+        return segments;
+    }
+
+    private long startSequence(final File segment) {
+        String fileName = segment.getName();
+        return Long.parseLong(fileName.substring(segmentPrefix.length(), fileName.length() - SEGMENT_SUFFIX.length()));
+    }
+
+    private void deleteSegment(final File segment) {
+        if (segment.exists() && !segment.delete()) {
+            log.warn("Couldn't delete journal segment {}", segment.getName());
+        }
+    }
+}
@@ -1,59 +1,135 @@
 package com.cameron.alberts.chestlock;
 
+import com.cameron.alberts.metrics.CounterMetric;
+import com.cameron.alberts.metrics.MetricSampler;
 import com.cameron.alberts.metrics.TimerMetric;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.Striped;
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
 import com.google.gson.reflect.TypeToken;
 import lombok.Value;
+import lombok.extern.log4j.Log4j2;
+import net.minecraft.block.Block;
 import net.minecraft.entity.player.EntityPlayer;
+import net.minecraft.nbt.CompressedStreamTools;
 import net.minecraft.nbt.NBTTagCompound;
+import net.minecraft.util.math.BlockPos;
 import net.minecraft.world.World;
 import net.minecraft.world.WorldSavedData;
+import net.minecraft.world.WorldServer;
+import net.minecraft.world.chunk.Chunk;
 import net.minecraft.world.storage.MapStorage;
+import net.minecraftforge.common.util.Constants;
 
 import javax.annotation.Nullable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
 import java.util.List;
 import java.util.Map;
-import java.util.Optional;
+import java.util.UUID;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.stream.Collectors;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.Lock;
+import java.util.function.LongConsumer;
+import java.util.function.UnaryOperator;
 
+@Log4j2
 public class ChestLockManager extends WorldSavedData {
-    private static final String CHEST_LOCK_MANAGER_SAVE_KEY = ChestLockMod.MOD_ID + "_ChestLockManager";
+    public static final int NO_PLAYER = ChestLockPlayerRegistry.NO_PLAYER;
+    static final String CHEST_LOCK_MANAGER_SAVE_KEY = ChestLockMod.MOD_ID + "_ChestLockManager";
+    // Keys of the json save format, only read to migrate old saves to the ChestLockCodec format
     private static final String CHEST_PERMISSIONS_SAVE_KEY = CHEST_LOCK_MANAGER_SAVE_KEY + "_ChestPermissions";
     private static final String CHEST_OWNERS_SAVE_KEY = CHEST_LOCK_MANAGER_SAVE_KEY + "_ChestOwners";
+    // The single snapshot file used before locks were split into regions, only read to migrate it
+    private static final String LEGACY_SNAPSHOT_FILE_NAME = CHEST_LOCK_MANAGER_SAVE_KEY + "_Snapshot.dat";
+    private static final String OWNER_INDEX_FILE_NAME = CHEST_LOCK_MANAGER_SAVE_KEY + "_Owners.dat";
+    // Same directory MapStorage saves each dimension's WorldSavedData in
+    private static final String DATA_DIRECTORY_NAME = "data";
     private static final Gson GSON = new GsonBuilder().enableComplexMapKeySerialization().create();
+    // Once this many bytes have been journaled since the last snapshot the journal is folded into a new snapshot
+    private static final long COMPACTION_THRESHOLD_BYTES = 4 * 1024 * 1024;
+    // A region always maps to the same one of these lock stripes
+    private static final int LOCK_STRIPES = 64;
+    private static final int INITIAL_DECISION_CACHES = 64;
+    private static final CounterMetric CAN_OPEN_DENIED = CounterMetric.create("canOpenDenied");
+    private static final MetricSampler WRITE_TO_NBT_TIMER = MetricSampler.of("writeToNBT");
+    private static final MetricSampler LOAD_REGION_TIMER = MetricSampler.of("loadRegion");
+    private static final MetricSampler READ_FROM_NBT_TIMER = MetricSampler.of("readFromNBT");
+    private static final MetricSampler BUILD_OWNER_INDEX_TIMER = MetricSampler.of("buildOwnerIndex");
 
-    private final Object REGISTER_LOCK = new Object();
-    private Map<ChestBlock, Map<String, ChestPermissions>> chestPermissions;
-    private Map<ChestBlock, String> chestOwners;
+    // A change holds the stripes of every region it can touch, so changes in unrelated regions run concurrently
+    // while both halves of a double chest change atomically. Holding every stripe gives a consistent snapshot.
+    private final Striped<Lock> regionLocks;
+    // Set once the journal passes COMPACTION_THRESHOLD_BYTES, the change that passed it compacts after
+    // releasing its stripes
+    private volatile boolean compactionDue;
+    // Number of bulk jobs running, compaction waits until they all end
+    private final AtomicInteger bulkJobs;
+    // Shared by the managers of every dimension, set by open
+    private ChestLockPlayerRegistry players;
+    private ChestLockGroups groups;
+    // Every chest of every player, including the chests in regions that aren't loaded, set by open
+    private ChestLockOwnerIndex ownerIndex;
+    // Bumped after every acl change, a cached decision is only used while this hasn't changed since it was made
+    private final AtomicLong aclVersion;
+    // Told the packed position of every chest block whose acl changed, see addAclListener
+    private final List<LongConsumer> aclListeners;
+    // Recent canOpen decisions of each online player that clicked a chest in this dimension, indexed by player id.
+    // Ids are handed out densely from 0, the array is replaced by a larger copy when a new id doesn't fit
+    private volatile AtomicReferenceArray<ChestLockDecisionCache> decisionCaches;
+    private final Object decisionCachesLock;
+    // Only the regions with loaded chunks, the rest stay in their region files until a chunk inside them loads
+    private final Map<Long, ChestLockRegion> regions;
+    // The region of the last lookup, lookups are usually near each other so this saves boxing the region key
+    @Nullable
+    private volatile ChestLockRegion lastRegion;
+    // Locks saved inline in this WorldSavedData by older versions, moved to region files by open
+    @Nullable
+    private NBTTagCompound inlineCompound;
+    @Nullable
+    private ChestLockSnapshot inlineSnapshot;
+    @Nullable
+    private volatile ChestLockJournal journal;
+    @Nullable
+    private ChestLockSnapshotWriter snapshotWriter;
+    // The journal's last sequence number when it was closed, regions captured after that are stamped with it
+    private volatile long closedJournalSequence = ChestLockSnapshotWriter.NO_SEQUENCE;
 
     /**
-     * To prevent possible race conditions there is a synchronized block. This method is intended to register
+     * To prevent possible race conditions the regions around the chest are locked. This method is intended to register
      * a ChestBlock to a given user with {@link ChestPermissions#ROOT} permissions. It will also handle double
      * chest blocks and correctly registering them.
-     * @param userName {@link EntityPlayer#getName()} to try and register to this block, can be overrode if
-     * this block happens to be connected to a chest that has already been registered.
+     * @param playerId {@link #getPlayerId(EntityPlayer)} of the player to try and register to this block, can be
+     * overrode if this block happens to be connected to a chest that has already been registered.
      * @param chestBlock {@link ChestBlock} to register to attempt to register to this user.
      * @param surroundingChestBlock if not null represents a ChestBlock that is the same type as {@code chestBlock},
      * and will be handled for edge cases.
      * @return a {@link ChestLockManagerResult} representing whether this was successful or had an error.
      */
-    public ChestLockManagerResult register(final String userName, final ChestBlock chestBlock, @Nullable final ChestBlock surroundingChestBlock) {
-        if (chestPermissions.containsKey(chestBlock)) {
-            return ChestLockManagerResult.CHEST_ALREADY_REGISTERED;
-        }
-
+    public ChestLockManagerResult register(final int playerId, final ChestBlock chestBlock, @Nullable final ChestBlock surroundingChestBlock) {
         // Prevent possible race conditions
-        synchronized (REGISTER_LOCK) {
+        List<Lock> locks = lockAround(chestBlock);
+        try {
+            if (contains(chestBlock)) {
+                return ChestLockManagerResult.CHEST_ALREADY_REGISTERED;
+            }
+
             // There was a ChestBlock with the same name (type) as the passed in chestBlock
             if (surroundingChestBlock != null) {
                 // It is managed by this class
                 if(contains(surroundingChestBlock)) {
                     // Let the ChestLockEvents class and the user know they do not have permissions
                     // to the surrounding chest
-                    if (!hasPermissions(userName, surroundingChestBlock)) {
+                    if (!hasPermissions(playerId, surroundingChestBlock)) {
                         return ChestLockManagerResult.SURROUNDING_CHEST_REGISTERED;
                     }
 
@@ -64,67 +140,210 @@ public class ChestLockManager extends WorldSavedData {
                     // surroundingChestBlocks. Also set the root user for chestBlock to be the
                     // same as the root user for surroundingChestBlock. This will take care
                     // of both cases.
-                    String rootUserName = chestOwners.get(surroundingChestBlock);
-                    chestPermissions.put(chestBlock, chestPermissions.get(surroundingChestBlock));
-                    chestOwners.put(chestBlock, rootUserName);
+                    link(chestBlock, surroundingChestBlock);
+                    journal(j -> j.appendLink(chestBlock, surroundingChestBlock));
 
-                    // Must return to prevent registering userName as an additional root
+                    // Must return to prevent registering playerId as an additional root
                     // on this chestBlock
-                    setDirty(true);
                     return ChestLockManagerResult.SUCCESSFULLY_REGISTERED_CHEST;
                 }
 
                 // If it has gotten this far that means no one owns this block so register it
-                // to userName
-                register(userName, surroundingChestBlock);
+                // to playerId, and link chestBlock to it so both halves share one permissions map
+                register(playerId, surroundingChestBlock);
+                journal(j -> j.appendRegister(surroundingChestBlock, playerId));
+                link(chestBlock, surroundingChestBlock);
+                journal(j -> j.appendLink(chestBlock, surroundingChestBlock));
+            } else {
+                // There was no surrounding block
+                register(playerId, chestBlock);
+                journal(j -> j.appendRegister(chestBlock, playerId));
             }
-
-            // Either there was no surrounding block or the surrounding block wasn't registered
-            // to this class
-            register(userName, chestBlock);
+        } finally {
+            unlock(locks);
         }
 
-        setDirty(true);
         return ChestLockManagerResult.SUCCESSFULLY_REGISTERED_CHEST;
     }
 
     /**
      * A user can use the {@link com.cameron.alberts.chestlock.command.ChestLockCommand} to add who has
      * access to their chests and with what permissions.
-     * @param requestingUserName {@link EntityPlayer#getName()} who called the ChestLockCommand.
-     * @param userName argument in ChestLockCommand representing another players {@link EntityPlayer#getName()}
+     * @param requestingPlayerId player id of who called the ChestLockCommand.
+     * @param playerId player id of the argument in ChestLockCommand representing another player
      * for which to add access for.
-     * @param chestBlock the chest block in line of sight of the {@code requestingUserName}.
+     * @param chestBlock the chest block in line of sight of the {@code requestingPlayerId}.
      * @param permissionToGive see {@link ChestPermissions} to understand the different permissions.
      * @return a {@link ChestLockManagerResult} representing whether this was successful or had an error.
      */
-    public ChestLockManagerResult add(final String requestingUserName,
-                                      final String userName,
+    public ChestLockManagerResult add(final int requestingPlayerId,
+                                      final int playerId,
                                       final ChestBlock chestBlock,
                                       final ChestPermissions permissionToGive) {
-        return updatePermission(requestingUserName, userName, chestBlock,
-                permissionToGive, Operation.ADD);
+        return updatePermission(requestingPlayerId, playerId, chestBlock, permissionToGive, Operation.ADD);
     }
 
     /**
      * A user can use the {@link com.cameron.alberts.chestlock.command.ChestLockCommand} to remove
      * access to their chests.
-     * @param requestingUserName {@link EntityPlayer#getName()} who called the ChestLockCommand.
-     * @param userName argument in ChestLockCommand representing another players {@link EntityPlayer#getName()}
+     * @param requestingPlayerId player id of who called the ChestLockCommand.
+     * @param playerId player id of the argument in ChestLockCommand representing another player
      * for which to remove access for.
-     * @param chestBlock the chest block in line of sight of the {@code requestingUserName}.
+     * @param chestBlock the chest block in line of sight of the {@code requestingPlayerId}.
      * @return a {@link ChestLockManagerResult} representing whether this was successful or had an error.
      */
-    public ChestLockManagerResult remove(final String requestingUserName,
-                                         final String userName,
+    public ChestLockManagerResult remove(final int requestingPlayerId,
+                                         final int playerId,
                                          final ChestBlock chestBlock) {
-        ChestPermissions userChestPermission = getPermission(userName, chestBlock);
-        return updatePermission(requestingUserName, userName, chestBlock,
-                userChestPermission, Operation.REMOVE);
+        // The permission being removed is looked up once the chest is locked
+        return updatePermission(requestingPlayerId, playerId, chestBlock, null, Operation.REMOVE);
     }
 
-    public boolean canOpen(final String userName, final ChestBlock chestBlock) {
-        return !contains(chestBlock) || hasPermissions(userName, chestBlock);
+    /**
+     * Makes {@code toPlayerId} the root user of a chest {@code fromPlayerId} is the root user of, on every block
+     * of its container, and removes {@code fromPlayerId} from it. Used by bulk jobs, so nobody's permission to
+     * make the change is checked.
+     * @return true if the chest was transferred.
+     */
+    public boolean transfer(final int fromPlayerId, final int toPlayerId, final ChestBlock chestBlock) {
+        List<Lock> locks = lockAround(chestBlock);
+        try {
+            if (fromPlayerId == toPlayerId || getPermission(fromPlayerId, chestBlock) != ChestPermissions.ROOT) {
+                return false;
+            }
+
+            List<ChestBlock> chestBlocks = Lists.newArrayList(chestBlock);
+            chestBlocks.addAll(ChestBlock.getPartnerChestBlocks(chestBlock));
+
+            // Registering makes the player the root user and owner of each block, the acl is shared so
+            // removing the old root user once removes it from every block
+            for (ChestBlock blockToTransfer : chestBlocks) {
+                if (contains(blockToTransfer)) {
+                    register(toPlayerId, blockToTransfer);
+                    journal(j -> j.appendRegister(blockToTransfer, toPlayerId));
+                }
+            }
+
+            changeAcl(chestBlock, ChestLockSnapshotWriter.NO_SEQUENCE, acl -> acl.without(fromPlayerId));
+            journal(j -> j.appendRemovePermission(chestBlock, fromPlayerId));
+            return true;
+        } finally {
+            unlock(locks);
+        }
+    }
+
+    /**
+     * Removes a player from the acl of a chest they were given access to. Root users are left alone, a chest
+     * without a root user couldn't be opened by anyone, see {@link #transfer(int, int, ChestBlock)}. Used by bulk
+     * jobs, so nobody's permission to make the change is checked.
+     * @return true if the player was removed.
+     */
+    public boolean strip(final int playerId, final ChestBlock chestBlock) {
+        List<Lock> locks = lockAround(chestBlock);
+        try {
+            ChestPermissions permission = getOwnPermission(playerId, chestBlock);
+
+            if (permission == ChestPermissions.NONE || permission == ChestPermissions.ROOT) {
+                return false;
+            }
+
+            changeAcl(chestBlock, ChestLockSnapshotWriter.NO_SEQUENCE, acl -> acl.without(playerId));
+            journal(j -> j.appendRemovePermission(chestBlock, playerId));
+            return true;
+        } finally {
+            unlock(locks);
+        }
+    }
+
+    /**
+     * Called when a bulk job starts, its changes are journaled as they are made but compaction waits until
+     * every bulk job ended.
+     */
+    public void beginBulk() {
+        bulkJobs.incrementAndGet();
+    }
+
+    /**
+     * Called when a bulk job ends, finished or not. Once the last one ends the manager is marked dirty so every
+     * region the jobs changed is written on the next world save.
+     */
+    public void endBulk() {
+        if (bulkJobs.decrementAndGet() == 0) {
+            setDirty(true);
+        }
+    }
+
+    public boolean canOpen(final int playerId, final ChestBlock chestBlock) {
+        return !contains(chestBlock) || hasPermissions(playerId, chestBlock);
+    }
+
+    /**
+     * Resolves an online player to the id locks are stored under, updating the name the id resolves to if the
+     * player renamed. Event handlers call this once per event and pass the id on.
+     */
+    public int getPlayerId(final EntityPlayer player) {
+        return players.playerSeen(player.getUniqueID(), player.getName());
+    }
+
+    /**
+     * Resolves a player that may be offline by name, such as the player named in a command. A name that has
+     * never been seen is looked up in the server's profile cache.
+     */
+    public int getPlayerId(final String userName) {
+        return players.resolve(userName);
+    }
+
+    /**
+     * Resolves a player known by UUID, like the placer saved on a hopper, the name is only used if the UUID is new.
+     */
+    public int getPlayerId(final UUID uuid, final String userName) {
+        return players.idOf(uuid, userName);
+    }
+
+    public String getPlayerName(final int playerId) {
+        return players.nameOf(playerId);
+    }
+
+    /**
+     * Reads the player's chests from the owner index file and lays the changes made since it was written over
+     * them, so it reads from disk and is better kept off the server thread when the player has many chests.
+     * @return a copy of every chest the player has a permission on with that permission, including the chests
+     * in regions that aren't loaded. Chests the player can only open through a group are listed under the group.
+     */
+    public Map<ChestBlock, ChestPermissions> getChests(final int playerId) {
+        return ownerIndex.chestsOf(playerId);
+    }
+
+    /**
+     * @return the name of every player with a permission on the chest and that permission, the highest
+     * permissions first. Empty if the chest isn't locked.
+     */
+    public Map<String, ChestPermissions> getAccess(final ChestBlock chestBlock) {
+        ChestAcl acl = getRegion(chestBlock).getAcl(chestBlock);
+        Map<String, ChestPermissions> access = Maps.newLinkedHashMap();
+
+        if (acl == null) {
+            return access;
+        }
+
+        for (ChestPermissions permission : ChestPermissions.values()) {
+            for (int index = 0; index < acl.size(); index++) {
+                if (acl.permissionAt(index) == permission) {
+                    access.put(players.nameOf(acl.playerIdAt(index)), permission);
+                }
+            }
+        }
+
+        return access;
+    }
+
+    /**
+     * @return the name of the player the chest was registered to, or null if it isn't locked.
+     */
+    @Nullable
+    public String getOwnerName(final ChestBlock chestBlock) {
+        int owner = getRegion(chestBlock).getOwner(chestBlock);
+        return owner == ChestLockPlayerRegistry.NO_PLAYER ? null : players.nameOf(owner);
     }
 
     /**
@@ -133,88 +352,373 @@ public class ChestLockManager extends WorldSavedData {
      * @return true if it is registered (locked), otherwise false.
      */
     public boolean contains(final ChestBlock chestBlock) {
-        return chestPermissions.containsKey(chestBlock);
+        return getRegion(chestBlock).contains(chestBlock);
     }
 
-    @Override
-    public void readFromNBT(final NBTTagCompound compound) {
-        try (TimerMetric metric = TimerMetric.create("readFromNBT")) {
-            List<ChestBlockWithPermissionsMap> chestPermissionsEntrySet =
-                    GSON.fromJson(compound.getString(CHEST_PERMISSIONS_SAVE_KEY),
-                            new TypeToken<List<ChestBlockWithPermissionsMap>>() {}.getType());
-            Map<ChestBlock, Map<String, ChestPermissions>> localChestPermissions =
-                    new ConcurrentHashMap<>(chestPermissionsEntrySet.size());
-
-            // chestPermissions is stored in NBT as a json representing its entry set, this is because this class
-            // takes advantage of references to Map<String, ChestPermissions>. If there is a double chest each
-            // ChestBlock in the double chest points to the same Map<String, ChestPermissions> reference, so this
-            // guarantees that they point to the same reference.
-            for (ChestBlockWithPermissionsMap entry : chestPermissionsEntrySet) {
-                List<ChestBlock> possibleDoubleChestBlocks = ChestBlock.getSurroundingChestBlocks(entry.getChestBlock());
-                Optional<ChestBlock> matchingBlockInMap = possibleDoubleChestBlocks
-                        .stream()
-                        .filter(localChestPermissions::containsKey)
-                        .findFirst();
-
-                if (matchingBlockInMap.isPresent()) {
-                    localChestPermissions.put(entry.getChestBlock(), localChestPermissions.get(matchingBlockInMap.get()));
-                } else {
-                    localChestPermissions.put(entry.getChestBlock(), new ConcurrentHashMap<>(entry.getPermissionsMap()));
+    /**
+     * Same as {@link #contains(ChestBlock)} without building a {@link ChestBlock}, used by the event handlers.
+     * @param block the block at {@code blockPos}.
+     * @param blockPos the position to check.
+     * @return true if it is a chest and it is registered (locked), otherwise false.
+     */
+    public boolean contains(final Block block, final BlockPos blockPos) {
+        int typeId = ChestBlock.getTypeId(block);
+
+        if (typeId == ChestBlock.NOT_A_CHEST) {
+            return false;
+        }
+
+        return getRegion(ChestLockRegion.keyOf(blockPos.getX(), blockPos.getZ()))
+                .contains(ChestPos.pack(blockPos.getX(), blockPos.getY(), blockPos.getZ()), typeId);
+    }
+
+    /**
+     * Checks the section masks of every chunk the box overlaps, so an explosion can skip all of its affected
+     * positions when none of them can be locked.
+     * @return true if any chunk section overlapping the box, bounds inclusive, has a locked chest.
+     */
+    public boolean hasLocksWithin(final int minX, final int minY, final int minZ,
+                                  final int maxX, final int maxY, final int maxZ) {
+        for (int chunkX = minX >> 4; chunkX <= maxX >> 4; chunkX++) {
+            for (int chunkZ = minZ >> 4; chunkZ <= maxZ >> 4; chunkZ++) {
+                if (getRegion(ChestLockRegion.keyOfChunk(chunkX, chunkZ)).hasLocksInSections(chunkX, chunkZ, minY >> 4, maxY >> 4)) {
+                    return true;
                 }
             }
+        }
+
+        return false;
+    }
+
+    /**
+     * Checks the position before looking at the block there, so most positions cost no block lookup. A lock
+     * whose block was replaced without breaking it, by a command or another mod, doesn't protect the new block.
+     * @return true if the block at the position is a chest of the type locked there.
+     */
+    public boolean isLocked(final World world, final BlockPos blockPos) {
+        ChestLockRegion region = getRegion(ChestLockRegion.keyOf(blockPos.getX(), blockPos.getZ()));
+
+        if (!region.isLocked(blockPos.getX(), blockPos.getY(), blockPos.getZ())) {
+            return false;
+        }
+
+        int typeId = ChestBlock.getTypeId(world.getBlockState(blockPos).getBlock());
+        return typeId != ChestBlock.NOT_A_CHEST
+                && region.contains(ChestPos.pack(blockPos.getX(), blockPos.getY(), blockPos.getZ()), typeId);
+    }
+
+    /**
+     * Same as {@link #canOpen(int, ChestBlock)} without building a {@link ChestBlock}, used by the event handlers.
+     * The player's recent decisions are cached until any acl in this dimension changes.
+     */
+    public boolean canOpen(final int playerId, final Block block, final BlockPos blockPos) {
+        int typeId = ChestBlock.getTypeId(block);
+
+        if (typeId == ChestBlock.NOT_A_CHEST) {
+            return true;
+        }
+
+        long packedPos = ChestPos.pack(blockPos.getX(), blockPos.getY(), blockPos.getZ());
+        // Read before the lookup, if an acl changes during it the decision is cached under an old version
+        long version = getAclVersion();
+        ChestLockDecisionCache decisionCache = decisionCacheOf(playerId);
+        Boolean cachedDecision = decisionCache.get(packedPos, typeId, version);
+
+        if (cachedDecision != null) {
+            if (!cachedDecision) {
+                CAN_OPEN_DENIED.increment();
+            }
+
+            return cachedDecision;
+        }
+
+        ChestAcl acl = getRegion(ChestLockRegion.keyOf(blockPos.getX(), blockPos.getZ())).getAcl(packedPos, typeId);
+        boolean decision = acl == null || !getPermission(playerId, acl).equals(ChestPermissions.NONE);
+        decisionCache.put(packedPos, typeId, version, decision);
+
+        if (!decision) {
+            CAN_OPEN_DENIED.increment();
+        }
+
+        return decision;
+    }
+
+    /**
+     * Drops the player's cached decisions, called when the player logs out.
+     */
+    public void forgetDecisions(final int playerId) {
+        synchronized (decisionCachesLock) {
+            if (playerId < decisionCaches.length()) {
+                decisionCaches.set(playerId, null);
+            }
+        }
+    }
+
+    /**
+     * If a hopper placed by the player may pull items out of the block above it. Not cached like
+     * {@link #canOpen(int, Block, BlockPos)}, hoppers keep their own verdict until an acl listener is told the
+     * chest above them changed.
+     * @param placerId the player that placed the hopper, {@link #NO_PLAYER} if it isn't known. Such a hopper
+     * never pulls from a locked chest.
+     * @param block the block above the hopper.
+     * @param blockPos the position above the hopper.
+     */
+    public boolean canPull(final int placerId, final Block block, final BlockPos blockPos) {
+        int typeId = ChestBlock.getTypeId(block);
 
-            chestPermissions = localChestPermissions;
-            chestOwners = GSON.fromJson(compound.getString(CHEST_OWNERS_SAVE_KEY),
-                    new TypeToken<ConcurrentHashMap<ChestBlock, String>>() {}.getType());
+        if (typeId == ChestBlock.NOT_A_CHEST) {
+            return true;
         }
+
+        ChestAcl acl = getRegion(ChestLockRegion.keyOf(blockPos.getX(), blockPos.getZ()))
+                .getAcl(ChestPos.pack(blockPos.getX(), blockPos.getY(), blockPos.getZ()), typeId);
+        return acl == null || placerId != NO_PLAYER && !getPermission(placerId, acl).equals(ChestPermissions.NONE);
     }
 
+    /**
+     * @return a number that changes after every acl change in this dimension and every group membership change,
+     * a verdict derived from the acls stays valid as long as this returns the same number. Both only ever grow,
+     * so their sum does too.
+     */
+    public long getAclVersion() {
+        return aclVersion.get() + groups.getVersion();
+    }
+
+    /**
+     * @return a number that changes after every group membership change, those change acls without changing
+     * any chest so {@link #addAclListener(LongConsumer)} isn't told about them.
+     */
+    public long getGroupVersion() {
+        return groups.getVersion();
+    }
+
+    /**
+     * Tells the listener the {@link ChestPos#toLong()} of every chest block whose acl changes from now on, both
+     * halves of a double chest are told separately. Called on the thread making the change while holding the
+     * stripe of the chest's region, so the listener must be quick and thread safe.
+     */
+    public void addAclListener(final LongConsumer listener) {
+        aclListeners.add(listener);
+    }
+
+    public void removeAclListener(final LongConsumer listener) {
+        aclListeners.remove(listener);
+    }
+
+    /**
+     * @return the number of locked chest blocks in this dimension, whether their region is loaded or not.
+     */
+    public long getLockedChestCount() {
+        return ownerIndex.getLockedChests();
+    }
+
+    /**
+     * @return the number of players and groups on the acls of every locked chest block in this dimension.
+     */
+    public long getAclEntryCount() {
+        return ownerIndex.getAclEntries();
+    }
+
+    /**
+     * @return the number of regions in memory.
+     */
+    public int getLoadedRegionCount() {
+        return regions.size();
+    }
+
+    /**
+     * Counts a loaded chunk towards its region, loading the region from its file if this is the first
+     * loaded chunk inside it.
+     * @param chunkX {@link Chunk#xPosition} of the loaded chunk.
+     * @param chunkZ {@link Chunk#zPosition} of the loaded chunk.
+     */
+    public void chunkLoaded(final int chunkX, final int chunkZ) {
+        getRegion(ChestLockRegion.keyOfChunk(chunkX, chunkZ)).chunkLoaded();
+    }
+
+    /**
+     * Once the last loaded chunk of a region unloads the region is evicted, if it changed since it was
+     * last written it is handed to the {@link ChestLockSnapshotWriter} first.
+     * @param chunkX {@link Chunk#xPosition} of the unloaded chunk.
+     * @param chunkZ {@link Chunk#zPosition} of the unloaded chunk.
+     */
+    public void chunkUnloaded(final int chunkX, final int chunkZ) {
+        ChestLockRegion region = regions.get(ChestLockRegion.keyOfChunk(chunkX, chunkZ));
+
+        if (region != null && region.chunkUnloaded() == 0) {
+            evict(region);
+        }
+    }
+
+    /**
+     * Keeps locks saved inline in this {@link WorldSavedData} by older versions, they are decoded and moved to
+     * region files by {@link #open(WorldServer, File, ChestLockPlayerRegistry, ChestLockGroups)} once the player registry is known.
+     */
+    @Override
+    public void readFromNBT(final NBTTagCompound compound) {
+        inlineCompound = compound;
+    }
+
+    /**
+     * Captures a snapshot of every changed region and hands them to the {@link ChestLockSnapshotWriter}, which
+     * encodes and writes them off the server thread, then evicts the regions that no longer have loaded chunks.
+     * Nothing is written inline anymore, so an empty compound replaces any locks that were saved inline before.
+     */
     @Override
     public NBTTagCompound writeToNBT(final NBTTagCompound compound) {
-        try (TimerMetric metric = TimerMetric.create("writeToNBT")) {
-            List<ChestBlockWithPermissionsMap> chestBlockWithPermissionsMaps =
-                    chestPermissions
-                            .entrySet()
-                            .stream()
-                            .map(e -> new ChestBlockWithPermissionsMap(e.getKey(), e.getValue()))
-                            .collect(Collectors.toList());
+        try (TimerMetric metric = TimerMetric.start(WRITE_TO_NBT_TIMER)) {
+            if (snapshotWriter == null) {
+                // Not opened yet, keep whatever was saved inline
+                return inlineCompound == null ? compound : inlineCompound;
+            }
 
-            compound.setString(CHEST_PERMISSIONS_SAVE_KEY, GSON.toJson(chestBlockWithPermissionsMaps));
-            compound.setString(CHEST_OWNERS_SAVE_KEY, GSON.toJson(chestOwners));
+            compact();
+
+            // Regions loaded without any of their chunks, by a command or while replaying the journal
+            for (ChestLockRegion region : regions.values()) {
+                if (region.getLoadedChunks() == 0) {
+                    evict(region);
+                }
+            }
 
             return compound;
         }
     }
 
+    /**
+     * Opens the region files in {@code directory}, replays the journal on top of them and starts journaling
+     * every change made from now on. If the journal can't be opened every change marks the manager dirty instead.
+     * @param world the dimension this manager keeps the locks of.
+     * @param directory the dimension's data directory the region files and journal segments are kept in.
+     * @param playerRegistry the player ids shared by the managers of every dimension.
+     * @param chestLockGroups the groups shared by the managers of every dimension.
+     */
+    void open(final WorldServer world,
+              final File directory,
+              final ChestLockPlayerRegistry playerRegistry,
+              final ChestLockGroups chestLockGroups) {
+        players = playerRegistry;
+        groups = chestLockGroups;
+        inlineSnapshot = readInline();
+        snapshotWriter = new ChestLockSnapshotWriter(new File(directory, CHEST_LOCK_MANAGER_SAVE_KEY), players,
+                ChestLockSnapshotWriter.NO_SEQUENCE);
+
+        if (!snapshotWriter.hasRegionFiles()) {
+            migrate(new File(directory, LEGACY_SNAPSHOT_FILE_NAME));
+        }
+
+        inlineSnapshot = null;
+        inlineCompound = null;
+        openOwnerIndex(new File(directory, OWNER_INDEX_FILE_NAME));
+        ChestLockJournal localJournal = new ChestLockJournal(directory, CHEST_LOCK_MANAGER_SAVE_KEY, players);
+        JournalReplayer replayer = new JournalReplayer();
+
+        try {
+            // Every region file records the last sequence number it contains, so every segment is replayed
+            // and each record is only applied to regions whose file is older than it
+            localJournal.open(ChestLockSnapshotWriter.NO_SEQUENCE, replayer);
+            journal = localJournal;
+            ownerIndex.replayed();
+
+            if (replayer.replayedChanges > 0) {
+                log.info("Replayed {} journaled changes", replayer.replayedChanges);
+            }
+        } catch (IOException e) {
+            log.error("Failed to open the journal, falling back to full saves", e);
+            setDirty(true);
+        }
+
+        // Chunks loaded before the manager was created, such as the spawn chunks
+        for (Chunk chunk : world.getChunkProvider().getLoadedChunks()) {
+            chunkLoaded(chunk.xPosition, chunk.zPosition);
+        }
+    }
+
+    /**
+     * Called when the server is stopping, snapshots from here on are written on the server thread so the
+     * final world save is on disk before the server exits.
+     */
+    void prepareForShutdown() {
+        if (snapshotWriter != null) {
+            snapshotWriter.setSynchronous();
+        }
+
+        setDirty(true);
+    }
+
+    /**
+     * Called when the manager's dimension unloads, after the dimension was saved. Writes every changed region
+     * on this thread and closes the journal, the manager isn't used after this.
+     */
+    void release() {
+        if (snapshotWriter != null) {
+            snapshotWriter.setSynchronous();
+            compact();
+        }
+
+        close();
+    }
+
+    void close() {
+        if (journal == null) {
+            return;
+        }
+
+        try {
+            journal.close();
+        } catch (IOException e) {
+            log.error("Failed to close the journal", e);
+        }
+
+        closedJournalSequence = journal.getLastSequence();
+        journal = null;
+    }
+
     /**
      * If a user has permissions to open a given {@link ChestBlock}.
-     * @param userName {@link EntityPlayer#getName()} who attempted to open the ChestBlock.
+     * @param playerId player id of who attempted to open the ChestBlock.
      * @param chestBlock the {@link ChestBlock} to check
      * @return true if the user has any permission except {@link ChestPermissions#NONE}.
      */
-    private boolean hasPermissions(final String userName, final ChestBlock chestBlock) {
-        return !getPermission(userName, chestBlock).equals(ChestPermissions.NONE);
+    private boolean hasPermissions(final int playerId, final ChestBlock chestBlock) {
+        return !getPermission(playerId, chestBlock).equals(ChestPermissions.NONE);
     }
 
-    private ChestLockManagerResult updatePermission(final String requestingUserName,
-                                                    final String userName,
+    private ChestLockManagerResult updatePermission(final int requestingPlayerId,
+                                                    final int playerId,
                                                     final ChestBlock chestBlock,
-                                                    final ChestPermissions permissionToSet,
+                                                    @Nullable final ChestPermissions permissionToGive,
                                                     final Operation operation) {
-        Map<String, ChestPermissions> permissionsMap = chestPermissions.get(chestBlock);
+        List<Lock> locks = lockAround(chestBlock);
+        try {
+            return updatePermissionLocked(requestingPlayerId, playerId, chestBlock,
+                    operation == Operation.REMOVE ? getOwnPermission(playerId, chestBlock) : permissionToGive, operation);
+        } finally {
+            unlock(locks);
+        }
+    }
 
-        // If it isn't in the chestPermissions map it hasn't been registered.
-        if (permissionsMap == null) {
+    /**
+     * Checks and applies a permission change, must be called while holding {@link #lockAround(ChestBlock)} of
+     * the chest so nothing changes between the checks and the change.
+     */
+    private ChestLockManagerResult updatePermissionLocked(final int requestingPlayerId,
+                                                          final int playerId,
+                                                          final ChestBlock chestBlock,
+                                                          final ChestPermissions permissionToSet,
+                                                          final Operation operation) {
+        // If it doesn't have an acl it hasn't been registered.
+        if (!contains(chestBlock)) {
             return ChestLockManagerResult.CHEST_IS_UNREGISTERED;
         }
 
         // If this person is not at a higher permission level than the permission they're trying to modify.
-        if (!hasPermissionToModify(requestingUserName, chestBlock, permissionToSet)) {
+        if (!hasPermissionToModify(requestingPlayerId, chestBlock, permissionToSet)) {
             return ChestLockManagerResult.PERMISSION_DENIED;
         }
 
         // For consistency lets not let users edit their own permissions.
-        if (requestingUserName.equals(userName)) {
+        if (requestingPlayerId == playerId) {
             return ChestLockManagerResult.CANT_MODIFY_YOUR_OWN_PERMISSIONS;
         }
 
@@ -227,18 +731,20 @@ public class ChestLockManager extends WorldSavedData {
             return ChestLockManagerResult.USER_IS_UNREGISTERED;
         }
 
-        switch(operation) {
+        switch (operation) {
             case ADD:
                 // If the user already has that permission lets not return a success message
-                if (getPermission(userName, chestBlock).equals(permissionToSet)) {
+                if (getOwnPermission(playerId, chestBlock).equals(permissionToSet)) {
                     return ChestLockManagerResult.USER_ALREADY_HAS_THOSE_PERMISSIONS;
                 }
 
-                permissionsMap.put(userName, permissionToSet);
+                changeAcl(chestBlock, ChestLockSnapshotWriter.NO_SEQUENCE, acl -> acl.with(playerId, permissionToSet));
+                journal(j -> j.appendSetPermission(chestBlock, playerId, permissionToSet));
 
                 return ChestLockManagerResult.SUCCESSFULLY_ADDED_USER;
             case REMOVE:
-                permissionsMap.remove(userName);
+                changeAcl(chestBlock, ChestLockSnapshotWriter.NO_SEQUENCE, acl -> acl.without(playerId));
+                journal(j -> j.appendRemovePermission(chestBlock, playerId));
 
                 return ChestLockManagerResult.SUCCESSFULLY_REMOVED_USER;
             default:
@@ -246,34 +752,544 @@ public class ChestLockManager extends WorldSavedData {
         }
     }
 
-    private void register(final String userName, final ChestBlock blockToRegister) {
-        chestPermissions.computeIfAbsent(blockToRegister, c -> Maps.newConcurrentMap()).put(userName, ChestPermissions.ROOT);
-        chestOwners.put(blockToRegister, userName);
+    /**
+     * Locks the stripes of the chest's region and of every region the other blocks of its container can be in,
+     * see {@link ChestPartners}. A chest on a region edge can have its partner in the neighbouring region,
+     * partners above or below are always in the chest's own region. {@link Striped#bulkGet}
+     * orders the stripes, so two changes always lock them in the same order and can't deadlock.
+     * @return the locks to pass to {@link #unlock(List)}.
+     */
+    private List<Lock> lockAround(final ChestBlock chestBlock) {
+        int x = chestBlock.getChestPos().getChestPosX();
+        int z = chestBlock.getChestPos().getChestPosZ();
+        List<Lock> locks = Lists.newArrayList(regionLocks.bulkGet(ImmutableSet.of(
+                ChestLockRegion.keyOf(x, z),
+                ChestLockRegion.keyOf(x - 1, z),
+                ChestLockRegion.keyOf(x + 1, z),
+                ChestLockRegion.keyOf(x, z - 1),
+                ChestLockRegion.keyOf(x, z + 1))));
+
+        locks.forEach(Lock::lock);
+        return locks;
+    }
+
+    /**
+     * Releases the locks taken by {@link #lockAround(ChestBlock)}, then compacts the journal if the change
+     * passed the compaction threshold and no bulk job is running. Compacting takes every stripe, so it can only
+     * start once none are held.
+     */
+    private void unlock(final List<Lock> locks) {
+        Lists.reverse(locks).forEach(Lock::unlock);
+
+        if (compactionDue && snapshotWriter != null && bulkJobs.get() == 0) {
+            compact();
+        }
+    }
+
+    private void register(final int playerId, final ChestBlock blockToRegister) {
+        ChestLockRegion region = getRegion(blockToRegister);
+        ChestAcl oldAcl = region.getAcl(blockToRegister);
+
+        region.register(playerId, blockToRegister);
+        ownerIndex.update(blockToRegister.getChestPos().toLong(), blockToRegister.getTypeId(),
+                oldAcl, region.getAcl(blockToRegister));
+        aclVersion.incrementAndGet();
+        aclChanged(blockToRegister);
+    }
+
+    /**
+     * Points {@code chestBlock} at the same acl and root user as {@code partnerChestBlock}, this is how both
+     * halves of a double chest start out in sync. The halves can be in different regions.
+     */
+    private void link(final ChestBlock chestBlock, final ChestBlock partnerChestBlock) {
+        ChestLockRegion partnerRegion = getRegion(partnerChestBlock);
+        ChestAcl partnerAcl = partnerRegion.getAcl(partnerChestBlock);
+        int rootPlayerId = partnerRegion.getOwner(partnerChestBlock);
+
+        if (partnerAcl == null || rootPlayerId == ChestLockPlayerRegistry.NO_PLAYER) {
+            return;
+        }
+
+        ChestLockRegion region = getRegion(chestBlock);
+        ChestAcl oldAcl = region.getAcl(chestBlock);
+
+        region.link(chestBlock, partnerAcl, rootPlayerId);
+        ownerIndex.update(chestBlock.getChestPos().toLong(), chestBlock.getTypeId(), oldAcl, partnerAcl);
+        aclVersion.incrementAndGet();
+        aclChanged(chestBlock);
+    }
+
+    /**
+     * Points {@code chestBlock} and the other blocks of its container, if it has any, at the acl returned by
+     * {@code change}. Acls are immutable, so every block has to be changed to stay in sync, and each one is
+     * swapped only if it still has the acl the change was built from. A partner can
+     * be in the neighbouring region, which is marked dirty as well so its copy on disk is written again too.
+     * @param sequence when replaying the journal, the sequence number of the record being replayed, the change
+     * is only applied to regions whose file is older than it. Otherwise {@link ChestLockSnapshotWriter#NO_SEQUENCE}.
+     * @return true if the change was applied to any region.
+     */
+    private boolean changeAcl(final ChestBlock chestBlock,
+                              final long sequence,
+                              final UnaryOperator<ChestAcl> change) {
+        List<ChestBlock> chestBlocks = Lists.newArrayList(chestBlock);
+        chestBlocks.addAll(ChestBlock.getPartnerChestBlocks(chestBlock));
+        boolean changed = false;
+
+        for (ChestBlock chestBlockToChange : chestBlocks) {
+            ChestLockRegion region = getRegion(chestBlockToChange);
+
+            if (sequence != ChestLockSnapshotWriter.NO_SEQUENCE && sequence <= region.getSequence()) {
+                continue;
+            }
+
+            ChestAcl acl;
+            ChestAcl newAcl = null;
+
+            // Build the change from the acl the chest has now, again if it was swapped before ours could be
+            do {
+                acl = region.getAcl(chestBlockToChange);
+
+                if (acl == null) {
+                    break;
+                }
+
+                newAcl = change.apply(acl);
+            } while (!region.replaceAcl(chestBlockToChange, acl, newAcl));
+
+            if (acl == null) {
+                continue;
+            }
+
+            ownerIndex.update(chestBlockToChange.getChestPos().toLong(), chestBlockToChange.getTypeId(), acl, newAcl);
+            changed = true;
+        }
+
+        if (changed) {
+            aclVersion.incrementAndGet();
+            chestBlocks.forEach(this::aclChanged);
+        }
+
+        return changed;
+    }
+
+    private void aclChanged(final ChestBlock chestBlock) {
+        long packedPos = chestBlock.getChestPos().toLong();
+
+        for (LongConsumer listener : aclListeners) {
+            listener.accept(packedPos);
+        }
+    }
+
+    /**
+     * @return the player's decision cache, only the first click of a player after logging in creates one.
+     */
+    private ChestLockDecisionCache decisionCacheOf(final int playerId) {
+        AtomicReferenceArray<ChestLockDecisionCache> caches = decisionCaches;
+        ChestLockDecisionCache decisionCache = playerId < caches.length() ? caches.get(playerId) : null;
+
+        if (decisionCache != null) {
+            return decisionCache;
+        }
+
+        synchronized (decisionCachesLock) {
+            caches = decisionCaches;
+
+            if (playerId >= caches.length()) {
+                AtomicReferenceArray<ChestLockDecisionCache> grownCaches =
+                        new AtomicReferenceArray<>(Math.max(playerId + 1, caches.length() * 2));
+
+                for (int index = 0; index < caches.length(); index++) {
+                    grownCaches.set(index, caches.get(index));
+                }
+
+                decisionCaches = grownCaches;
+                caches = grownCaches;
+            }
+
+            decisionCache = caches.get(playerId);
+
+            if (decisionCache == null) {
+                decisionCache = new ChestLockDecisionCache();
+                caches.set(playerId, decisionCache);
+            }
+
+            return decisionCache;
+        }
+    }
+
+    private ChestLockRegion getRegion(final ChestBlock chestBlock) {
+        return getRegion(ChestLockRegion.keyOf(chestBlock.getChestPos()));
+    }
+
+    /**
+     * @return the loaded region, or the region loaded from its file if it isn't loaded yet. A region that
+     * has never been written is created empty.
+     */
+    private ChestLockRegion getRegion(final long regionKey) {
+        ChestLockRegion region = lastRegion;
+
+        if (region != null && region.getKey() == regionKey && !region.isEvicted()) {
+            return region;
+        }
+
+        region = regions.get(regionKey);
+
+        if (region != null) {
+            lastRegion = region;
+            return region;
+        }
+
+        Lock lock = regionLocks.get(regionKey);
+        lock.lock();
+        try {
+            region = regions.get(regionKey);
+
+            if (region == null) {
+                region = loadRegion(regionKey);
+                regions.put(regionKey, region);
+            }
+
+            return region;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private ChestLockRegion loadRegion(final long regionKey) {
+        try (TimerMetric metric = TimerMetric.start(LOAD_REGION_TIMER)) {
+            ChestLockSnapshot snapshot = snapshotWriter == null ? null : snapshotWriter.read(regionKey);
+
+            if (snapshot == null) {
+                return new ChestLockRegion(regionKey, ChestLockSnapshotWriter.NO_SEQUENCE);
+            }
+
+            return ChestLockRegion.fromSnapshot(regionKey, snapshot);
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to read chest lock region " + regionKey, e);
+        }
+    }
+
+    /**
+     * Removes the region from memory, handing it to the {@link ChestLockSnapshotWriter} first if it changed
+     * since it was last written. The writer keeps serving it from memory until it is on disk.
+     */
+    private void evict(final ChestLockRegion region) {
+        Lock lock = regionLocks.get(region.getKey());
+        lock.lock();
+        try {
+            if (!regions.remove(region.getKey(), region)) {
+                return;
+            }
+
+            region.markEvicted();
+
+            if (!region.isDirty() || snapshotWriter == null) {
+                return;
+            }
+
+            // Every change to the region is journaled while holding its stripe, so the region contains every
+            // record for it up to the current sequence number
+            ChestLockSnapshot snapshot = region.capture(currentSequence());
+            snapshotWriter.write(ImmutableMap.of(region.getKey(), snapshot), ChestLockSnapshotWriter.NO_SEQUENCE);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Appends a change to the journal, must be called while holding the stripes of the changed regions. Once
+     * the journal passes {@link #COMPACTION_THRESHOLD_BYTES} it is folded into new region snapshots when the
+     * stripes are released. If there is no journal to append to the manager is marked dirty so the regions are
+     * written on the next world save.
+     */
+    private void journal(final JournalWrite journalWrite) {
+        ChestLockJournal currentJournal = journal;
+
+        if (currentJournal == null) {
+            setDirty(true);
+            return;
+        }
+
+        try {
+            journalWrite.write(currentJournal);
+        } catch (IOException e) {
+            log.error("Failed to append to the journal, falling back to a full save", e);
+            setDirty(true);
+            return;
+        }
+
+        if (currentJournal.getSegmentBytes() >= COMPACTION_THRESHOLD_BYTES) {
+            compactionDue = true;
+        }
+    }
+
+    /**
+     * Folds the journal into new snapshots of every changed region. Regions that were evicted were already
+     * written when they were evicted, so together they contain every record up to the current sequence number.
+     * The snapshots are written by the {@link ChestLockSnapshotWriter}, and the journal segments they contain
+     * are deleted by a later compaction once they are on disk. Every stripe is held, in stripe order, so no
+     * change can happen while the regions are captured.
+     */
+    private void compact() {
+        for (int stripe = 0; stripe < regionLocks.size(); stripe++) {
+            regionLocks.getAt(stripe).lock();
+        }
+
+        try {
+            compactionDue = false;
+            long sequence = currentSequence();
+            Map<Long, ChestLockSnapshot> regionSnapshots = Maps.newHashMap();
+
+            for (ChestLockRegion region : regions.values()) {
+                if (region.isDirty()) {
+                    regionSnapshots.put(region.getKey(), region.capture(sequence));
+                }
+            }
+
+            snapshotWriter.write(regionSnapshots, sequence);
+            // Queued after the snapshots, so the owner index never contains a change its region file doesn't
+            snapshotWriter.execute(ownerIndex.capture(sequence));
+
+            if (journal == null) {
+                return;
+            }
+
+            // The owner index file is replayed from the journal as well, so segments it doesn't contain are kept
+            journal.deleteSegmentsContainedBy(Math.min(snapshotWriter.getDurableSequence(), ownerIndex.getSequence()));
+
+            try {
+                journal.rollover();
+            } catch (IOException e) {
+                log.error("Failed to roll over the journal, falling back to full saves", e);
+                close();
+            }
+        } finally {
+            for (int stripe = regionLocks.size() - 1; stripe >= 0; stripe--) {
+                regionLocks.getAt(stripe).unlock();
+            }
+        }
+    }
+
+    /**
+     * Moves locks saved by older versions, either inline in this {@link WorldSavedData} or in the single snapshot
+     * file, into region files. They are written on this thread so they are on disk before anything else happens.
+     */
+    private void migrate(final File legacySnapshotFile) {
+        final ChestLockSnapshot snapshot = legacySnapshotFile.exists() ? readSnapshot(legacySnapshotFile) : inlineSnapshot;
+
+        if (snapshot == null) {
+            return;
+        }
+
+        Map<Long, ChestLockRegion> splitRegions = Maps.newHashMap();
+        ChestBlock[] chestBlocks = snapshot.getChestBlocks();
+
+        for (int index = 0; index < chestBlocks.length; index++) {
+            long regionKey = ChestLockRegion.keyOf(chestBlocks[index].getChestPos());
+            ChestLockRegion region = splitRegions.computeIfAbsent(regionKey,
+                    key -> new ChestLockRegion(key, snapshot.getSequence()));
+
+            region.put(chestBlocks[index], snapshot.getAcls().get(snapshot.getAclIndexes()[index]), snapshot.getOwners()[index]);
+        }
+
+        Map<Long, ChestLockSnapshot> regionSnapshots = Maps.newHashMap();
+        splitRegions.forEach((key, region) -> regionSnapshots.put(key, region.capture(snapshot.getSequence())));
+        snapshotWriter.writeNow(regionSnapshots, snapshot.getSequence());
+
+        if (legacySnapshotFile.exists() && !legacySnapshotFile.delete()) {
+            log.warn("Couldn't delete {} after migrating it", legacySnapshotFile.getName());
+        }
+
+        // Overwrite the inline copy with the next save
+        setDirty(true);
+        log.info("Moved {} locked chests into {} regions", chestBlocks.length, splitRegions.size());
     }
 
-    private boolean hasPermissionToModify(final String userName, final ChestBlock chestBlock, ChestPermissions permissionToModify) {
-        ChestPermissions requestingUserPermission = getPermission(userName, chestBlock);
+    /**
+     * Decodes the locks saved inline in this {@link WorldSavedData}, either in the binary format written by
+     * {@link ChestLockCodec} or as the json strings used before it.
+     * @return the inline locks, or null if there aren't any.
+     */
+    @Nullable
+    private ChestLockSnapshot readInline() {
+        if (inlineCompound == null) {
+            return null;
+        }
+
+        try (TimerMetric metric = TimerMetric.start(READ_FROM_NBT_TIMER)) {
+            if (ChestLockCodec.isBinaryFormat(inlineCompound)) {
+                return ChestLockCodec.read(inlineCompound, players);
+            }
+
+            if (!inlineCompound.hasKey(CHEST_PERMISSIONS_SAVE_KEY, Constants.NBT.TAG_STRING)) {
+                return null;
+            }
+
+            Map<ChestBlock, ChestAcl> localChestAcls = Maps.newHashMap();
+            Map<ChestBlock, Integer> localChestOwners = Maps.newHashMap();
+            readLegacyJson(inlineCompound, localChestAcls, localChestOwners);
+
+            // Put into a throwaway region so the json tables can be captured like any other region
+            ChestLockRegion legacyLocks = new ChestLockRegion(0, 0);
+            localChestAcls.forEach((chestBlock, acl) -> legacyLocks.put(chestBlock, acl,
+                    localChestOwners.getOrDefault(chestBlock, ChestLockPlayerRegistry.NO_PLAYER)));
+            log.info("Migrated {} locked chests from the json save format", legacyLocks.size());
+
+            return legacyLocks.capture(0);
+        }
+    }
+
+    /**
+     * Opens the owner index file. Worlds saved before the owner index had its own file, or whose file can't be
+     * read, have it built once from every region file.
+     */
+    private void openOwnerIndex(final File ownerIndexFile) {
+        ownerIndex = new ChestLockOwnerIndex(ownerIndexFile, players);
+
+        try {
+            if (ownerIndex.open() || !snapshotWriter.hasRegionFiles()) {
+                return;
+            }
+        } catch (IOException e) {
+            log.error("Failed to read {}, building it again from the region files", ownerIndexFile.getName(), e);
+            ownerIndex = new ChestLockOwnerIndex(ownerIndexFile, players);
+        }
+
+        try (TimerMetric metric = TimerMetric.start(BUILD_OWNER_INDEX_TIMER)) {
+            for (long regionKey : snapshotWriter.listRegionKeys()) {
+                ChestLockSnapshot snapshot = snapshotWriter.read(regionKey);
+
+                if (snapshot == null) {
+                    continue;
+                }
+
+                ChestBlock[] chestBlocks = snapshot.getChestBlocks();
+                for (int index = 0; index < chestBlocks.length; index++) {
+                    ownerIndex.refresh(chestBlocks[index].getChestPos().toLong(), chestBlocks[index].getTypeId(),
+                            snapshot.getAcls().get(snapshot.getAclIndexes()[index]));
+                }
+            }
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to index the chest lock regions", e);
+        }
+
+        // Region files can be older than the journal, so it is replayed into the built index like into an old file
+        ownerIndex.capture(ChestLockSnapshotWriter.NO_SEQUENCE).run();
+    }
+
+    /**
+     * Replaying skips records a region file already contains, the owner index file can be older than the region
+     * files though. The acls the chest has after the record are laid over the index, later records of the same
+     * chest lay theirs over them again.
+     */
+    private void refreshOwnerIndex(final long sequence, final ChestBlock chestBlock) {
+        if (sequence <= ownerIndex.getSequence()) {
+            return;
+        }
+
+        List<ChestBlock> chestBlocks = Lists.newArrayList(chestBlock);
+        chestBlocks.addAll(ChestBlock.getPartnerChestBlocks(chestBlock));
+
+        for (ChestBlock chestBlockToRefresh : chestBlocks) {
+            ownerIndex.refresh(chestBlockToRefresh.getChestPos().toLong(), chestBlockToRefresh.getTypeId(),
+                    getRegion(chestBlockToRefresh).getAcl(chestBlockToRefresh));
+        }
+    }
+
+    private ChestLockSnapshot readSnapshot(final File snapshotFile) {
+        try (InputStream input = new FileInputStream(snapshotFile)) {
+            return ChestLockCodec.read(CompressedStreamTools.readCompressed(input), players);
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to read the chest lock snapshot", e);
+        }
+    }
+
+    private long currentSequence() {
+        return journal == null ? closedJournalSequence : journal.getLastSequence();
+    }
+
+    private boolean hasPermissionToModify(final int playerId, final ChestBlock chestBlock, ChestPermissions permissionToModify) {
+        ChestPermissions requestingUserPermission = getPermission(playerId, chestBlock);
         return requestingUserPermission != null && requestingUserPermission.getPermissionLevel() < permissionToModify.getPermissionLevel();
     }
 
-    private ChestPermissions getPermission(final String userName, final ChestBlock chestBlock) {
-        Map<String, ChestPermissions> chestPermissionsMap = chestPermissions.get(chestBlock);
+    private ChestPermissions getPermission(final int playerId, final ChestBlock chestBlock) {
+        ChestAcl acl = getRegion(chestBlock).getAcl(chestBlock);
 
-        if (chestPermissionsMap == null) {
+        if (acl == null) {
             return ChestPermissions.NONE;
         }
 
-        ChestPermissions chestPermissions = chestPermissionsMap.get(userName);
+        return getPermission(playerId, acl);
+    }
+
+    /**
+     * @return the permission the player was given on the chest, ignoring the groups the player is in. Changes
+     * are made to this entry, a permission through a group is changed by changing the group.
+     */
+    private ChestPermissions getOwnPermission(final int playerId, final ChestBlock chestBlock) {
+        ChestAcl acl = getRegion(chestBlock).getAcl(chestBlock);
+        ChestPermissions chestPermissions = acl == null ? null : acl.get(playerId);
+        return chestPermissions == null ? ChestPermissions.NONE : chestPermissions;
+    }
+
+    /**
+     * @return the highest of the player's own permission and the permissions of the groups the player is in.
+     */
+    private ChestPermissions getPermission(final int playerId, final ChestAcl acl) {
+        ChestPermissions chestPermissions = acl.get(playerId);
 
         if (chestPermissions == null) {
-            return ChestPermissions.NONE;
+            chestPermissions = ChestPermissions.NONE;
+        }
+
+        if (groups.isEmpty()) {
+            return chestPermissions;
+        }
+
+        for (int index = 0; index < acl.size(); index++) {
+            ChestPermissions groupPermission = acl.permissionAt(index);
+
+            if (groupPermission.getPermissionLevel() < chestPermissions.getPermissionLevel()
+                    && groups.isMember(acl.playerIdAt(index), playerId)) {
+                chestPermissions = groupPermission;
+            }
         }
 
         return chestPermissions;
     }
 
-    static ChestLockManager getChestLockManager(final World world) {
-        MapStorage storage = world.getMapStorage();
+    private void readLegacyJson(final NBTTagCompound compound,
+                                final Map<ChestBlock, ChestAcl> localChestAcls,
+                                final Map<ChestBlock, Integer> localChestOwners) {
+        List<ChestBlockWithPermissionsMap> chestPermissionsEntrySet =
+                GSON.fromJson(compound.getString(CHEST_PERMISSIONS_SAVE_KEY),
+                        new TypeToken<List<ChestBlockWithPermissionsMap>>() {}.getType());
+
+        // chestPermissions was stored in NBT as a json representing its entry set, both halves of a double chest
+        // had the same permissions so interning them gives both halves the same acl again
+        for (ChestBlockWithPermissionsMap entry : chestPermissionsEntrySet) {
+            Map<Integer, ChestPermissions> permissionsByPlayerId = Maps.newHashMap();
+            entry.getPermissionsMap().forEach((userName, permission) ->
+                    permissionsByPlayerId.put(players.resolve(userName), permission));
+            localChestAcls.put(entry.getChestBlock(), ChestAcl.of(permissionsByPlayerId));
+        }
+
+        Map<ChestBlock, String> chestOwnersJson = GSON.fromJson(compound.getString(CHEST_OWNERS_SAVE_KEY),
+                new TypeToken<ConcurrentHashMap<ChestBlock, String>>() {}.getType());
+        if (chestOwnersJson != null) {
+            chestOwnersJson.forEach((chestBlock, userName) -> localChestOwners.put(chestBlock, players.resolve(userName)));
+        }
+    }
+
+    /**
+     * Loads the manager of a dimension from the dimension's own storage, so every dimension has its own
+     * region files and journal. Locks saved before managers were split by dimension are in the overworld's.
+     */
+    static ChestLockManager getChestLockManager(final WorldServer world,
+                                                final ChestLockPlayerRegistry players,
+                                                final ChestLockGroups groups) {
+        MapStorage storage = world.getPerWorldStorage();
         ChestLockManager chestLockManager = (ChestLockManager) storage.getOrLoadData(ChestLockManager.class, CHEST_LOCK_MANAGER_SAVE_KEY);
 
         if (chestLockManager == null) {
@@ -281,17 +1297,29 @@ public class ChestLockManager extends WorldSavedData {
             storage.setData(CHEST_LOCK_MANAGER_SAVE_KEY, chestLockManager);
         }
 
+        File dataDirectory = new File(world.getChunkSaveLocation(), DATA_DIRECTORY_NAME);
+        if (!dataDirectory.isDirectory() && !dataDirectory.mkdirs()) {
+            log.error("Couldn't create {}", dataDirectory);
+        }
+
+        chestLockManager.open(world, dataDirectory, players, groups);
+
         return chestLockManager;
     }
 
     public ChestLockManager(final String name) {
         super(name);
+        regions = Maps.newConcurrentMap();
+        regionLocks = Striped.lock(LOCK_STRIPES);
+        aclVersion = new AtomicLong();
+        aclListeners = new CopyOnWriteArrayList<>();
+        bulkJobs = new AtomicInteger();
+        decisionCaches = new AtomicReferenceArray<>(INITIAL_DECISION_CACHES);
+        decisionCachesLock = new Object();
     }
 
     private ChestLockManager() {
-        super(CHEST_LOCK_MANAGER_SAVE_KEY);
-        chestPermissions = Maps.newConcurrentMap();
-        chestOwners = Maps.newConcurrentMap();
+        this(CHEST_LOCK_MANAGER_SAVE_KEY);
     }
 
     @Value
@@ -304,4 +1332,56 @@ public class ChestLockManager extends WorldSavedData {
         ADD,
         REMOVE
     }
+
+    @FunctionalInterface
+    private interface JournalWrite {
+        void write(ChestLockJournal journal) throws IOException;
+    }
+
+    /**
+     * Applies journaled changes without any permission checks, they were already checked when the
+     * change was first made. A record is only applied to a region whose file doesn't contain it yet, and
+     * only refreshes the owner index if its file doesn't contain it yet.
+     */
+    private final class JournalReplayer implements ChestLockJournal.Replayer {
+        private int replayedChanges;
+
+        @Override
+        public void register(final long sequence, final ChestBlock chestBlock, final int playerId) {
+            if (sequence > getRegion(chestBlock).getSequence()) {
+                ChestLockManager.this.register(playerId, chestBlock);
+                replayedChanges++;
+            }
+
+            refreshOwnerIndex(sequence, chestBlock);
+        }
+
+        @Override
+        public void link(final long sequence, final ChestBlock chestBlock, final ChestBlock partnerChestBlock) {
+            if (sequence > getRegion(chestBlock).getSequence()) {
+                ChestLockManager.this.link(chestBlock, partnerChestBlock);
+                replayedChanges++;
+            }
+
+            refreshOwnerIndex(sequence, chestBlock);
+        }
+
+        @Override
+        public void setPermission(final long sequence, final ChestBlock chestBlock, final int playerId, final ChestPermissions permission) {
+            if (changeAcl(chestBlock, sequence, acl -> acl.with(playerId, permission))) {
+                replayedChanges++;
+            }
+
+            refreshOwnerIndex(sequence, chestBlock);
+        }
+
+        @Override
+        public void removePermission(final long sequence, final ChestBlock chestBlock, final int playerId) {
+            if (changeAcl(chestBlock, sequence, acl -> acl.without(playerId))) {
+                replayedChanges++;
+            }
+
+            refreshOwnerIndex(sequence, chestBlock);
+        }
+    }
 }
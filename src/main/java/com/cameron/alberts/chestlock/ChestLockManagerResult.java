@@ -12,7 +12,15 @@ public enum ChestLockManagerResult {
     USER_ALREADY_HAS_THOSE_PERMISSIONS(TextFormatting.YELLOW + "That user already has those permissions!"),
     SUCCESSFULLY_REMOVED_USER(TextFormatting.GREEN + "Successfully removed user from chest!"),
     SUCCESSFULLY_ADDED_USER(TextFormatting.GREEN + "Successfully added user to chest!"),
-    SUCCESSFULLY_REGISTERED_CHEST(TextFormatting.GREEN + "Successfully registered chest!");
+    SUCCESSFULLY_REGISTERED_CHEST(TextFormatting.GREEN + "Successfully registered chest!"),
+    INVALID_GROUP_NAME(TextFormatting.RED + "Group names can only contain letters, numbers and underscores!"),
+    GROUP_ALREADY_EXISTS(TextFormatting.RED + "That group already exists!"),
+    GROUP_DOES_NOT_EXIST(TextFormatting.RED + "That group doesn't exist!"),
+    USER_ALREADY_IN_GROUP(TextFormatting.YELLOW + "That user is already in the group!"),
+    USER_IS_NOT_IN_GROUP(TextFormatting.RED + "The user isn't in that group!"),
+    SUCCESSFULLY_CREATED_GROUP(TextFormatting.GREEN + "Successfully created group!"),
+    SUCCESSFULLY_ADDED_MEMBER(TextFormatting.GREEN + "Successfully added user to group!"),
+    SUCCESSFULLY_REMOVED_MEMBER(TextFormatting.GREEN + "Successfully removed user from group!");
 
     private final String message;
 
@@ -0,0 +1,127 @@
+package com.cameron.alberts.chestlock;
+
+import com.cameron.alberts.metrics.GaugeMetric;
+import com.google.common.collect.Maps;
+import com.mojang.authlib.GameProfile;
+import lombok.extern.log4j.Log4j2;
+import net.minecraft.entity.player.EntityPlayer;
+import net.minecraft.server.MinecraftServer;
+import net.minecraft.world.World;
+import net.minecraft.world.WorldServer;
+import net.minecraftforge.fml.common.FMLCommonHandler;
+
+import javax.annotation.Nullable;
+import java.util.Map;
+import java.util.UUID;
+import java.util.function.ToLongFunction;
+
+/**
+ * One {@link ChestLockManager} per loaded dimension, created when the dimension loads and released when it
+ * unloads. Every dimension has its own regions, journal and lock, so a chest in the Nether never collides with
+ * the chest at the same coordinates in the Overworld and changes in one dimension never wait on another.
+ * Player ids and {@link ChestLockGroups} are shared by every dimension.
+ */
+@Log4j2
+public final class ChestLockManagers {
+    private final ChestLockPlayerRegistry players;
+    private final Map<Integer, ChestLockManager> managers;
+    // Loaded from the global storage with the first dimension
+    @Nullable
+    private volatile ChestLockGroups groups;
+
+    public ChestLockManagers() {
+        this.players = new ChestLockPlayerRegistry(ChestLockManagers::resolveUuid);
+        this.managers = Maps.newConcurrentMap();
+
+        // Replaces the gauges of the last server this game ran
+        registerGauge("lockedChests", ChestLockManager::getLockedChestCount);
+        registerGauge("aclEntries", ChestLockManager::getAclEntryCount);
+        registerGauge("loadedRegions", ChestLockManager::getLoadedRegionCount);
+        GaugeMetric.register("players", players::size);
+    }
+
+    /**
+     * Opens the manager of a dimension that loaded, does nothing if it is already open.
+     */
+    public void load(final WorldServer world) {
+        int dimension = world.provider.getDimension();
+
+        if (groups == null) {
+            groups = ChestLockGroups.getChestLockGroups(world.getMapStorage(), players);
+        }
+
+        if (!managers.containsKey(dimension)) {
+            managers.put(dimension, ChestLockManager.getChestLockManager(world, players, groups));
+            log.info("Opened the chest locks of dimension {}", dimension);
+        }
+    }
+
+    /**
+     * Releases the manager of a dimension that unloaded, the dimension has already been saved.
+     */
+    public void unload(final World world) {
+        ChestLockManager manager = managers.remove(world.provider.getDimension());
+
+        if (manager != null) {
+            manager.release();
+            log.info("Released the chest locks of dimension {}", world.provider.getDimension());
+        }
+    }
+
+    /**
+     * @return the manager of the world's dimension, or null if the world is remote or its dimension isn't loaded.
+     */
+    @Nullable
+    public ChestLockManager get(final World world) {
+        return world.isRemote ? null : managers.get(world.provider.getDimension());
+    }
+
+    /**
+     * Resolves an online player to the id locks are stored under in every dimension, see
+     * {@link ChestLockManager#getPlayerId(EntityPlayer)}.
+     */
+    public int getPlayerId(final EntityPlayer player) {
+        return players.playerSeen(player.getUniqueID(), player.getName());
+    }
+
+    /**
+     * Forgets the cached decisions of a player that logged out in every dimension.
+     */
+    public void playerLoggedOut(final EntityPlayer player) {
+        int playerId = getPlayerId(player);
+        managers.values().forEach(manager -> manager.forgetDecisions(playerId));
+    }
+
+    /**
+     * @return the groups shared by every dimension, or null if no dimension has loaded yet.
+     */
+    @Nullable
+    public ChestLockGroups getGroups() {
+        return groups;
+    }
+
+    void prepareForShutdown() {
+        managers.values().forEach(ChestLockManager::prepareForShutdown);
+    }
+
+    void close() {
+        managers.values().forEach(ChestLockManager::close);
+        managers.clear();
+    }
+
+    /**
+     * Registers a gauge summing the value over the managers of every loaded dimension.
+     */
+    private void registerGauge(final String metricName, final ToLongFunction<ChestLockManager> value) {
+        GaugeMetric.register(metricName, () -> managers.values().stream().mapToLong(value).sum());
+    }
+
+    /**
+     * Finds the UUID of a player known only by name, the same way the server does for offline players.
+     */
+    private static UUID resolveUuid(final String userName) {
+        MinecraftServer server = FMLCommonHandler.instance().getMinecraftServerInstance();
+        GameProfile profile = server == null ? null : server.getPlayerProfileCache().getGameProfileForUsername(userName);
+        return profile == null ? EntityPlayer.getOfflineUUID(userName) : profile.getId();
+    }
+}
@@ -4,6 +4,10 @@ import com.cameron.alberts.chestlock.command.ChestLockCommand;
 import com.cameron.alberts.chestlock.event.ChestLockEvents;
 import com.cameron.alberts.chestlock.proxy.CommonProxy;
 import com.cameron.alberts.loader.ResourceLoader;
+import com.cameron.alberts.metrics.MetricSettings;
+import com.cameron.alberts.metrics.TimerMetric;
+import net.minecraft.world.WorldServer;
+import net.minecraftforge.common.DimensionManager;
 import net.minecraftforge.common.MinecraftForge;
 import net.minecraftforge.fml.common.Mod;
 import net.minecraftforge.fml.common.SidedProxy;
@@ -11,6 +15,7 @@ import net.minecraftforge.fml.common.event.FMLInitializationEvent;
 import net.minecraftforge.fml.common.event.FMLPostInitializationEvent;
 import net.minecraftforge.fml.common.event.FMLPreInitializationEvent;
 import net.minecraftforge.fml.common.event.FMLServerStartingEvent;
+import net.minecraftforge.fml.common.event.FMLServerStoppedEvent;
 import net.minecraftforge.fml.common.event.FMLServerStoppingEvent;
 
 @Mod(modid = ChestLockMod.MOD_ID, name = ChestLockMod.MOD_NAME, version = ChestLockMod.VERSION)
@@ -34,10 +39,17 @@ public class ChestLockMod {
     public static final String MOD_ID = "chest_lock";
 
     public static ResourceLoader resourceLoader = new ResourceLoader("com.cameron.alberts.chestlock", MOD_ID);
-    public static ChestLockManager chestLockManager;
+    public static ChestLockManagers chestLockManagers;
+    public static ChestLockJobs chestLockJobs;
+    public static ChestLockQueries chestLockQueries;
+    private static ChestLockEvents chestLockEvents;
+    private static ChestLockConfig config;
 
     @Mod.EventHandler
     public void preInit(FMLPreInitializationEvent event) throws Exception {
+        config = ChestLockConfig.load(event.getSuggestedConfigurationFile());
+        TimerMetric.configure(config.isRawTimers(), config.getTimerSummarySeconds());
+        MetricSettings.configure(config.getDefaultSampleRate(), config.getSampleRates());
         resourceLoader.register();
         proxy.preInit(event);
     }
@@ -50,22 +62,65 @@ public class ChestLockMod {
 
     @Mod.EventHandler
     public void postInit(FMLPostInitializationEvent event) {
+        // Every mod has registered its blocks by now
+        ChestBlock.registerChestTypes(config.getContainers());
         proxy.postInit(event);
     }
 
     @Mod.EventHandler
     public void serverStarting(FMLServerStartingEvent event) {
-        chestLockManager = ChestLockManager.getChestLockManager(event.getServer().getEntityWorld());
-        MinecraftForge.EVENT_BUS.register(new ChestLockEvents(chestLockManager));
-        event.registerServerCommand(new ChestLockCommand(chestLockManager));
+        chestLockManagers = new ChestLockManagers();
+
+        // Dimensions loaded from here on are opened by ChestLockEvents
+        for (WorldServer world : DimensionManager.getWorlds()) {
+            chestLockManagers.load(world);
+        }
+
+        chestLockJobs = new ChestLockJobs(chestLockManagers, config.getJobBudgetMicros());
+        chestLockQueries = new ChestLockQueries();
+        chestLockEvents = new ChestLockEvents(chestLockManagers);
+
+        MinecraftForge.EVENT_BUS.register(chestLockEvents);
+        MinecraftForge.EVENT_BUS.register(chestLockJobs);
+        event.registerServerCommand(new ChestLockCommand(chestLockManagers, chestLockJobs, chestLockQueries));
     }
 
     @Mod.EventHandler
     public void serverStopping(FMLServerStoppingEvent event) {
-        // ChestLockManager periodically sets its dirty bit, make sure it was
-        // set before stopping the server.
-        if (chestLockManager != null) {
-            chestLockManager.setDirty(true);
+        // Each ChestLockManager periodically sets its dirty bit, make sure it was
+        // set before stopping the server. The final snapshot is written synchronously
+        // so it is on disk before the server exits.
+        if (chestLockJobs != null) {
+            chestLockJobs.cancelAll();
+        }
+
+        if (chestLockManagers != null) {
+            chestLockManagers.prepareForShutdown();
+        }
+    }
+
+    @Mod.EventHandler
+    public void serverStopped(FMLServerStoppedEvent event) {
+        // The worlds have been saved by now, nothing else will be journaled. The handlers of this server
+        // would otherwise open managers for the worlds of the next server an integrated client starts
+        if (chestLockEvents != null) {
+            MinecraftForge.EVENT_BUS.unregister(chestLockEvents);
+            chestLockEvents = null;
+        }
+
+        if (chestLockJobs != null) {
+            MinecraftForge.EVENT_BUS.unregister(chestLockJobs);
+            chestLockJobs = null;
+        }
+
+        if (chestLockQueries != null) {
+            chestLockQueries.close();
+            chestLockQueries = null;
+        }
+
+        if (chestLockManagers != null) {
+            chestLockManagers.close();
+            chestLockManagers = null;
         }
     }
 }
@@ -0,0 +1,583 @@
+package com.cameron.alberts.chestlock;
+
+import com.cameron.alberts.metrics.BytesMetric;
+import com.cameron.alberts.metrics.MetricSampler;
+import com.cameron.alberts.metrics.TimerMetric;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import lombok.extern.log4j.Log4j2;
+
+import javax.annotation.Nullable;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongConsumer;
+
+/**
+ * Reverse index from a player id to every chest the player has a permission on, in every region whether it is
+ * loaded or not, so per player queries and bulk changes only visit the player's own chests.
+ *
+ * The index lives in its own file next to the journal and isn't kept in memory, only the chests changed since
+ * the file was last written are, each with the acl it has now and grouped by the players on it. Every compaction
+ * hands those changes to the {@link ChestLockSnapshotWriter} thread, which merges them into a new file. A lookup
+ * finds the player's part of the file in its directory, reads only that part and lays the player's changes over
+ * it, and opening the manager only reads the file's trailer and replays the journal written since the last
+ * merge, so neither the heap nor startup grow with every chest ever placed.
+ *
+ * The file holds a table of block type names, then every player by UUID with each of the player's chests as
+ * its {@link ChestPos#toLong()}, type index and {@link ChestPermissions} ordinal. A directory after them holds
+ * the offset of every player's part sorted by UUID, and a trailer at the end holds the directory's offset, the
+ * journal sequence number the file contains, the totals and the format version.
+ */
+@Log4j2
+final class ChestLockOwnerIndex {
+    private static final int FORMAT_VERSION = 2;
+    private static final int TRAILER_BYTES = 4 * Long.BYTES + Integer.BYTES;
+    private static final int ENTRY_BYTES = Long.BYTES + Short.BYTES + Byte.BYTES;
+    private static final int DIRECTORY_ENTRY_BYTES = 3 * Long.BYTES;
+    private static final byte PLAYER = 1;
+    private static final byte END = 0;
+    private static final ChestPermissions[] PERMISSIONS = ChestPermissions.values();
+    private static final BytesMetric OWNER_INDEX_BYTES = BytesMetric.create("ownerIndexBytes");
+    private static final MetricSampler MERGE_OWNER_INDEX_TIMER = MetricSampler.of("mergeOwnerIndex");
+
+    private final File file;
+    private final ChestLockPlayerRegistry players;
+    // Replaced as a whole, so a lookup always sees the changes that belong with the file it reads
+    private volatile Changes changes;
+    // The last journal sequence number contained in the file
+    private volatile long sequence;
+    // Totals of the file, the adders count the changes made since the file's changes were captured
+    private volatile long fileLockedChests;
+    private volatile long fileAclEntries;
+    private final LongAdder lockedChests;
+    private final LongAdder aclEntries;
+
+    ChestLockOwnerIndex(final File file, final ChestLockPlayerRegistry players) {
+        this.file = file;
+        this.players = players;
+        this.changes = new Changes(ImmutableMap.of(), ImmutableMap.of());
+        this.sequence = ChestLockSnapshotWriter.NO_SEQUENCE;
+        this.lockedChests = new LongAdder();
+        this.aclEntries = new LongAdder();
+    }
+
+    /**
+     * Reads the trailer of the file.
+     * @return false if there is no file yet.
+     * @throws IOException if the file can't be read, it has to be rebuilt from the region files.
+     */
+    boolean open() throws IOException {
+        if (!file.exists()) {
+            return false;
+        }
+
+        try (RandomAccessFile input = new RandomAccessFile(file, "r")) {
+            if (input.length() < TRAILER_BYTES) {
+                throw new IOException(file.getName() + " is truncated");
+            }
+
+            input.seek(input.length() - TRAILER_BYTES);
+            input.readLong();
+            long fileSequence = input.readLong();
+            long locked = input.readLong();
+            long entries = input.readLong();
+            int formatVersion = input.readInt();
+
+            if (formatVersion != FORMAT_VERSION) {
+                throw new IOException("Unknown owner index format " + formatVersion);
+            }
+
+            sequence = fileSequence;
+            fileLockedChests = locked;
+            fileAclEntries = entries;
+        }
+
+        return true;
+    }
+
+    /**
+     * Records the acl a chest has after a change, must be called while holding the stripe of the chest's region.
+     * @param oldAcl the chest's acl before the change, null if it wasn't locked.
+     * @param newAcl the chest's acl after the change, null if it isn't locked anymore.
+     */
+    void update(final long packedPos,
+                final int typeId,
+                @Nullable final ChestAcl oldAcl,
+                @Nullable final ChestAcl newAcl) {
+        if (oldAcl == newAcl) {
+            return;
+        }
+
+        lockedChests.add((newAcl == null ? 0 : 1) - (oldAcl == null ? 0 : 1));
+        aclEntries.add((newAcl == null ? 0 : newAcl.size()) - (oldAcl == null ? 0 : oldAcl.size()));
+        changes.put(packedPos, new Change(typeId, newAcl));
+    }
+
+    /**
+     * Records the acl a chest has now without knowing what it had before, used while replaying journal records
+     * the chest's region file already contains.
+     */
+    void refresh(final long packedPos, final int typeId, @Nullable final ChestAcl acl) {
+        changes.put(packedPos, new Change(typeId, acl));
+    }
+
+    /**
+     * Called once the journal was replayed. The totals of the file plus the changes counted while replaying
+     * would count the records both contain twice, so they are left out until the next merge counts them.
+     */
+    void replayed() {
+        lockedChests.reset();
+        aclEntries.reset();
+    }
+
+    /**
+     * Captures every change not in the file yet, must be called while holding every stripe so nothing changes
+     * meanwhile. Changes whose merge failed are captured again.
+     * @param capturedSequence the journal sequence number the captured changes contain every record up to.
+     * @return the merge to run on the {@link ChestLockSnapshotWriter} thread.
+     */
+    synchronized Runnable capture(final long capturedSequence) {
+        Changes capturedChanges = changes;
+        Map<Long, Change> captured = capturedChanges.unwritten;
+
+        if (!capturedChanges.current.isEmpty()) {
+            Map<Long, Change> merged = Maps.newHashMap(capturedChanges.unwritten);
+            merged.putAll(capturedChanges.current);
+            Map<Integer, Set<Long>> mergedByPlayer = Maps.newHashMap();
+            capturedChanges.unwrittenByPlayer.forEach((playerId, positions) ->
+                    mergedByPlayer.computeIfAbsent(playerId, key -> Sets.newHashSet()).addAll(positions));
+            capturedChanges.currentByPlayer.forEach((playerId, positions) ->
+                    mergedByPlayer.computeIfAbsent(playerId, key -> Sets.newHashSet()).addAll(positions));
+            captured = Collections.unmodifiableMap(merged);
+            changes = new Changes(captured, Collections.unmodifiableMap(mergedByPlayer));
+        }
+
+        long lockedChange = lockedChests.sumThenReset();
+        long entriesChange = aclEntries.sumThenReset();
+        Map<Long, Change> toMerge = captured;
+        return () -> merge(toMerge, capturedSequence, lockedChange, entriesChange);
+    }
+
+    /**
+     * @return the last journal sequence number contained in the file.
+     */
+    long getSequence() {
+        return sequence;
+    }
+
+    /**
+     * @return the number of chests with a root user, both halves of a double chest count.
+     */
+    long getLockedChests() {
+        return fileLockedChests + lockedChests.sum();
+    }
+
+    /**
+     * @return the number of players and groups on the acls of every locked chest block.
+     */
+    long getAclEntries() {
+        return fileAclEntries + aclEntries.sum();
+    }
+
+    /**
+     * @return the player's chests and the player's permission on each of them, read from the file.
+     */
+    Map<ChestBlock, ChestPermissions> chestsOf(final int playerId) {
+        // Read before the file, the file is only replaced before the changes it contains are dropped
+        Changes overlay = changes;
+        Map<ChestBlock, ChestPermissions> chestBlocks = Maps.newLinkedHashMap();
+
+        try {
+            readChests(players.uuidOf(playerId), overlay, chestBlocks);
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to read " + file.getName(), e);
+        }
+
+        // A chest the player was removed from isn't in the player's changes, but the file's entry was skipped
+        overlay.forEachPosition(playerId, packedPos -> {
+            Change change = overlay.get(packedPos);
+            ChestPermissions permission = change.acl == null ? null : change.acl.get(playerId);
+
+            if (permission != null) {
+                chestBlocks.put(new ChestBlock(ChestBlock.getTypeName(change.typeId), ChestPos.fromLong(packedPos)),
+                        permission);
+            }
+        });
+
+        return chestBlocks;
+    }
+
+    private void readChests(final UUID uuid,
+                            final Changes overlay,
+                            final Map<ChestBlock, ChestPermissions> chestBlocks) throws IOException {
+        if (!file.exists()) {
+            return;
+        }
+
+        try (RandomAccessFile input = new RandomAccessFile(file, "r")) {
+            long offset = findPlayer(input, uuid);
+
+            if (offset < 0) {
+                return;
+            }
+
+            input.seek(0);
+            String[] typeNames = readTypeNames(input);
+            input.seek(offset + Byte.BYTES + 2 * Long.BYTES);
+            input.readUTF();
+            byte[] entries = new byte[input.readInt() * ENTRY_BYTES];
+            input.readFully(entries);
+            DataInputStream entryInput = new DataInputStream(new ByteArrayInputStream(entries));
+
+            for (int index = 0; index < entries.length / ENTRY_BYTES; index++) {
+                long packedPos = entryInput.readLong();
+                String typeName = typeNames[entryInput.readUnsignedShort()];
+                ChestPermissions permission = PERMISSIONS[entryInput.readByte()];
+
+                if (overlay.get(packedPos) == null) {
+                    chestBlocks.put(new ChestBlock(typeName, ChestPos.fromLong(packedPos)), permission);
+                }
+            }
+        }
+    }
+
+    /**
+     * Binary searches the file's directory for the player.
+     * @return the offset of the player's part of the file, -1 if the player has no chests in it.
+     */
+    private static long findPlayer(final RandomAccessFile input, final UUID uuid) throws IOException {
+        input.seek(input.length() - TRAILER_BYTES);
+        long directoryOffset = input.readLong();
+        input.seek(directoryOffset);
+        int low = 0;
+        int high = input.readInt() - 1;
+
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            input.seek(directoryOffset + Integer.BYTES + (long) middle * DIRECTORY_ENTRY_BYTES);
+            int comparison = new UUID(input.readLong(), input.readLong()).compareTo(uuid);
+
+            if (comparison == 0) {
+                return input.readLong();
+            } else if (comparison < 0) {
+                low = middle + 1;
+            } else {
+                high = middle - 1;
+            }
+        }
+
+        return -1;
+    }
+
+    /**
+     * Writes a new file with the captured changes laid over the current one and moves it over the current one,
+     * so a crash mid write leaves the current file in place. Runs on the snapshot writer thread.
+     */
+    private void merge(final Map<Long, Change> captured,
+                       final long capturedSequence,
+                       final long lockedChange,
+                       final long entriesChange) {
+        if (captured.isEmpty()) {
+            // Nothing changed since the file was written, so it contains everything up to here
+            written(captured, Math.max(sequence, capturedSequence), fileLockedChests, fileAclEntries);
+            return;
+        }
+
+        File temporaryFile = new File(file.getPath() + ".tmp");
+
+        try (TimerMetric metric = TimerMetric.start(MERGE_OWNER_INDEX_TIMER)) {
+            Totals totals = new Totals();
+            Map<UUID, Long> directory = Maps.newTreeMap();
+
+            try (DataInputStream input = file.exists()
+                    ? new DataInputStream(new BufferedInputStream(new FileInputStream(file))) : null;
+                 DataOutputStream output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temporaryFile)))) {
+                List<String> typeNames = Lists.newArrayList(input == null ? new String[0] : readTypeNames(input));
+                Map<UUID, PlayerChests> changedChests = groupByPlayer(captured, typeNames);
+
+                output.writeInt(typeNames.size());
+                for (String typeName : typeNames) {
+                    output.writeUTF(typeName);
+                }
+
+                while (input != null && input.readByte() == PLAYER) {
+                    UUID uuid = new UUID(input.readLong(), input.readLong());
+                    PlayerChests changedPlayerChests = changedChests.remove(uuid);
+                    PlayerChests playerChests = new PlayerChests(uuid, changedPlayerChests == null
+                            ? input.readUTF() : skipName(input, changedPlayerChests.name));
+                    int chestCount = input.readInt();
+
+                    for (int index = 0; index < chestCount; index++) {
+                        long packedPos = input.readLong();
+                        int typeIndex = input.readUnsignedShort();
+                        byte permission = input.readByte();
+
+                        if (!captured.containsKey(packedPos)) {
+                            playerChests.add(packedPos, typeIndex, permission);
+                        }
+                    }
+
+                    playerChests.addAll(changedPlayerChests);
+                    playerChests.write(output, totals, directory);
+                }
+
+                for (PlayerChests playerChests : changedChests.values()) {
+                    playerChests.write(output, totals, directory);
+                }
+
+                output.writeByte(END);
+                long directoryOffset = output.size();
+                output.writeInt(directory.size());
+
+                for (Map.Entry<UUID, Long> entry : directory.entrySet()) {
+                    output.writeLong(entry.getKey().getMostSignificantBits());
+                    output.writeLong(entry.getKey().getLeastSignificantBits());
+                    output.writeLong(entry.getValue());
+                }
+
+                output.writeLong(directoryOffset);
+                output.writeLong(capturedSequence);
+                output.writeLong(totals.lockedChests);
+                output.writeLong(totals.aclEntries);
+                output.writeInt(FORMAT_VERSION);
+            }
+
+            OWNER_INDEX_BYTES.record(temporaryFile.length());
+            Files.move(temporaryFile.toPath(), file.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            written(captured, capturedSequence, totals.lockedChests, totals.aclEntries);
+        } catch (IOException e) {
+            log.error("Failed to write {}", file.getName(), e);
+            failed(captured, lockedChange, entriesChange);
+        }
+    }
+
+    /**
+     * The changes stay in memory and are merged again with the next capture, which counts them again too.
+     */
+    private synchronized void failed(final Map<Long, Change> captured, final long lockedChange, final long entriesChange) {
+        // A capture made while this one was written already took them along, its merge counts the file again
+        if (changes.unwritten == captured) {
+            lockedChests.add(lockedChange);
+            aclEntries.add(entriesChange);
+        }
+    }
+
+    private synchronized void written(final Map<Long, Change> captured,
+                                      final long writtenSequence,
+                                      final long locked,
+                                      final long entries) {
+        // A capture made while this one was written already took these changes along
+        if (changes.unwritten == captured) {
+            changes = new Changes(ImmutableMap.of(), ImmutableMap.of(), changes.current, changes.currentByPlayer);
+        }
+
+        fileLockedChests = locked;
+        fileAclEntries = entries;
+        sequence = Math.max(sequence, writtenSequence);
+    }
+
+    private Map<UUID, PlayerChests> groupByPlayer(final Map<Long, Change> captured, final List<String> typeNames) {
+        Map<UUID, PlayerChests> changedChests = Maps.newLinkedHashMap();
+
+        captured.forEach((packedPos, change) -> {
+            if (change.acl == null) {
+                return;
+            }
+
+            String typeName = ChestBlock.getTypeName(change.typeId);
+            int typeIndex = typeNames.indexOf(typeName);
+
+            if (typeIndex < 0) {
+                typeNames.add(typeName);
+                typeIndex = typeNames.size() - 1;
+            }
+
+            for (int index = 0; index < change.acl.size(); index++) {
+                int playerId = change.acl.playerIdAt(index);
+                UUID uuid = players.uuidOf(playerId);
+                changedChests.computeIfAbsent(uuid, key -> new PlayerChests(key, players.nameOf(playerId)))
+                        .add(packedPos, typeIndex, (byte) change.acl.permissionAt(index).ordinal());
+            }
+        });
+
+        return changedChests;
+    }
+
+    private static String[] readTypeNames(final DataInput input) throws IOException {
+        String[] typeNames = new String[input.readInt()];
+
+        for (int index = 0; index < typeNames.length; index++) {
+            typeNames[index] = input.readUTF();
+        }
+
+        return typeNames;
+    }
+
+    /**
+     * Skips the name a player was written with, the name of a player that changed is the newest one.
+     */
+    private static String skipName(final DataInputStream input, final String name) throws IOException {
+        input.readUTF();
+        return name;
+    }
+
+    /**
+     * A chest's acl after the last change to it, null if it isn't locked anymore.
+     */
+    private static final class Change {
+        private final int typeId;
+        @Nullable
+        private final ChestAcl acl;
+
+        private Change(final int typeId, @Nullable final ChestAcl acl) {
+            this.typeId = typeId;
+            this.acl = acl;
+        }
+    }
+
+    private static final class Changes {
+        // Captured but not in the file yet
+        private final Map<Long, Change> unwritten;
+        // Made since the last capture
+        private final Map<Long, Change> current;
+        // The positions of the changes above by every player on their acl, a position stays after the player
+        // is removed again so the change it maps to has the last word
+        private final Map<Integer, Set<Long>> unwrittenByPlayer;
+        private final Map<Integer, Set<Long>> currentByPlayer;
+
+        private Changes(final Map<Long, Change> unwritten, final Map<Integer, Set<Long>> unwrittenByPlayer) {
+            this(unwritten, unwrittenByPlayer, Maps.newConcurrentMap(), Maps.newConcurrentMap());
+        }
+
+        private Changes(final Map<Long, Change> unwritten,
+                        final Map<Integer, Set<Long>> unwrittenByPlayer,
+                        final Map<Long, Change> current,
+                        final Map<Integer, Set<Long>> currentByPlayer) {
+            this.unwritten = unwritten;
+            this.unwrittenByPlayer = unwrittenByPlayer;
+            this.current = current;
+            this.currentByPlayer = currentByPlayer;
+        }
+
+        private void put(final long packedPos, final Change change) {
+            current.put(packedPos, change);
+
+            if (change.acl != null) {
+                for (int index = 0; index < change.acl.size(); index++) {
+                    currentByPlayer.computeIfAbsent(change.acl.playerIdAt(index), key -> Sets.newConcurrentHashSet())
+                            .add(packedPos);
+                }
+            }
+        }
+
+        /**
+         * @return the last change to the chest, null if it wasn't changed since the file was written.
+         */
+        @Nullable
+        private Change get(final long packedPos) {
+            Change change = current.get(packedPos);
+            return change == null ? unwritten.get(packedPos) : change;
+        }
+
+        private void forEachPosition(final int playerId, final LongConsumer action) {
+            unwrittenByPlayer.getOrDefault(playerId, Collections.emptySet()).forEach(action::accept);
+            currentByPlayer.getOrDefault(playerId, Collections.emptySet()).forEach(action::accept);
+        }
+    }
+
+    private static final class Totals {
+        private long lockedChests;
+        private long aclEntries;
+    }
+
+    /**
+     * The chests of one player while a merge writes them.
+     */
+    private static final class PlayerChests {
+        private final UUID uuid;
+        private final String name;
+        private long[] positions;
+        private short[] types;
+        private byte[] permissions;
+        private int size;
+
+        private PlayerChests(final UUID uuid, final String name) {
+            this.uuid = uuid;
+            this.name = name;
+            this.positions = new long[8];
+            this.types = new short[8];
+            this.permissions = new byte[8];
+        }
+
+        private void add(final long packedPos, final int typeIndex, final byte permission) {
+            if (size == positions.length) {
+                positions = Arrays.copyOf(positions, size * 2);
+                types = Arrays.copyOf(types, size * 2);
+                permissions = Arrays.copyOf(permissions, size * 2);
+            }
+
+            positions[size] = packedPos;
+            types[size] = (short) typeIndex;
+            permissions[size] = permission;
+            size++;
+        }
+
+        private void addAll(@Nullable final PlayerChests other) {
+            if (other == null) {
+                return;
+            }
+
+            for (int index = 0; index < other.size; index++) {
+                add(other.positions[index], other.types[index], other.permissions[index]);
+            }
+        }
+
+        private void write(final DataOutputStream output,
+                           final Totals totals,
+                           final Map<UUID, Long> directory) throws IOException {
+            if (size == 0) {
+                return;
+            }
+
+            directory.put(uuid, (long) output.size());
+            output.writeByte(PLAYER);
+            output.writeLong(uuid.getMostSignificantBits());
+            output.writeLong(uuid.getLeastSignificantBits());
+            output.writeUTF(name);
+            output.writeInt(size);
+
+            for (int index = 0; index < size; index++) {
+                output.writeLong(positions[index]);
+                output.writeShort(types[index]);
+                output.writeByte(permissions[index]);
+
+                if (permissions[index] == ChestPermissions.ROOT.ordinal()) {
+                    totals.lockedChests++;
+                }
+            }
+
+            totals.aclEntries += size;
+        }
+    }
+}
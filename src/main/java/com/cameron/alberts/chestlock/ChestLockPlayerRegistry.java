@@ -0,0 +1,114 @@
+package com.cameron.alberts.chestlock;
+
+import com.google.common.collect.Maps;
+import lombok.Value;
+
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Function;
+
+/**
+ * Gives every player a small int id tied to their {@link UUID}, the lock tables and {@link ChestAcl}s store
+ * these ids instead of user names. Ids are handed out in the order players are first seen and are stable for
+ * as long as the server runs. Region files and the journal store the UUID and last known name of each player
+ * instead of the id, so ids never have to be kept in sync with anything on disk.
+ *
+ * Names are looked up case insensitively, like Minecraft does. When a player renames the id stays the same
+ * and only the name it resolves to changes.
+ */
+final class ChestLockPlayerRegistry {
+    static final int NO_PLAYER = -1;
+
+    // Index is the player id
+    private final List<Player> players;
+    private final Map<UUID, Integer> idsByUuid;
+    private final Map<String, Integer> idsByName;
+    // Finds the UUID of a player that has only ever been saved by name
+    private final Function<String, UUID> nameResolver;
+
+    ChestLockPlayerRegistry(final Function<String, UUID> nameResolver) {
+        this.players = new CopyOnWriteArrayList<>();
+        this.idsByUuid = Maps.newConcurrentMap();
+        this.idsByName = Maps.newConcurrentMap();
+        this.nameResolver = nameResolver;
+    }
+
+    /**
+     * @return the id of the player, assigning one if this UUID hasn't been seen before. The player's name
+     * is only recorded if the UUID is new, use {@link #playerSeen(UUID, String)} for an up to date name.
+     */
+    int idOf(final UUID uuid, final String name) {
+        Integer playerId = idsByUuid.get(uuid);
+        return playerId != null ? playerId : assign(uuid, name, false);
+    }
+
+    /**
+     * Same as {@link #idOf(UUID, String)} but {@code name} is known to be the player's current name, as it is
+     * when the player is online, so it replaces any older name.
+     */
+    int playerSeen(final UUID uuid, final String name) {
+        Integer playerId = idsByUuid.get(uuid);
+
+        if (playerId != null && players.get(playerId).getName().equals(name)) {
+            return playerId;
+        }
+
+        return assign(uuid, name, true);
+    }
+
+    /**
+     * @return the id of the player currently known by this name, or {@link #NO_PLAYER}.
+     */
+    int idOfName(final String name) {
+        Integer playerId = idsByName.get(name.toLowerCase(Locale.ROOT));
+        return playerId == null ? NO_PLAYER : playerId;
+    }
+
+    /**
+     * @return the id of the player with this name, resolving the name to a UUID if no player with it has
+     * been seen yet. Used for saves from before UUIDs were stored and for commands naming offline players.
+     */
+    int resolve(final String name) {
+        int playerId = idOfName(name);
+        return playerId != NO_PLAYER ? playerId : idOf(nameResolver.apply(name), name);
+    }
+
+    UUID uuidOf(final int playerId) {
+        return players.get(playerId).getUuid();
+    }
+
+    String nameOf(final int playerId) {
+        return players.get(playerId).getName();
+    }
+
+    int size() {
+        return players.size();
+    }
+
+    private synchronized int assign(final UUID uuid, final String name, final boolean replaceName) {
+        Integer playerId = idsByUuid.get(uuid);
+
+        if (playerId == null) {
+            playerId = players.size();
+            players.add(new Player(uuid, name));
+            idsByUuid.put(uuid, playerId);
+        } else if (replaceName && !players.get(playerId).getName().equals(name)) {
+            idsByName.remove(players.get(playerId).getName().toLowerCase(Locale.ROOT), playerId);
+            players.set(playerId, new Player(uuid, name));
+        } else {
+            return playerId;
+        }
+
+        idsByName.put(name.toLowerCase(Locale.ROOT), playerId);
+        return playerId;
+    }
+
+    @Value
+    private static class Player {
+        private final UUID uuid;
+        private final String name;
+    }
+}
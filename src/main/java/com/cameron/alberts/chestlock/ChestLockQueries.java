@@ -0,0 +1,178 @@
+package com.cameron.alberts.chestlock;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import lombok.extern.log4j.Log4j2;
+import net.minecraft.command.ICommandSender;
+import net.minecraft.server.MinecraftServer;
+import net.minecraft.util.text.TextComponentString;
+import net.minecraft.util.text.TextFormatting;
+
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+
+/**
+ * Answers the read only /chest commands on a worker thread, so listing a player with thousands of chests never
+ * costs tick time, nor does reading them from the owner index file. Lookups don't lock, the owner index hands
+ * out copies and acls are immutable, so each chest is seen as it was at one point in time. Only the requested
+ * page is sent, on the server thread.
+ */
+@Log4j2
+public final class ChestLockQueries {
+    static final int PAGE_SIZE = 10;
+
+    private final ExecutorService executor;
+
+    public ChestLockQueries() {
+        this.executor = Executors.newSingleThreadExecutor(new ThreadFactoryBuilder()
+                .setNameFormat("ChestLock Query")
+                .setDaemon(true)
+                .build());
+    }
+
+    /**
+     * Sends a page of the player's chests and their permission on each.
+     * @param page the page to send, starting at 1.
+     */
+    public void list(final MinecraftServer server,
+                     final ICommandSender sender,
+                     final ChestLockManager manager,
+                     final int playerId,
+                     final int page) {
+        query(server, sender, () -> {
+            List<String> entries = manager.getChests(playerId).entrySet().stream()
+                    .sorted(Comparator.comparing((Map.Entry<ChestBlock, ChestPermissions> entry) -> entry.getValue())
+                            .thenComparingInt(entry -> entry.getKey().getChestPos().getChestPosX())
+                            .thenComparingInt(entry -> entry.getKey().getChestPos().getChestPosZ())
+                            .thenComparingInt(entry -> entry.getKey().getChestPos().getChestPosY()))
+                    .map(entry -> format(entry.getKey()) + " " + entry.getValue())
+                    .collect(Collectors.toList());
+            return page("Chests of " + manager.getPlayerName(playerId), entries, page);
+        });
+    }
+
+    /**
+     * Sends a page of the players with a permission on the chest and their permission. The chest's acl is read
+     * on the calling server thread, where loading its region is allowed, only the page is built on the worker.
+     * @param page the page to send, starting at 1.
+     */
+    public void who(final MinecraftServer server,
+                    final ICommandSender sender,
+                    final ChestLockManager manager,
+                    final ChestBlock chestBlock,
+                    final int page) {
+        String owner = manager.getOwnerName(chestBlock);
+        Map<String, ChestPermissions> access = manager.getAccess(chestBlock);
+
+        query(server, sender, () -> {
+            if (owner == null) {
+                return ImmutableList.of(TextFormatting.YELLOW + "That chest is not registered to anyone!");
+            }
+
+            List<String> entries = access.entrySet().stream()
+                    .map(entry -> entry.getKey() + " " + entry.getValue())
+                    .collect(Collectors.toList());
+            return page("Access to " + format(chestBlock) + " registered to " + owner, entries, page);
+        });
+    }
+
+    /**
+     * Sends how many chests the player has each permission on.
+     */
+    public void info(final MinecraftServer server,
+                     final ICommandSender sender,
+                     final ChestLockManager manager,
+                     final int playerId) {
+        query(server, sender, () -> {
+            Map<ChestPermissions, Integer> counts = new EnumMap<>(ChestPermissions.class);
+            manager.getChests(playerId).values().forEach(permission -> counts.merge(permission, 1, Integer::sum));
+
+            List<String> lines = Lists.newArrayList(TextFormatting.GOLD + manager.getPlayerName(playerId) + " has "
+                    + counts.values().stream().mapToInt(Integer::intValue).sum() + " chests in this dimension");
+            counts.forEach((permission, count) -> lines.add(permission + ": " + count));
+            return lines;
+        });
+    }
+
+    /**
+     * Reads the player's chests with a permission the filter accepts and hands them to {@code consumer} on the
+     * server thread, so bulk jobs over them don't read the owner index file on it.
+     */
+    public void chestsWith(final MinecraftServer server,
+                           final ICommandSender sender,
+                           final ChestLockManager manager,
+                           final int playerId,
+                           final Predicate<ChestPermissions> permissionFilter,
+                           final Consumer<List<ChestBlock>> consumer) {
+        executor.execute(() -> {
+            List<ChestBlock> chestBlocks;
+
+            try {
+                chestBlocks = manager.getChests(playerId).entrySet().stream()
+                        .filter(entry -> permissionFilter.test(entry.getValue()))
+                        .map(Map.Entry::getKey)
+                        .collect(Collectors.toList());
+            } catch (RuntimeException e) {
+                log.error("Failed to read the chests of {} for {}", manager.getPlayerName(playerId), sender.getName(), e);
+                server.addScheduledTask(() -> sender.sendMessage(
+                        new TextComponentString(TextFormatting.RED + "The query failed!")));
+                return;
+            }
+
+            server.addScheduledTask(() -> consumer.accept(chestBlocks));
+        });
+    }
+
+    public void close() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * @param page the page to return, starting at 1, clamped to the pages there are.
+     * @return a header line followed by up to {@value #PAGE_SIZE} of the entries.
+     */
+    static List<String> page(final String title, final List<String> entries, final int page) {
+        int pages = Math.max(1, (entries.size() + PAGE_SIZE - 1) / PAGE_SIZE);
+        int currentPage = Math.min(Math.max(1, page), pages);
+        List<String> lines = Lists.newArrayList(TextFormatting.GOLD + title + " (page " + currentPage + " of " + pages + ")");
+
+        if (entries.isEmpty()) {
+            lines.add(TextFormatting.YELLOW + "None");
+        } else {
+            lines.addAll(entries.subList((currentPage - 1) * PAGE_SIZE, Math.min(entries.size(), currentPage * PAGE_SIZE)));
+        }
+
+        return lines;
+    }
+
+    private void query(final MinecraftServer server, final ICommandSender sender, final Supplier<List<String>> query) {
+        executor.execute(() -> {
+            List<String> lines;
+
+            try {
+                lines = query.get();
+            } catch (RuntimeException e) {
+                log.error("Failed to answer a query of {}", sender.getName(), e);
+                lines = ImmutableList.of(TextFormatting.RED + "The query failed!");
+            }
+
+            List<String> result = lines;
+            server.addScheduledTask(() -> result.forEach(line -> sender.sendMessage(new TextComponentString(line))));
+        });
+    }
+
+    private static String format(final ChestBlock chestBlock) {
+        ChestPos chestPos = chestBlock.getChestPos();
+        return chestBlock.getUnlocalizedName() + " at " + chestPos.getChestPosX() + ", " + chestPos.getChestPosY()
+                + ", " + chestPos.getChestPosZ();
+    }
+}
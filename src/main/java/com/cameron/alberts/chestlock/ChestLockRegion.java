@@ -0,0 +1,283 @@
+package com.cameron.alberts.chestlock;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import lombok.Getter;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The locks of one region of {@value #REGION_CHUNKS}x{@value #REGION_CHUNKS} chunks. Each region is saved
+ * to its own file, loaded when the first chunk inside it loads and evicted once all of its chunks unload,
+ * so only the locks around players are kept in memory.
+ *
+ * Each region also keeps a bitmask per chunk of the 16 block tall chunk sections that hold a locked chest, so
+ * explosions and other area checks can rule out whole sections without touching the table or the world.
+ * Lookups by position go through a {@link ChestLockFilter} first, so unlocked chests never probe the table.
+ * Locks are never removed from a region, locked chests can't be broken, so bits are only ever set.
+ */
+final class ChestLockRegion {
+    static final int REGION_CHUNKS = 32;
+    private static final int REGION_CHUNK_BITS = 5;
+    private static final int REGION_BLOCK_BITS = REGION_CHUNK_BITS + 4;
+    private static final int CHUNK_BLOCK_BITS = 4;
+    private static final int SECTION_BITS = 4;
+    private static final int MAX_SECTION = 15;
+
+    @Getter
+    private final long key;
+    @Getter
+    private final ChestLockTable table;
+    // Bit n is set if section n of the chunk has a locked chest, indexed by the chunk's position in the region
+    private final char[] sectionMasks;
+    // Replaced with a bigger filter once full, lookups on other threads always see a whole filter
+    private volatile ChestLockFilter filter;
+
+    // The last journal sequence number contained in this region's file
+    @Getter
+    private long sequence;
+    @Getter
+    private boolean dirty;
+    // Set once the region is evicted, anything still holding on to it has to look the region up again
+    @Getter
+    private volatile boolean evicted;
+    private int loadedChunks;
+
+    ChestLockRegion(final long key, final long sequence) {
+        this.key = key;
+        this.table = new ChestLockTable();
+        this.sectionMasks = new char[REGION_CHUNKS * REGION_CHUNKS];
+        this.filter = ChestLockFilter.empty();
+        this.sequence = sequence;
+    }
+
+    static long keyOf(final ChestPos chestPos) {
+        return keyOf(chestPos.getChestPosX(), chestPos.getChestPosZ());
+    }
+
+    static long keyOf(final int blockX, final int blockZ) {
+        return key(blockX >> REGION_BLOCK_BITS, blockZ >> REGION_BLOCK_BITS);
+    }
+
+    static long keyOfChunk(final int chunkX, final int chunkZ) {
+        return key(chunkX >> REGION_CHUNK_BITS, chunkZ >> REGION_CHUNK_BITS);
+    }
+
+    static int regionX(final long key) {
+        return (int) (key >> 32);
+    }
+
+    static int regionZ(final long key) {
+        return (int) key;
+    }
+
+    static ChestLockRegion fromSnapshot(final long key, final ChestLockSnapshot snapshot) {
+        ChestLockRegion region = new ChestLockRegion(key, snapshot.getSequence());
+        List<ChestAcl> acls = snapshot.getAcls();
+
+        ChestBlock[] chestBlocks = snapshot.getChestBlocks();
+        for (int index = 0; index < chestBlocks.length; index++) {
+            region.put(chestBlocks[index], acls.get(snapshot.getAclIndexes()[index]), snapshot.getOwners()[index]);
+        }
+
+        return region;
+    }
+
+    boolean contains(final long packedPos, final int typeId) {
+        return getAcl(packedPos, typeId) != null;
+    }
+
+    boolean contains(final ChestBlock chestBlock) {
+        return contains(chestBlock.getChestPos().toLong(), chestBlock.getTypeId());
+    }
+
+    /**
+     * @return true if any chest is locked at the position, checking the section mask before the table.
+     */
+    boolean isLocked(final int blockX, final int blockY, final int blockZ) {
+        if ((sectionMasks[chunkIndex(blockX >> CHUNK_BLOCK_BITS, blockZ >> CHUNK_BLOCK_BITS)] & sectionBit(blockY)) == 0) {
+            return false;
+        }
+
+        long packedPos = ChestPos.pack(blockX, blockY, blockZ);
+
+        if (!filter.mightContain(packedPos)) {
+            return false;
+        }
+
+        if (!table.containsPosition(packedPos)) {
+            ChestLockFilter.recordFalsePositive();
+            return false;
+        }
+
+        return true;
+    }
+
+    /**
+     * @return true if any section of the chunk from {@code minSection} to {@code maxSection} inclusive has a
+     * locked chest, {@code minSection} can't be above {@code maxSection}. The chunk has to be inside this region.
+     */
+    boolean hasLocksInSections(final int chunkX, final int chunkZ, final int minSection, final int maxSection) {
+        // Clamped the same way as sectionBit so positions outside the build height are still found
+        int lowSection = clampSection(minSection);
+        int highSection = clampSection(maxSection);
+        int sectionRange = ((2 << highSection) - 1) & ~((1 << lowSection) - 1);
+        return (sectionMasks[chunkIndex(chunkX, chunkZ)] & sectionRange) != 0;
+    }
+
+    /**
+     * @return the acl of the chest, or null if it isn't locked.
+     */
+    ChestAcl getAcl(final long packedPos, final int typeId) {
+        if (!filter.mightContain(packedPos)) {
+            return null;
+        }
+
+        ChestAcl acl = table.getAcl(packedPos, typeId);
+
+        // Also counts a lock of another type at the position, a position only holds one block so that is rare
+        if (acl == null) {
+            ChestLockFilter.recordFalsePositive();
+        }
+
+        return acl;
+    }
+
+    ChestAcl getAcl(final ChestBlock chestBlock) {
+        return getAcl(chestBlock.getChestPos().toLong(), chestBlock.getTypeId());
+    }
+
+    int getOwner(final ChestBlock chestBlock) {
+        return table.getOwner(chestBlock.getChestPos().toLong(), chestBlock.getTypeId());
+    }
+
+    /**
+     * Puts a chest into this region as it was loaded, without marking the region dirty.
+     */
+    void put(final ChestBlock chestBlock, final ChestAcl acl, final int owner) {
+        put(chestBlock.getChestPos().toLong(), chestBlock.getTypeId(), acl, owner);
+    }
+
+    void put(final long packedPos, final int typeId, final ChestAcl acl, final int owner) {
+        table.put(packedPos, typeId, acl, owner);
+
+        if (filter.isFull(table.size())) {
+            filter = ChestLockFilter.of(table);
+        } else {
+            filter.add(packedPos);
+        }
+
+        sectionMasks[chunkIndex(ChestPos.unpackX(packedPos) >> CHUNK_BLOCK_BITS, ChestPos.unpackZ(packedPos) >> CHUNK_BLOCK_BITS)]
+                |= sectionBit(ChestPos.unpackY(packedPos));
+    }
+
+    void register(final int playerId, final ChestBlock chestBlock) {
+        ChestAcl acl = getAcl(chestBlock);
+        put(chestBlock, acl == null ? ChestAcl.root(playerId) : acl.with(playerId, ChestPermissions.ROOT), playerId);
+        dirty = true;
+    }
+
+    void link(final ChestBlock chestBlock, final ChestAcl acl, final int rootPlayerId) {
+        put(chestBlock, acl, rootPlayerId);
+        dirty = true;
+    }
+
+    /**
+     * Points a locked chest at a different acl, the owner stays the same.
+     * @param expectedAcl the acl {@code acl} was built from.
+     * @return false if the chest's acl isn't {@code expectedAcl} anymore, the caller builds the change again.
+     */
+    boolean replaceAcl(final ChestBlock chestBlock, final ChestAcl expectedAcl, final ChestAcl acl) {
+        if (!table.replaceAcl(chestBlock.getChestPos().toLong(), chestBlock.getTypeId(), expectedAcl, acl)) {
+            return false;
+        }
+
+        dirty = true;
+        return true;
+    }
+
+    int size() {
+        return table.size();
+    }
+
+    void markDirty() {
+        dirty = true;
+    }
+
+    void chunkLoaded() {
+        loadedChunks++;
+    }
+
+    /**
+     * @return the number of chunks still loaded in this region.
+     */
+    int chunkUnloaded() {
+        // Chunks loaded before the manager started tracking them are never counted, don't go negative
+        loadedChunks = Math.max(0, loadedChunks - 1);
+        return loadedChunks;
+    }
+
+    int getLoadedChunks() {
+        return loadedChunks;
+    }
+
+    void markEvicted() {
+        evicted = true;
+    }
+
+    /**
+     * Copies this region into a {@link ChestLockSnapshot} and marks it clean. Acls are only copied by reference
+     * and every chest with the same acl shares one acl index.
+     * @param snapshotSequence the last journal sequence number contained in the snapshot.
+     */
+    ChestLockSnapshot capture(final long snapshotSequence) {
+        int size = table.size();
+        ChestBlock[] chestBlocks = new ChestBlock[size];
+        int[] aclIndexes = new int[size];
+        int[] owners = new int[size];
+        Map<ChestAcl, Integer> aclIndexByAcl = Maps.newIdentityHashMap();
+        List<ChestAcl> acls = Lists.newArrayList();
+
+        int index = 0;
+        for (int slot = table.nextSlot(0); slot != ChestLockTable.NOT_FOUND; slot = table.nextSlot(slot + 1)) {
+            ChestAcl acl = table.aclAt(slot);
+            Integer aclIndex = aclIndexByAcl.get(acl);
+
+            if (aclIndex == null) {
+                aclIndex = acls.size();
+                aclIndexByAcl.put(acl, aclIndex);
+                acls.add(acl);
+            }
+
+            chestBlocks[index] = new ChestBlock(ChestBlock.getTypeName(table.typeAt(slot)), ChestPos.fromLong(table.keyAt(slot)));
+            aclIndexes[index] = aclIndex;
+            owners[index] = table.ownerAt(slot);
+            index++;
+        }
+
+        sequence = snapshotSequence;
+        dirty = false;
+        return new ChestLockSnapshot(chestBlocks, aclIndexes, acls, owners, snapshotSequence);
+    }
+
+    private static int chunkIndex(final int chunkX, final int chunkZ) {
+        return (chunkX & (REGION_CHUNKS - 1)) << REGION_CHUNK_BITS | (chunkZ & (REGION_CHUNKS - 1));
+    }
+
+    /**
+     * Positions outside the 0 to 255 build height share the bit of the nearest section, a false positive only
+     * costs a table lookup.
+     */
+    private static char sectionBit(final int blockY) {
+        return (char) (1 << clampSection(blockY >> SECTION_BITS));
+    }
+
+    private static int clampSection(final int section) {
+        return Math.max(0, Math.min(MAX_SECTION, section));
+    }
+
+    static long key(final int regionX, final int regionZ) {
+        return (long) regionX << 32 | (regionZ & 0xFFFFFFFFL);
+    }
+}
@@ -0,0 +1,22 @@
+package com.cameron.alberts.chestlock;
+
+import lombok.Value;
+
+import java.util.List;
+
+/**
+ * A point in time copy of the {@link ChestLockManager} tables, captured on the server thread and
+ * encoded by {@link ChestLockCodec} on the {@link ChestLockSnapshotWriter} thread. The only thing a
+ * snapshot shares with the live tables are the {@link ChestAcl}s, which are immutable.
+ */
+@Value
+class ChestLockSnapshot {
+    private final ChestBlock[] chestBlocks;
+    // Index into acls for each chest block, chests with the same acl share one index
+    private final int[] aclIndexes;
+    private final List<ChestAcl> acls;
+    // Player id of the owner of each chest block, see ChestLockPlayerRegistry
+    private final int[] owners;
+    // The last journal sequence number contained in this snapshot
+    private final long sequence;
+}
@@ -0,0 +1,265 @@
+package com.cameron.alberts.chestlock;
+
+import com.cameron.alberts.metrics.BytesMetric;
+import com.cameron.alberts.metrics.MetricSampler;
+import com.cameron.alberts.metrics.TimerMetric;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import lombok.extern.log4j.Log4j2;
+import net.minecraft.nbt.CompressedStreamTools;
+import net.minecraft.nbt.NBTTagCompound;
+
+import javax.annotation.Nullable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Encodes region {@link ChestLockSnapshot}s and writes them to one file per region on a dedicated writer
+ * thread so world saves don't stall the server thread. Snapshots submitted before the writer gets to them
+ * are merged, so only the newest snapshot of each region is written. Files are written to a temporary file
+ * first and then moved over the old one, so a crash mid write leaves the previous file in place.
+ */
+@Log4j2
+final class ChestLockSnapshotWriter {
+    static final long NO_SEQUENCE = -1;
+    private static final long SHUTDOWN_TIMEOUT_SECONDS = 60;
+    private static final String REGION_FILE_FORMAT = "r.%d.%d.dat";
+    private static final Pattern REGION_FILE_PATTERN = Pattern.compile("r\\.(-?\\d+)\\.(-?\\d+)\\.dat");
+    private static final BytesMetric REGION_FILE_BYTES = BytesMetric.create("regionFileBytes");
+    private static final MetricSampler WRITE_SNAPSHOT_TIMER = MetricSampler.of("writeSnapshot");
+
+    private final File directory;
+    private final ChestLockPlayerRegistry players;
+    private final ExecutorService executor;
+    // Snapshots that were submitted but aren't on disk yet, read instead of the file so a region that is
+    // evicted and loaded again before its snapshot is written still sees its newest locks
+    private final Map<Long, ChestLockSnapshot> unwrittenSnapshots;
+    // Snapshots whose write failed, retried with the next write
+    private final Map<Long, ChestLockSnapshot> failedSnapshots;
+    private final Object pendingLock;
+
+    private Map<Long, ChestLockSnapshot> pendingSnapshots;
+    private long pendingCompleteSequence;
+    private boolean drainQueued;
+
+    private volatile boolean synchronous;
+    private volatile long durableSequence;
+
+    ChestLockSnapshotWriter(final File directory, final ChestLockPlayerRegistry players, final long durableSequence) {
+        this.directory = directory;
+        this.players = players;
+        this.executor = Executors.newSingleThreadExecutor(new ThreadFactoryBuilder()
+                .setNameFormat("ChestLock Snapshot Writer")
+                .setDaemon(true)
+                .build());
+        this.unwrittenSnapshots = Maps.newConcurrentMap();
+        this.failedSnapshots = Maps.newHashMap();
+        this.pendingLock = new Object();
+        this.pendingSnapshots = Maps.newHashMap();
+        this.pendingCompleteSequence = NO_SEQUENCE;
+        this.durableSequence = durableSequence;
+    }
+
+    /**
+     * @return the newest snapshot of the region, or null if the region has never been written.
+     */
+    @Nullable
+    ChestLockSnapshot read(final long regionKey) throws IOException {
+        ChestLockSnapshot unwrittenSnapshot = unwrittenSnapshots.get(regionKey);
+        if (unwrittenSnapshot != null) {
+            return unwrittenSnapshot;
+        }
+
+        File regionFile = regionFile(regionKey);
+        if (!regionFile.exists()) {
+            return null;
+        }
+
+        try (InputStream input = new FileInputStream(regionFile)) {
+            return ChestLockCodec.read(CompressedStreamTools.readCompressed(input), players);
+        }
+    }
+
+    /**
+     * @return true if any region has been written to this directory.
+     */
+    boolean hasRegionFiles() {
+        String[] fileNames = directory.list();
+        return fileNames != null && fileNames.length > 0;
+    }
+
+    /**
+     * Queues the region snapshots to be written by the writer thread, or writes them on the calling thread
+     * once {@link #setSynchronous()} has been called.
+     * @param regionSnapshots snapshots to write keyed by region key.
+     * @param completeSequence if the snapshots contain every region changed up to this journal sequence number,
+     * it becomes the {@link #getDurableSequence()} once they are written. Otherwise {@link #NO_SEQUENCE}.
+     */
+    void write(final Map<Long, ChestLockSnapshot> regionSnapshots, final long completeSequence) {
+        unwrittenSnapshots.putAll(regionSnapshots);
+
+        if (synchronous) {
+            writeNow(regionSnapshots, completeSequence);
+            return;
+        }
+
+        synchronized (pendingLock) {
+            pendingSnapshots.putAll(regionSnapshots);
+            pendingCompleteSequence = Math.max(pendingCompleteSequence, completeSequence);
+
+            if (!drainQueued) {
+                drainQueued = true;
+                executor.execute(this::drainPending);
+            }
+        }
+    }
+
+    /**
+     * Runs a task on the writer thread after every write queued before it, or on the calling thread once
+     * {@link #setSynchronous()} has been called.
+     */
+    void execute(final Runnable task) {
+        if (!synchronous) {
+            try {
+                executor.execute(task);
+                return;
+            } catch (RejectedExecutionException e) {
+                // The writer shut down meanwhile, the task runs here like every write after that
+            }
+        }
+
+        task.run();
+    }
+
+    /**
+     * @return the newest journal sequence number for which every changed region is known to be on disk.
+     */
+    long getDurableSequence() {
+        return durableSequence;
+    }
+
+    /**
+     * Waits for any queued snapshots to be written, every write after this happens on the calling thread.
+     * Used when the server is stopping so the final save is on disk before the server exits.
+     */
+    void setSynchronous() {
+        synchronous = true;
+        executor.shutdown();
+
+        try {
+            if (!executor.awaitTermination(SHUTDOWN_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+                log.error("Timed out waiting for the snapshot writer to finish");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        // Snapshots queued right before the executor shut down may not have been picked up
+        drainPending();
+    }
+
+    /**
+     * Encodes and writes the region snapshots on the calling thread.
+     */
+    synchronized void writeNow(final Map<Long, ChestLockSnapshot> regionSnapshots, final long completeSequence) {
+        try (TimerMetric metric = TimerMetric.start(WRITE_SNAPSHOT_TIMER)) {
+            Map<Long, ChestLockSnapshot> snapshotsToWrite = Maps.newHashMap(failedSnapshots);
+            snapshotsToWrite.putAll(regionSnapshots);
+            failedSnapshots.clear();
+
+            for (Map.Entry<Long, ChestLockSnapshot> entry : snapshotsToWrite.entrySet()) {
+                try {
+                    writeRegion(entry.getKey(), entry.getValue());
+                    unwrittenSnapshots.remove(entry.getKey(), entry.getValue());
+                } catch (IOException e) {
+                    // The journal is only trimmed up to the durable sequence, so nothing is lost until a retry succeeds
+                    log.error("Failed to write chest lock region {}", regionFile(entry.getKey()).getName(), e);
+                    failedSnapshots.put(entry.getKey(), entry.getValue());
+                }
+            }
+
+            if (failedSnapshots.isEmpty() && completeSequence > durableSequence) {
+                durableSequence = completeSequence;
+            }
+        }
+    }
+
+    private void drainPending() {
+        Map<Long, ChestLockSnapshot> snapshotsToWrite;
+        long completeSequence;
+
+        synchronized (pendingLock) {
+            snapshotsToWrite = pendingSnapshots;
+            completeSequence = pendingCompleteSequence;
+            pendingSnapshots = Maps.newHashMap();
+            pendingCompleteSequence = NO_SEQUENCE;
+            drainQueued = false;
+        }
+
+        if (!snapshotsToWrite.isEmpty() || completeSequence != NO_SEQUENCE) {
+            writeNow(snapshotsToWrite, completeSequence);
+        }
+    }
+
+    private void writeRegion(final long regionKey, final ChestLockSnapshot snapshot) throws IOException {
+        File regionFile = regionFile(regionKey);
+        File temporaryFile = new File(regionFile.getPath() + ".tmp");
+        NBTTagCompound compound = new NBTTagCompound();
+        ChestLockCodec.write(compound, snapshot, players);
+
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Couldn't create " + directory);
+        }
+
+        try (OutputStream output = new FileOutputStream(temporaryFile)) {
+            CompressedStreamTools.writeCompressed(compound, output);
+        }
+
+        REGION_FILE_BYTES.record(temporaryFile.length());
+
+        Files.move(temporaryFile.toPath(), regionFile.toPath(),
+                StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * @return the key of every region that has been written to a file.
+     */
+    List<Long> listRegionKeys() {
+        String[] fileNames = directory.list();
+        List<Long> regionKeys = Lists.newArrayList();
+
+        if (fileNames == null) {
+            return regionKeys;
+        }
+
+        for (String fileName : fileNames) {
+            Matcher matcher = REGION_FILE_PATTERN.matcher(fileName);
+
+            if (matcher.matches()) {
+                regionKeys.add(ChestLockRegion.key(Integer.parseInt(matcher.group(1)), Integer.parseInt(matcher.group(2))));
+            }
+        }
+
+        return regionKeys;
+    }
+
+    private File regionFile(final long regionKey) {
+        return new File(directory, String.format(REGION_FILE_FORMAT,
+                ChestLockRegion.regionX(regionKey), ChestLockRegion.regionZ(regionKey)));
+    }
+}
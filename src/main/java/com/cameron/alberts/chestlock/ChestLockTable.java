@@ -0,0 +1,280 @@
+package com.cameron.alberts.chestlock;
+
+import java.util.Arrays;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * Open addressing hash table of locked chests keyed by {@link ChestPos#toLong()}, so looking up a chest only
+ * hashes a long and allocates nothing. Each slot also holds the block type id of the locked chest, see
+ * {@link ChestBlock#getTypeId(String)}, its {@link ChestAcl} and the player id of its owner. A position only ever holds one block,
+ * so the type id isn't part of the key, a lookup only matches if the type id stored in the slot matches too.
+ *
+ * Collisions are resolved by linear probing. Locks are never removed, so neither are entries and probing needs
+ * no tombstones. Changes must be made while holding the lock stripe of the table's region. The slot arrays are swapped as
+ * a whole when the table grows, a lookup on another thread always probes one consistent set of arrays.
+ *
+ * Acls are immutable, changing a chest's permissions swaps in a new acl. Every change bumps the table's version
+ * stamp, lookups read without locking or allocating and only retry, under the read lock, if a change happened
+ * while they were reading. {@link #replaceAcl(long, int, ChestAcl, ChestAcl)} only swaps if the chest still has
+ * the acl the new one was built from, so a change is never built on top of an acl that was already replaced.
+ */
+final class ChestLockTable {
+    // Packed positions never have the top bit set, so a negative key can't be a chest
+    static final long NO_KEY = -1;
+    static final int NOT_FOUND = -1;
+    private static final int MIN_CAPACITY = 16;
+    // 2^64 divided by the golden ratio, spreads packed positions that only differ in their low bits
+    private static final long HASH_MULTIPLIER = 0x9E3779B97F4A7C15L;
+
+    private final StampedLock version;
+    private volatile Slots slots;
+    private int size;
+
+    ChestLockTable() {
+        this.version = new StampedLock();
+        this.slots = new Slots(MIN_CAPACITY);
+    }
+
+    int size() {
+        return size;
+    }
+
+    boolean contains(final long packedPos, final int typeId) {
+        return getAcl(packedPos, typeId) != null;
+    }
+
+    /**
+     * @return true if any chest is locked at the position, whatever its type.
+     */
+    boolean containsPosition(final long packedPos) {
+        long stamp = version.tryOptimisticRead();
+        boolean found = slots.find(packedPos) != NOT_FOUND;
+
+        if (!version.validate(stamp)) {
+            stamp = version.readLock();
+            try {
+                found = slots.find(packedPos) != NOT_FOUND;
+            } finally {
+                version.unlockRead(stamp);
+            }
+        }
+
+        return found;
+    }
+
+    /**
+     * @return the acl of the chest, or null if it isn't locked.
+     */
+    ChestAcl getAcl(final long packedPos, final int typeId) {
+        long stamp = version.tryOptimisticRead();
+        ChestAcl acl = findAcl(packedPos, typeId);
+
+        if (!version.validate(stamp)) {
+            stamp = version.readLock();
+            try {
+                acl = findAcl(packedPos, typeId);
+            } finally {
+                version.unlockRead(stamp);
+            }
+        }
+
+        return acl;
+    }
+
+    /**
+     * @return the player id of the owner of the chest, or {@link ChestLockPlayerRegistry#NO_PLAYER} if it isn't
+     * locked or has no owner.
+     */
+    int getOwner(final long packedPos, final int typeId) {
+        long stamp = version.tryOptimisticRead();
+        int owner = findOwner(packedPos, typeId);
+
+        if (!version.validate(stamp)) {
+            stamp = version.readLock();
+            try {
+                owner = findOwner(packedPos, typeId);
+            } finally {
+                version.unlockRead(stamp);
+            }
+        }
+
+        return owner;
+    }
+
+    /**
+     * Locks the chest, replacing whatever was locked at its position before.
+     */
+    void put(final long packedPos,
+             final int typeId,
+             final ChestAcl acl,
+             final int owner) {
+        long stamp = version.writeLock();
+        try {
+            Slots currentSlots = slots;
+            int slot = currentSlots.find(packedPos);
+
+            if (slot == NOT_FOUND) {
+                if ((size + 1) * 2 > currentSlots.keys.length) {
+                    currentSlots = grow(currentSlots);
+                }
+
+                slot = currentSlots.freeSlot(packedPos);
+                size++;
+            }
+
+            currentSlots.set(slot, packedPos, typeId, acl, owner);
+        } finally {
+            version.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Swaps the acl of a locked chest, the owner stays the same.
+     * @param expectedAcl the acl {@code newAcl} was built from.
+     * @return false if the chest isn't locked or its acl isn't {@code expectedAcl} anymore, nothing is changed.
+     */
+    boolean replaceAcl(final long packedPos,
+                       final int typeId,
+                       final ChestAcl expectedAcl,
+                       final ChestAcl newAcl) {
+        long stamp = version.writeLock();
+        try {
+            Slots currentSlots = slots;
+            int slot = currentSlots.find(packedPos);
+
+            // Acls are interned, so an equal acl is the same instance
+            if (slot == NOT_FOUND || currentSlots.types[slot] != typeId || currentSlots.acls[slot] != expectedAcl) {
+                return false;
+            }
+
+            currentSlots.acls[slot] = newAcl;
+            return true;
+        } finally {
+            version.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Iterates the table without allocating, {@code for (int slot = nextSlot(0); slot != NOT_FOUND; slot = nextSlot(slot + 1))}.
+     * Slots are only stable while the table isn't changed, so iterate while holding the lock stripe of its region.
+     * @return the first occupied slot at or after {@code slot}, or {@link #NOT_FOUND} if there are no more.
+     */
+    int nextSlot(final int slot) {
+        long[] keys = slots.keys;
+
+        for (int index = slot; index < keys.length; index++) {
+            if (keys[index] != NO_KEY) {
+                return index;
+            }
+        }
+
+        return NOT_FOUND;
+    }
+
+    long keyAt(final int slot) {
+        return slots.keys[slot];
+    }
+
+    int typeAt(final int slot) {
+        return slots.types[slot];
+    }
+
+    ChestAcl aclAt(final int slot) {
+        return slots.acls[slot];
+    }
+
+    int ownerAt(final int slot) {
+        return slots.owners[slot];
+    }
+
+    /**
+     * Only reads plain fields, the result is only valid if no change happened while it ran.
+     */
+    private ChestAcl findAcl(final long packedPos, final int typeId) {
+        Slots currentSlots = slots;
+        int slot = currentSlots.find(packedPos);
+        return slot == NOT_FOUND || currentSlots.types[slot] != typeId ? null : currentSlots.acls[slot];
+    }
+
+    private int findOwner(final long packedPos, final int typeId) {
+        Slots currentSlots = slots;
+        int slot = currentSlots.find(packedPos);
+        return slot == NOT_FOUND || currentSlots.types[slot] != typeId
+                ? ChestLockPlayerRegistry.NO_PLAYER : currentSlots.owners[slot];
+    }
+
+    private Slots grow(final Slots oldSlots) {
+        Slots newSlots = new Slots(oldSlots.keys.length * 2);
+
+        for (int slot = 0; slot < oldSlots.keys.length; slot++) {
+            long key = oldSlots.keys[slot];
+
+            if (key != NO_KEY) {
+                newSlots.set(newSlots.freeSlot(key), key, oldSlots.types[slot],
+                        oldSlots.acls[slot], oldSlots.owners[slot]);
+            }
+        }
+
+        slots = newSlots;
+        return newSlots;
+    }
+
+    private static final class Slots {
+        private final long[] keys;
+        private final int[] types;
+        private final ChestAcl[] acls;
+        private final int[] owners;
+        private final int mask;
+        private final int shift;
+
+        private Slots(final int capacity) {
+            this.keys = new long[capacity];
+            this.types = new int[capacity];
+            this.acls = new ChestAcl[capacity];
+            this.owners = new int[capacity];
+            this.mask = capacity - 1;
+            this.shift = Long.numberOfLeadingZeros(capacity - 1);
+            Arrays.fill(keys, NO_KEY);
+        }
+
+        private int home(final long key) {
+            return (int) ((key * HASH_MULTIPLIER) >>> shift);
+        }
+
+        private int find(final long key) {
+            for (int slot = home(key); ; slot = (slot + 1) & mask) {
+                long slotKey = keys[slot];
+
+                if (slotKey == key) {
+                    return slot;
+                }
+
+                if (slotKey == NO_KEY) {
+                    return NOT_FOUND;
+                }
+            }
+        }
+
+        private int freeSlot(final long key) {
+            int slot = home(key);
+
+            while (keys[slot] != NO_KEY) {
+                slot = (slot + 1) & mask;
+            }
+
+            return slot;
+        }
+
+        private void set(final int slot,
+                         final long key,
+                         final int typeId,
+                         final ChestAcl acl,
+                         final int owner) {
+            // The key is written last so a lookup that finds it also finds the rest of the slot filled in
+            types[slot] = typeId;
+            acls[slot] = acl;
+            owners[slot] = owner;
+            keys[slot] = key;
+        }
+    }
+}
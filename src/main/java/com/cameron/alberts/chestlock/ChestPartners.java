@@ -0,0 +1,47 @@
+package com.cameron.alberts.chestlock;
+
+import com.google.common.collect.ImmutableList;
+import net.minecraft.util.math.BlockPos;
+
+import java.util.List;
+
+/**
+ * How the other blocks of a multi-block container are found. A partner is a block of the same container type at
+ * one of the offsets, all the blocks of a container share one acl. Every offset is at most one block away, so a
+ * container never spans more than the neighbouring regions.
+ */
+public enum ChestPartners {
+    // A single block container
+    NONE(new int[][] {}),
+    // Joins the same block north, south, west or east of it, like the vanilla double chest
+    HORIZONTAL(new int[][] {{0, 0, -1}, {0, 0, 1}, {-1, 0, 0}, {1, 0, 0}}),
+    // Joins the same block on any side, including above and below
+    ADJACENT(new int[][] {{0, 0, -1}, {0, 0, 1}, {-1, 0, 0}, {1, 0, 0}, {0, 1, 0}, {0, -1, 0}});
+
+    // x, y and z offset of every position a partner can be at
+    private final int[][] offsets;
+
+    ChestPartners(final int[][] offsets) {
+        this.offsets = offsets;
+    }
+
+    List<ChestPos> partnersOf(final ChestPos chestPos) {
+        ImmutableList.Builder<ChestPos> partners = ImmutableList.builder();
+
+        for (int[] offset : offsets) {
+            partners.add(chestPos.add(offset[0], offset[1], offset[2]));
+        }
+
+        return partners.build();
+    }
+
+    List<BlockPos> partnersOf(final BlockPos blockPos) {
+        ImmutableList.Builder<BlockPos> partners = ImmutableList.builder();
+
+        for (int[] offset : offsets) {
+            partners.add(blockPos.add(offset[0], offset[1], offset[2]));
+        }
+
+        return partners.build();
+    }
+}
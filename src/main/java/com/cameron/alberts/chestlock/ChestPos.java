@@ -7,6 +7,15 @@ import net.minecraft.util.math.BlockPos;
 @Value
 @AllArgsConstructor
 public class ChestPos {
+    // Packed layout, most significant bit first: 1 unused bit (always 0), 26 bits x, 26 bits z, 11 bits y.
+    // x and z cover the whole +/- 30,000,000 world border and y covers -1024 to 1023.
+    private static final int XZ_BITS = 26;
+    private static final int Y_BITS = 11;
+    private static final int Z_SHIFT = Y_BITS;
+    private static final int X_SHIFT = Y_BITS + XZ_BITS;
+    private static final long XZ_MASK = (1L << XZ_BITS) - 1;
+    private static final long Y_MASK = (1L << Y_BITS) - 1;
+
     private final int chestPosX;
     private final int chestPosY;
     private final int chestPosZ;
@@ -17,19 +26,36 @@ public class ChestPos {
         chestPosZ = blockPos.getZ();
     }
 
-    ChestPos north() {
-        return new ChestPos(chestPosX, chestPosY, chestPosZ - 1);
+    /**
+     * Packs this position into a single long, see {@link #fromLong(long)} for the inverse.
+     * The top bit of a packed position is always 0.
+     */
+    public long toLong() {
+        return pack(chestPosX, chestPosY, chestPosZ);
+    }
+
+    public static ChestPos fromLong(final long packedPos) {
+        return new ChestPos(unpackX(packedPos), unpackY(packedPos), unpackZ(packedPos));
+    }
+
+    public static long pack(final int x, final int y, final int z) {
+        return ((x & XZ_MASK) << X_SHIFT) | ((z & XZ_MASK) << Z_SHIFT) | (y & Y_MASK);
+    }
+
+    public static int unpackX(final long packedPos) {
+        // Shift left first so the arithmetic right shift restores the sign
+        return (int) (packedPos << 1 >> (64 - XZ_BITS));
     }
 
-    ChestPos south() {
-        return new ChestPos(chestPosX, chestPosY, chestPosZ + 1);
+    public static int unpackY(final long packedPos) {
+        return (int) (packedPos << (64 - Y_BITS) >> (64 - Y_BITS));
     }
 
-    ChestPos west() {
-        return new ChestPos(chestPosX - 1, chestPosY, chestPosZ);
+    public static int unpackZ(final long packedPos) {
+        return (int) (packedPos << (64 - X_SHIFT) >> (64 - XZ_BITS));
     }
 
-    ChestPos east() {
-        return new ChestPos(chestPosX + 1, chestPosY, chestPosZ);
+    ChestPos add(final int x, final int y, final int z) {
+        return new ChestPos(chestPosX + x, chestPosY + y, chestPosZ + z);
     }
 }
@@ -0,0 +1,22 @@
+package com.cameron.alberts.chestlock;
+
+import lombok.Value;
+import net.minecraft.block.Block;
+
+/**
+ * A block that can be locked, resolved once at startup so the event handlers can find the type of a block
+ * by identity instead of building its unlocalized name.
+ */
+@Value
+public class ChestType {
+    private final Block block;
+    // Index of the type in the lock tables, see ChestBlock#getTypeId(String). Blocks with the same unlocalized
+    // name, like the furnace and the lit furnace, share one type id
+    private final int typeId;
+    // How the other blocks of the container are found, blocks of a multi-block container share one acl
+    private final ChestPartners partners;
+
+    public boolean isMultiBlock() {
+        return partners != ChestPartners.NONE;
+    }
+}
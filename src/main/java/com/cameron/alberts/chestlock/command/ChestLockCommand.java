@@ -2,16 +2,24 @@ package com.cameron.alberts.chestlock.command;
 
 import com.cameron.alberts.chestlock.ChestBlock;
 import com.cameron.alberts.chestlock.ChestCommandEnum;
+import com.cameron.alberts.chestlock.ChestLockGroups;
+import com.cameron.alberts.chestlock.ChestLockJobs;
 import com.cameron.alberts.chestlock.ChestLockManager;
 import com.cameron.alberts.chestlock.ChestLockManagerResult;
+import com.cameron.alberts.chestlock.ChestLockManagers;
+import com.cameron.alberts.chestlock.ChestLockQueries;
 import com.cameron.alberts.chestlock.ChestPermissions;
+import com.cameron.alberts.chestlock.event.ChestLockHopperGuards;
 import com.cameron.alberts.utils.BlockUtils;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Lists;
+import com.google.common.primitives.Ints;
 import net.minecraft.block.Block;
 import net.minecraft.command.CommandException;
 import net.minecraft.command.ICommand;
 import net.minecraft.command.ICommandSender;
+import net.minecraft.entity.Entity;
+import net.minecraft.entity.player.EntityPlayer;
 import net.minecraft.server.MinecraftServer;
 import net.minecraft.util.math.BlockPos;
 import net.minecraft.util.text.TextComponentString;
@@ -26,20 +34,45 @@ import java.util.stream.Collectors;
 
 public class ChestLockCommand implements ICommand {
     private static final int USERNAME_INDEX = 1;
+    private static final int SECOND_ARGUMENT_INDEX = 2;
+    // Operators, the same level vanilla requires for commands like /give
+    private static final int STAFF_PERMISSION_LEVEL = 2;
+    private static final int FIRST_PAGE = 1;
+    private static final int MAX_AREA_RADIUS = 64;
     private static final String NAME = "chest";
-    private static final String USAGE = "/chest <REGISTER:ADD_OWNER:ADD_MOD:REMOVE> <username>";
+    private static final String USAGE = "/chest <REGISTER:ADD_OWNER:ADD_MOD:ADD_USER:REMOVE:STRIP> <username>"
+            + " | LOCK_AREA <username> <radius> | TRANSFER <from username> <to username> | CANCEL <job>"
+            + " | LIST <username> [page] | INFO <username> | WHO [page]"
+            + " | GROUP_CREATE <group> | GROUP_ADD:GROUP_REMOVE <group> <username>"
+            + " | ADD_OWNER:ADD_MOD:ADD_USER:REMOVE #<group>";
     private static final List<String> TAB_COMPLETION_COMMAND = ImmutableList.of(
             "REGISTER",
             "ADD_OWNER",
             "ADD_MOD",
             "ADD_USER",
-            "REMOVE"
+            "REMOVE",
+            "LOCK_AREA",
+            "TRANSFER",
+            "STRIP",
+            "CANCEL",
+            "LIST",
+            "INFO",
+            "WHO",
+            "GROUP_CREATE",
+            "GROUP_ADD",
+            "GROUP_REMOVE"
     );
 
-    private final ChestLockManager manager;
+    private final ChestLockManagers managers;
+    private final ChestLockJobs jobs;
+    private final ChestLockQueries queries;
 
-    public ChestLockCommand(final ChestLockManager chestLockManager) {
-        this.manager = chestLockManager;
+    public ChestLockCommand(final ChestLockManagers chestLockManagers,
+                            final ChestLockJobs chestLockJobs,
+                            final ChestLockQueries chestLockQueries) {
+        this.managers = chestLockManagers;
+        this.jobs = chestLockJobs;
+        this.queries = chestLockQueries;
     }
 
     /**
@@ -77,11 +110,32 @@ public class ChestLockCommand implements ICommand {
      */
     @Override
     public void execute(MinecraftServer server, ICommandSender sender, String[] args) throws CommandException {
+        if (args.length < 1) {
+            sender.sendMessage(new TextComponentString(TextFormatting.RED + "Invalid command format!"));
+            return;
+        }
+
+        ChestCommandEnum command = ChestCommandEnum.valueOf(args[0]);
+        if (command.getKind() == ChestCommandEnum.Kind.QUERY) {
+            executeQuery(server, sender, command, args);
+            return;
+        }
+
         if (args.length < 2) {
             sender.sendMessage(new TextComponentString(TextFormatting.RED + "Invalid command format!"));
             return;
         }
 
+        if (command.getKind() == ChestCommandEnum.Kind.BULK) {
+            executeBulk(server, sender, command, args);
+            return;
+        }
+
+        if (command.getKind() == ChestCommandEnum.Kind.GROUP) {
+            executeGroup(server, sender, command, args);
+            return;
+        }
+
         BlockPos blockPos = BlockUtils.getBlockPosEntityIsLookingAt(sender.getCommandSenderEntity(), 10);
         if (blockPos == null) {
             sender.sendMessage(new TextComponentString(TextFormatting.RED + "Couldn't find a chest block within 10 blocks of your line of sight!"));
@@ -89,6 +143,12 @@ public class ChestLockCommand implements ICommand {
         }
 
         World world = sender.getEntityWorld();
+        ChestLockManager manager = managers.get(world);
+        if (manager == null) {
+            sender.sendMessage(new TextComponentString(TextFormatting.RED + "Chests can't be locked in this dimension!"));
+            return;
+        }
+
         Block block = world.getBlockState(blockPos).getBlock();
 
         if (!ChestBlock.isChest(block)) {
@@ -97,32 +157,57 @@ public class ChestLockCommand implements ICommand {
         }
 
         ChestBlock chestBlock = new ChestBlock(block.getUnlocalizedName(), blockPos);
-        String requestingUsername = sender.getName();
+        Entity senderEntity = sender.getCommandSenderEntity();
+        int requestingPlayerId = senderEntity instanceof EntityPlayer
+                ? manager.getPlayerId((EntityPlayer) senderEntity)
+                : manager.getPlayerId(sender.getName());
         String userNameForOperation = args[1];
+        int playerIdForOperation;
+
+        // A group is given a permission like a player, but can't be the one a chest is registered to
+        if (userNameForOperation.startsWith(ChestLockGroups.GROUP_PREFIX)) {
+            playerIdForOperation = getGroupId(sender, userNameForOperation);
 
-        String[] listOfOnlinePlayers = server.getPlayerList().getOnlinePlayerNames();
-        boolean noPlayersMatchPassedName = Arrays.stream(listOfOnlinePlayers).noneMatch(n -> n.equals(userNameForOperation));
-        if (noPlayersMatchPassedName) {
-            sender.sendMessage(new TextComponentString(TextFormatting.RED + "That user is not online!"));
+            if (playerIdForOperation == ChestLockGroups.NO_GROUP) {
+                return;
+            }
+
+            if (command == ChestCommandEnum.REGISTER) {
+                sender.sendMessage(new TextComponentString(TextFormatting.RED + "A group can't be registered to a chest!"));
+                return;
+            }
+        } else {
+            EntityPlayer playerForOperation = server.getPlayerList().getPlayerByUsername(userNameForOperation);
+            if (playerForOperation == null) {
+                sender.sendMessage(new TextComponentString(TextFormatting.RED + "That user is not online!"));
+            }
+
+            playerIdForOperation = getPlayerId(server, manager, userNameForOperation);
         }
 
         ChestLockManagerResult managerResult;
-        switch (ChestCommandEnum.valueOf(args[0])) {
+        switch (command) {
             case REGISTER:
                 ChestBlock surroundingChestBlock = ChestBlock.getSurroundingChestBlock(world, blockPos);
-                managerResult = manager.register(userNameForOperation, chestBlock, surroundingChestBlock);
+                managerResult = manager.register(playerIdForOperation, chestBlock, surroundingChestBlock);
+
+                if (managerResult == ChestLockManagerResult.SUCCESSFULLY_REGISTERED_CHEST
+                        && ChestLockHopperGuards.hasForeignHopperBelow(manager, world, blockPos, playerIdForOperation)) {
+                    sender.sendMessage(new TextComponentString(TextFormatting.YELLOW + "The hopper below this chest wasn't placed by "
+                            + userNameForOperation + ", it won't pull from the chest unless they place it again!"));
+                }
                 break;
             case ADD_OWNER:
-                managerResult = manager.add(requestingUsername, userNameForOperation, chestBlock, ChestPermissions.OWNER);
+                managerResult = manager.add(requestingPlayerId, playerIdForOperation, chestBlock, ChestPermissions.OWNER);
                 break;
             case ADD_MOD:
-                managerResult = manager.add(requestingUsername, userNameForOperation, chestBlock, ChestPermissions.MOD);
+                managerResult = manager.add(requestingPlayerId, playerIdForOperation, chestBlock, ChestPermissions.MOD);
                 break;
             case ADD_USER:
-                managerResult = manager.add(requestingUsername, userNameForOperation, chestBlock, ChestPermissions.USER);
+                managerResult = manager.add(requestingPlayerId, playerIdForOperation, chestBlock, ChestPermissions.USER);
                 break;
             case REMOVE:
-                managerResult = manager.remove(requestingUsername, userNameForOperation, chestBlock);
+                managerResult = manager.remove(requestingPlayerId, playerIdForOperation, chestBlock);
                 break;
             default:
                 sender.sendMessage(new TextComponentString(TextFormatting.RED + "Invalid format!"));
@@ -131,6 +216,186 @@ public class ChestLockCommand implements ICommand {
         sender.sendMessage(new TextComponentString(managerResult.getMessage()));
     }
 
+    /**
+     * Bulk commands change many chests, they are started as a job and report their progress to the sender.
+     */
+    private void executeBulk(final MinecraftServer server,
+                             final ICommandSender sender,
+                             final ChestCommandEnum command,
+                             final String[] args) {
+        if (!sender.canUseCommand(STAFF_PERMISSION_LEVEL, NAME)) {
+            sender.sendMessage(new TextComponentString(ChestLockManagerResult.PERMISSION_DENIED.getMessage()));
+            return;
+        }
+
+        if (command == ChestCommandEnum.CANCEL) {
+            Integer jobId = Ints.tryParse(args[USERNAME_INDEX]);
+
+            if (jobId == null || !jobs.cancel(jobId)) {
+                sender.sendMessage(new TextComponentString(TextFormatting.RED + "There is no job " + args[USERNAME_INDEX] + "!"));
+            }
+
+            return;
+        }
+
+        World world = sender.getEntityWorld();
+        ChestLockManager manager = managers.get(world);
+        if (manager == null) {
+            sender.sendMessage(new TextComponentString(TextFormatting.RED + "Chests can't be locked in this dimension!"));
+            return;
+        }
+
+        int playerIdForOperation = getPlayerId(server, manager, args[USERNAME_INDEX]);
+
+        switch (command) {
+            case LOCK_AREA:
+                Integer radius = args.length > SECOND_ARGUMENT_INDEX ? Ints.tryParse(args[SECOND_ARGUMENT_INDEX]) : null;
+
+                if (radius == null || radius < 0 || radius > MAX_AREA_RADIUS) {
+                    sender.sendMessage(new TextComponentString(TextFormatting.RED + "The radius has to be between 0 and " + MAX_AREA_RADIUS + "!"));
+                    return;
+                }
+
+                jobs.lockArea(sender, world, sender.getPosition(), radius, playerIdForOperation);
+                break;
+            case TRANSFER:
+                if (args.length <= SECOND_ARGUMENT_INDEX) {
+                    sender.sendMessage(new TextComponentString(TextFormatting.RED + "Invalid format!"));
+                    return;
+                }
+
+                int toPlayerId = getPlayerId(server, manager, args[SECOND_ARGUMENT_INDEX]);
+                queries.chestsWith(server, sender, manager, playerIdForOperation, permission -> permission == ChestPermissions.ROOT,
+                        chestBlocks -> jobs.transfer(sender, world, playerIdForOperation, toPlayerId, chestBlocks));
+                break;
+            case STRIP:
+                queries.chestsWith(server, sender, manager, playerIdForOperation, permission -> permission != ChestPermissions.ROOT,
+                        chestBlocks -> jobs.strip(sender, world, playerIdForOperation, chestBlocks));
+                break;
+            default:
+                sender.sendMessage(new TextComponentString(TextFormatting.RED + "Invalid format!"));
+        }
+    }
+
+    /**
+     * Query commands only read, they are answered off the server thread and send one page of the answer.
+     */
+    private void executeQuery(final MinecraftServer server,
+                              final ICommandSender sender,
+                              final ChestCommandEnum command,
+                              final String[] args) {
+        if (!sender.canUseCommand(STAFF_PERMISSION_LEVEL, NAME)) {
+            sender.sendMessage(new TextComponentString(ChestLockManagerResult.PERMISSION_DENIED.getMessage()));
+            return;
+        }
+
+        World world = sender.getEntityWorld();
+        ChestLockManager manager = managers.get(world);
+        if (manager == null) {
+            sender.sendMessage(new TextComponentString(TextFormatting.RED + "Chests can't be locked in this dimension!"));
+            return;
+        }
+
+        if (command == ChestCommandEnum.WHO) {
+            BlockPos blockPos = BlockUtils.getBlockPosEntityIsLookingAt(sender.getCommandSenderEntity(), 10);
+            Block block = blockPos == null ? null : world.getBlockState(blockPos).getBlock();
+
+            if (block == null || !ChestBlock.isChest(block)) {
+                sender.sendMessage(new TextComponentString(TextFormatting.RED + "Couldn't find a chest block within 10 blocks of your line of sight!"));
+                return;
+            }
+
+            queries.who(server, sender, manager, new ChestBlock(block.getUnlocalizedName(), blockPos), getPage(args, USERNAME_INDEX));
+            return;
+        }
+
+        if (args.length <= USERNAME_INDEX) {
+            sender.sendMessage(new TextComponentString(TextFormatting.RED + "Invalid format!"));
+            return;
+        }
+
+        int playerIdForOperation = getPlayerId(server, manager, args[USERNAME_INDEX]);
+
+        if (command == ChestCommandEnum.LIST) {
+            queries.list(server, sender, manager, playerIdForOperation, getPage(args, SECOND_ARGUMENT_INDEX));
+        } else {
+            queries.info(server, sender, manager, playerIdForOperation);
+        }
+    }
+
+    /**
+     * Group commands change a group's members, every chest the group is on follows without being changed.
+     */
+    private void executeGroup(final MinecraftServer server,
+                              final ICommandSender sender,
+                              final ChestCommandEnum command,
+                              final String[] args) {
+        ChestLockManager manager = managers.get(sender.getEntityWorld());
+        ChestLockGroups groups = managers.getGroups();
+        if (manager == null || groups == null) {
+            sender.sendMessage(new TextComponentString(TextFormatting.RED + "Chests can't be locked in this dimension!"));
+            return;
+        }
+
+        Entity senderEntity = sender.getCommandSenderEntity();
+        int requestingPlayerId = senderEntity instanceof EntityPlayer
+                ? manager.getPlayerId((EntityPlayer) senderEntity)
+                : manager.getPlayerId(sender.getName());
+
+        if (command == ChestCommandEnum.GROUP_CREATE) {
+            sender.sendMessage(new TextComponentString(groups.create(requestingPlayerId, args[USERNAME_INDEX]).getMessage()));
+            return;
+        }
+
+        if (args.length <= SECOND_ARGUMENT_INDEX) {
+            sender.sendMessage(new TextComponentString(TextFormatting.RED + "Invalid format!"));
+            return;
+        }
+
+        int groupId = getGroupId(sender, args[USERNAME_INDEX]);
+        if (groupId == ChestLockGroups.NO_GROUP) {
+            return;
+        }
+
+        int playerIdForOperation = getPlayerId(server, manager, args[SECOND_ARGUMENT_INDEX]);
+        ChestLockManagerResult managerResult = command == ChestCommandEnum.GROUP_ADD
+                ? groups.addMember(requestingPlayerId, groupId, playerIdForOperation)
+                : groups.removeMember(requestingPlayerId, groupId, playerIdForOperation);
+        sender.sendMessage(new TextComponentString(managerResult.getMessage()));
+    }
+
+    /**
+     * @return the id of the named group, or {@link ChestLockGroups#NO_GROUP} after telling the sender it
+     * doesn't exist.
+     */
+    private int getGroupId(final ICommandSender sender, final String groupName) {
+        ChestLockGroups groups = managers.getGroups();
+        int groupId = groups == null ? ChestLockGroups.NO_GROUP : groups.getGroupId(groupName);
+
+        if (groupId == ChestLockGroups.NO_GROUP) {
+            sender.sendMessage(new TextComponentString(ChestLockManagerResult.GROUP_DOES_NOT_EXIST.getMessage()));
+        }
+
+        return groupId;
+    }
+
+    /**
+     * @return the page argument at the index, the first page if it is missing or isn't a number.
+     */
+    private static int getPage(final String[] args, final int index) {
+        Integer page = args.length > index ? Ints.tryParse(args[index]) : null;
+        return page == null ? FIRST_PAGE : page;
+    }
+
+    /**
+     * Resolves a player by name, through the online player if there is one so a renamed player's new name is
+     * known.
+     */
+    private static int getPlayerId(final MinecraftServer server, final ChestLockManager manager, final String userName) {
+        EntityPlayer player = server.getPlayerList().getPlayerByUsername(userName);
+        return player == null ? manager.getPlayerId(userName) : manager.getPlayerId(player);
+    }
+
     /**
      * Check if the given ICommandSender has permission to execute this command
      *
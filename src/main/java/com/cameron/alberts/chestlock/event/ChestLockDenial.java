@@ -0,0 +1,24 @@
+package com.cameron.alberts.chestlock.event;
+
+import net.minecraft.util.text.ITextComponent;
+import net.minecraft.util.text.TextComponentString;
+import net.minecraft.util.text.TextFormatting;
+
+/**
+ * Why an interaction with a locked chest was denied, each message is built once and sent as is.
+ */
+public enum ChestLockDenial {
+    PROTECTED(TextFormatting.RED + "This chest is protected!"),
+    NO_ACCESS(TextFormatting.RED + "You do not have access to this chest!"),
+    HOPPER(TextFormatting.RED + "You do not have access to the chest above this hopper!");
+
+    private final ITextComponent message;
+
+    ChestLockDenial(final String message) {
+        this.message = new TextComponentString(message);
+    }
+
+    public ITextComponent getMessage() {
+        return this.message;
+    }
+}
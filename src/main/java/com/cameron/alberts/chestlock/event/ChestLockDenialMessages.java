@@ -0,0 +1,89 @@
+package com.cameron.alberts.chestlock.event;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import net.minecraft.entity.player.EntityPlayer;
+
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Collects the denial messages of a tick and sends them at the end of it, at most one of each
+ * {@link ChestLockDenial} per player. After a message is sent the same denial isn't sent to that player again
+ * for {@value #COOLDOWN_TICKS} ticks, so holding a click on a locked chest doesn't send a chat packet every tick.
+ *
+ * Only used on the server thread.
+ */
+final class ChestLockDenialMessages {
+    private static final int COOLDOWN_TICKS = 40;
+    private static final ChestLockDenial[] DENIALS = ChestLockDenial.values();
+
+    private final Map<UUID, PlayerDenials> denialsByPlayer;
+    // Players with a denial to send at the end of this tick
+    private final List<PlayerDenials> pendingPlayers;
+    private long tick;
+
+    ChestLockDenialMessages() {
+        this.denialsByPlayer = Maps.newHashMap();
+        this.pendingPlayers = Lists.newArrayList();
+    }
+
+    /**
+     * Queues the denial's message for the end of the tick, unless it is already queued or was sent to the
+     * player within the cooldown.
+     */
+    void deny(final EntityPlayer player, final ChestLockDenial denial) {
+        PlayerDenials playerDenials = denialsByPlayer.computeIfAbsent(player.getUniqueID(), uuid -> new PlayerDenials());
+        int denialBit = 1 << denial.ordinal();
+
+        if (tick < playerDenials.quietUntilTick[denial.ordinal()] || (playerDenials.pending & denialBit) != 0) {
+            return;
+        }
+
+        if (playerDenials.pending == 0) {
+            pendingPlayers.add(playerDenials);
+        }
+
+        playerDenials.player = player;
+        playerDenials.pending |= denialBit;
+    }
+
+    /**
+     * Sends every queued message, called once at the end of every server tick.
+     */
+    void flush() {
+        for (PlayerDenials playerDenials : pendingPlayers) {
+            for (ChestLockDenial denial : DENIALS) {
+                if ((playerDenials.pending & 1 << denial.ordinal()) != 0) {
+                    playerDenials.player.sendMessage(denial.getMessage());
+                    playerDenials.quietUntilTick[denial.ordinal()] = tick + COOLDOWN_TICKS;
+                }
+            }
+
+            playerDenials.pending = 0;
+        }
+
+        pendingPlayers.clear();
+        tick++;
+    }
+
+    /**
+     * Forgets a player that logged out, their queued messages are dropped.
+     */
+    void forget(final EntityPlayer player) {
+        PlayerDenials playerDenials = denialsByPlayer.remove(player.getUniqueID());
+
+        if (playerDenials != null && playerDenials.pending != 0) {
+            pendingPlayers.remove(playerDenials);
+        }
+    }
+
+    private static final class PlayerDenials {
+        private final long[] quietUntilTick = new long[DENIALS.length];
+        // The entity the messages are sent to, replaced on every denial since it changes when the player respawns
+        private EntityPlayer player;
+        // One bit per ChestLockDenial ordinal queued this tick
+        private int pending;
+    }
+}
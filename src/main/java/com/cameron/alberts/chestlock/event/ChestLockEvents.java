@@ -3,86 +3,123 @@ package com.cameron.alberts.chestlock.event;
 import com.cameron.alberts.chestlock.ChestBlock;
 import com.cameron.alberts.chestlock.ChestLockManager;
 import com.cameron.alberts.chestlock.ChestLockManagerResult;
+import com.cameron.alberts.chestlock.ChestLockManagers;
+import com.cameron.alberts.metrics.CounterMetric;
+import com.cameron.alberts.metrics.MetricSampler;
 import com.cameron.alberts.metrics.TimerMetric;
-import com.google.common.collect.ImmutableSet;
 import net.minecraft.block.Block;
+import net.minecraft.entity.item.EntityMinecart;
+import net.minecraft.entity.item.EntityMinecartHopper;
 import net.minecraft.entity.player.EntityPlayer;
 import net.minecraft.init.Blocks;
 import net.minecraft.util.math.BlockPos;
 import net.minecraft.util.text.TextComponentString;
-import net.minecraft.util.text.TextFormatting;
 import net.minecraft.world.World;
+import net.minecraft.world.WorldServer;
+import net.minecraft.world.chunk.Chunk;
+import net.minecraftforge.event.entity.minecart.MinecartUpdateEvent;
 import net.minecraftforge.event.entity.player.PlayerInteractEvent;
 import net.minecraftforge.event.world.BlockEvent;
+import net.minecraftforge.event.world.ChunkEvent;
 import net.minecraftforge.event.world.ExplosionEvent;
+import net.minecraftforge.event.world.WorldEvent;
 import net.minecraftforge.fml.common.eventhandler.SubscribeEvent;
+import net.minecraftforge.fml.common.gameevent.PlayerEvent;
+import net.minecraftforge.fml.common.gameevent.TickEvent;
 
-import java.util.Iterator;
 import java.util.List;
-import java.util.Set;
 
 public class ChestLockEvents {
-    private static final Set<String> CHESTS = ImmutableSet.of(
-            Blocks.CHEST.getUnlocalizedName(),
-            Blocks.ENDER_CHEST.getUnlocalizedName()
-    );
+    private static final CounterMetric EXPLOSION_BLOCKS_PROTECTED = CounterMetric.create("explosionBlocksProtected");
+    private static final CounterMetric CHESTS_REGISTERED = CounterMetric.create("chestsRegistered");
+    private static final CounterMetric BREAKS_DENIED = CounterMetric.create("breaksDenied");
+    private static final CounterMetric OPENS_DENIED = CounterMetric.create("opensDenied");
+    private static final CounterMetric HOPPERS_DENIED = CounterMetric.create("hoppersDenied");
+    private static final MetricSampler HANDLE_EXPLOSION_TIMER = MetricSampler.of("handleExplosion");
+    private static final MetricSampler HANDLE_PLAYER_INTERACT_LEFT_CLICK_TIMER = MetricSampler.of("handlePlayerInteractLeftClick");
+    private static final MetricSampler HANDLE_PLAYER_INTERACT_RIGHT_CLICK_TIMER = MetricSampler.of("handlePlayerInteractRightClick");
+    private static final MetricSampler HANDLE_BLOCK_PLACED_EVENT_TIMER = MetricSampler.of("handleBlockPlacedEvent");
+    private static final MetricSampler HANDLE_HOPPER_PLACED_TIMER = MetricSampler.of("handleHopperPlaced");
 
-    private final ChestLockManager manager;
+    // Every handler looks up the manager of the event's dimension, remote worlds and dimensions that
+    // aren't loaded have none
+    private final ChestLockManagers managers;
+    private final ChestLockDenialMessages denialMessages;
+    private final ChestLockHopperVerdicts hopperVerdicts;
+    private final ChestLockHopperGuards hopperGuards;
 
-    public ChestLockEvents(final ChestLockManager chestLockManager) {
-        this.manager = chestLockManager;
+    public ChestLockEvents(final ChestLockManagers chestLockManagers) {
+        this.managers = chestLockManagers;
+        this.denialMessages = new ChestLockDenialMessages();
+        this.hopperVerdicts = new ChestLockHopperVerdicts();
+        this.hopperGuards = new ChestLockHopperGuards();
     }
 
     @SubscribeEvent
     public void handleExplosion(final ExplosionEvent explosionEvent) {
         World world = explosionEvent.getWorld();
+        ChestLockManager manager = managers.get(world);
 
-        if (world.isRemote) {
+        if (manager == null) {
             return;
         }
 
-        try (TimerMetric timerMetric = TimerMetric.create("handleExplosion")) {
+        try (TimerMetric timerMetric = TimerMetric.start(HANDLE_EXPLOSION_TIMER)) {
             List<BlockPos> blockPosList = explosionEvent.getExplosion().getAffectedBlockPositions();
 
-            Iterator<BlockPos> blockPosIterator = blockPosList.iterator();
-            while (blockPosIterator.hasNext()) { // Iterate over blocks in the explosion
-                BlockPos blockPos = blockPosIterator.next();
-                Block block = world.getBlockState(blockPos).getBlock();
-
-                if (!ChestBlock.isChest(block)) {
-                    continue;
-                }
+            if (blockPosList.isEmpty()) {
+                return;
+            }
 
-                ChestBlock chestBlock = new ChestBlock(block.getUnlocalizedName(), blockPos);
+            int minX = Integer.MAX_VALUE;
+            int minY = Integer.MAX_VALUE;
+            int minZ = Integer.MAX_VALUE;
+            int maxX = Integer.MIN_VALUE;
+            int maxY = Integer.MIN_VALUE;
+            int maxZ = Integer.MIN_VALUE;
+            for (BlockPos blockPos : blockPosList) {
+                minX = Math.min(minX, blockPos.getX());
+                minY = Math.min(minY, blockPos.getY());
+                minZ = Math.min(minZ, blockPos.getZ());
+                maxX = Math.max(maxX, blockPos.getX());
+                maxY = Math.max(maxY, blockPos.getY());
+                maxZ = Math.max(maxZ, blockPos.getZ());
+            }
 
-                // If the current block is owned by someone remove it from being exploded
-                if (manager.contains(chestBlock)) {
-                    blockPosIterator.remove();
-                }
+            // Most explosions don't reach a chunk section with a locked chest
+            if (!manager.hasLocksWithin(minX, minY, minZ, maxX, maxY, maxZ)) {
+                return;
             }
+
+            // If the current block is a chest owned by someone remove it from being exploded
+            int affectedBlocks = blockPosList.size();
+            blockPosList.removeIf(blockPos -> manager.isLocked(world, blockPos));
+            EXPLOSION_BLOCKS_PROTECTED.add(affectedBlocks - blockPosList.size());
         }
     }
 
     @SubscribeEvent
     public void handlePlayerInteractLeftClick(final PlayerInteractEvent.LeftClickBlock leftClickEvent) {
         World world = leftClickEvent.getWorld();
+        ChestLockManager manager = managers.get(world);
 
-        if (world.isRemote) {
+        if (manager == null) {
             return;
         }
 
-        try (TimerMetric metric = TimerMetric.create("handlePlayerInteractLeftClick")) {
-            BlockPos blockPos = leftClickEvent.getPos();
-            Block block = world.getBlockState(blockPos).getBlock();
+        BlockPos blockPos = leftClickEvent.getPos();
+        Block block = world.getBlockState(blockPos).getBlock();
 
-            if (!ChestBlock.isChest(block)) {
-                return;
-            }
+        // Most clicks aren't on a chest, skip them before anything is allocated
+        if (!ChestBlock.isChest(block)) {
+            return;
+        }
 
-            ChestBlock chestBlock = new ChestBlock(block.getUnlocalizedName(), blockPos);
-            if (manager.contains(chestBlock)) {
+        try (TimerMetric metric = TimerMetric.start(HANDLE_PLAYER_INTERACT_LEFT_CLICK_TIMER)) {
+            if (manager.contains(block, blockPos)) {
                 leftClickEvent.setCanceled(true);
-                leftClickEvent.getEntity().sendMessage(new TextComponentString(TextFormatting.RED + "This chest is protected!"));
+                BREAKS_DENIED.increment();
+                denialMessages.deny(leftClickEvent.getEntityPlayer(), ChestLockDenial.PROTECTED);
             }
         }
     }
@@ -90,23 +127,26 @@ public class ChestLockEvents {
     @SubscribeEvent
     public void handlePlayerInteractRightClick(final PlayerInteractEvent.RightClickBlock rightClickEvent) {
         World world = rightClickEvent.getWorld();
+        ChestLockManager manager = managers.get(world);
 
-        if (world.isRemote) {
+        if (manager == null) {
             return;
         }
 
-        try (TimerMetric metric = TimerMetric.create("handlePlayerInteractRightClick")) {
-            BlockPos blockPos = rightClickEvent.getPos();
-            Block block = world.getBlockState(blockPos).getBlock();
+        BlockPos blockPos = rightClickEvent.getPos();
+        Block block = world.getBlockState(blockPos).getBlock();
 
-            if (!ChestBlock.isChest(block)) {
-                return;
-            }
+        if (!ChestBlock.isChest(block)) {
+            return;
+        }
 
-            ChestBlock chestBlock = new ChestBlock(block.getUnlocalizedName(), blockPos);
-            if (!manager.canOpen(rightClickEvent.getEntity().getName(), chestBlock)) {
+        try (TimerMetric metric = TimerMetric.start(HANDLE_PLAYER_INTERACT_RIGHT_CLICK_TIMER)) {
+            int playerId = manager.getPlayerId(rightClickEvent.getEntityPlayer());
+
+            if (!manager.canOpen(playerId, block, blockPos)) {
                 rightClickEvent.setCanceled(true);
-                rightClickEvent.getEntity().sendMessage(new TextComponentString(TextFormatting.RED + "You do not have access to this chest!"));
+                OPENS_DENIED.increment();
+                denialMessages.deny(rightClickEvent.getEntityPlayer(), ChestLockDenial.NO_ACCESS);
             }
         }
     }
@@ -114,29 +154,168 @@ public class ChestLockEvents {
     @SubscribeEvent
     public void handleBlockPlacedEvent(final BlockEvent.PlaceEvent placeEvent) {
         World world = placeEvent.getWorld();
+        ChestLockManager manager = managers.get(world);
 
-        if (world.isRemote) {
+        if (manager == null) {
             return;
         }
 
-        try (TimerMetric metric = TimerMetric.create("handleBlockPlacedEvent")) {
-            Block placedBlock = placeEvent.getPlacedBlock().getBlock();
-            BlockPos blockPos = placeEvent.getPos();
+        Block placedBlock = placeEvent.getPlacedBlock().getBlock();
 
-            if (!ChestBlock.isChest(placedBlock)) {
-                return;
-            }
+        if (placedBlock == Blocks.HOPPER) {
+            handleHopperPlaced(placeEvent, manager);
+            return;
+        }
+
+        if (!ChestBlock.isChest(placedBlock)) {
+            return;
+        }
 
+        try (TimerMetric metric = TimerMetric.start(HANDLE_BLOCK_PLACED_EVENT_TIMER)) {
+            BlockPos blockPos = placeEvent.getPos();
             EntityPlayer player = placeEvent.getPlayer();
             ChestBlock chestBlock = new ChestBlock(placedBlock.getUnlocalizedName(), blockPos);
             ChestBlock surroundingChestBlock = ChestBlock.getSurroundingChestBlock(world, blockPos);
 
-            ChestLockManagerResult chestLockManagerResult = manager.register(player.getName(), chestBlock, surroundingChestBlock);
+            ChestLockManagerResult chestLockManagerResult = manager.register(manager.getPlayerId(player), chestBlock, surroundingChestBlock);
             if (chestLockManagerResult.equals(ChestLockManagerResult.SURROUNDING_CHEST_REGISTERED)) {
                 placeEvent.setCanceled(true);
+            } else if (chestLockManagerResult.equals(ChestLockManagerResult.SUCCESSFULLY_REGISTERED_CHEST)) {
+                CHESTS_REGISTERED.increment();
             }
 
             placeEvent.getPlayer().sendMessage(new TextComponentString(chestLockManagerResult.getMessage()));
         }
     }
+
+    /**
+     * A hopper pulls items out of the block above it, so only players with access to a locked chest can place
+     * a hopper under it. The placer is saved on the hopper, see {@link ChestLockHopperGuards}.
+     */
+    private void handleHopperPlaced(final BlockEvent.PlaceEvent placeEvent, final ChestLockManager manager) {
+        try (TimerMetric metric = TimerMetric.start(HANDLE_HOPPER_PLACED_TIMER)) {
+            BlockPos chestPos = placeEvent.getPos().up();
+            Block block = placeEvent.getWorld().getBlockState(chestPos).getBlock();
+            EntityPlayer player = placeEvent.getPlayer();
+
+            if (!manager.canOpen(manager.getPlayerId(player), block, chestPos)) {
+                placeEvent.setCanceled(true);
+                HOPPERS_DENIED.increment();
+                denialMessages.deny(player, ChestLockDenial.HOPPER);
+                return;
+            }
+
+            hopperGuards.placed(manager, placeEvent.getWorld(), placeEvent.getPos(), player);
+        }
+    }
+
+    @SubscribeEvent
+    public void handleMinecartUpdate(final MinecartUpdateEvent minecartUpdateEvent) {
+        EntityMinecart minecart = minecartUpdateEvent.getMinecart();
+
+        if (!(minecart instanceof EntityMinecartHopper)) {
+            return;
+        }
+
+        ChestLockManager manager = managers.get(minecart.getEntityWorld());
+
+        if (manager != null) {
+            hopperVerdicts.update(manager, (EntityMinecartHopper) minecart, minecartUpdateEvent.getPos());
+        }
+    }
+
+    /**
+     * Players can rename, the locks are stored by player id so only the name the id resolves to changes.
+     */
+    @SubscribeEvent
+    public void handlePlayerLoggedIn(final PlayerEvent.PlayerLoggedInEvent loggedInEvent) {
+        managers.getPlayerId(loggedInEvent.player);
+    }
+
+    @SubscribeEvent
+    public void handlePlayerLoggedOut(final PlayerEvent.PlayerLoggedOutEvent loggedOutEvent) {
+        denialMessages.forget(loggedOutEvent.player);
+        managers.playerLoggedOut(loggedOutEvent.player);
+    }
+
+    /**
+     * Hoppers whose placer can't open the locked chest above them are held before they update.
+     */
+    @SubscribeEvent
+    public void handleWorldTick(final TickEvent.WorldTickEvent worldTickEvent) {
+        if (worldTickEvent.phase != TickEvent.Phase.START) {
+            return;
+        }
+
+        ChestLockManager manager = managers.get(worldTickEvent.world);
+
+        if (manager != null) {
+            hopperGuards.tick(manager, worldTickEvent.world);
+        }
+    }
+
+    /**
+     * Denial messages are coalesced over the tick and sent once it ends.
+     */
+    @SubscribeEvent
+    public void handleServerTick(final TickEvent.ServerTickEvent serverTickEvent) {
+        if (serverTickEvent.phase == TickEvent.Phase.END) {
+            denialMessages.flush();
+        }
+    }
+
+    @SubscribeEvent
+    public void handleWorldLoad(final WorldEvent.Load worldLoadEvent) {
+        World world = worldLoadEvent.getWorld();
+
+        if (!world.isRemote && world instanceof WorldServer) {
+            managers.load((WorldServer) world);
+        }
+    }
+
+    @SubscribeEvent
+    public void handleWorldUnload(final WorldEvent.Unload worldUnloadEvent) {
+        World world = worldUnloadEvent.getWorld();
+
+        if (!world.isRemote) {
+            managers.unload(world);
+        }
+    }
+
+    @SubscribeEvent
+    public void handleChunkLoad(final ChunkEvent.Load chunkLoadEvent) {
+        ChestLockManager manager = managers.get(chunkLoadEvent.getWorld());
+
+        if (manager == null) {
+            return;
+        }
+
+        Chunk chunk = chunkLoadEvent.getChunk();
+        manager.chunkLoaded(chunk.xPosition, chunk.zPosition);
+        hopperGuards.chunkLoaded(manager, chunk);
+    }
+
+    @SubscribeEvent
+    public void handleChunkUnload(final ChunkEvent.Unload chunkUnloadEvent) {
+        ChestLockManager manager = managers.get(chunkUnloadEvent.getWorld());
+
+        if (manager == null) {
+            return;
+        }
+
+        Chunk chunk = chunkUnloadEvent.getChunk();
+        manager.chunkUnloaded(chunk.xPosition, chunk.zPosition);
+        hopperGuards.chunkUnloaded(chunk);
+    }
+
+    /**
+     * Fired after a block was placed, broken or replaced, by a player or not. A hopper under it has to check the
+     * block above it again.
+     */
+    @SubscribeEvent
+    public void handleNeighborNotify(final BlockEvent.NeighborNotifyEvent neighborNotifyEvent) {
+        if (managers.get(neighborNotifyEvent.getWorld()) != null) {
+            hopperGuards.blockChanged(neighborNotifyEvent.getWorld(), neighborNotifyEvent.getPos());
+        }
+    }
 }
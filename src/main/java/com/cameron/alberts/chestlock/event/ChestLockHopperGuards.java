@@ -0,0 +1,274 @@
+package com.cameron.alberts.chestlock.event;
+
+import com.cameron.alberts.chestlock.ChestLockManager;
+import com.cameron.alberts.chestlock.ChestPos;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import net.minecraft.block.Block;
+import net.minecraft.entity.player.EntityPlayer;
+import net.minecraft.nbt.NBTTagCompound;
+import net.minecraft.tileentity.TileEntity;
+import net.minecraft.tileentity.TileEntityHopper;
+import net.minecraft.util.math.BlockPos;
+import net.minecraft.world.World;
+import net.minecraft.world.chunk.Chunk;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.function.LongConsumer;
+
+/**
+ * Keeps block hoppers from pulling items out of locked chests their placer can't open. Forge has no event for a
+ * hopper pulling items, so the player that placed a hopper is saved on it and every hopper is watched from when
+ * it is placed or its chunk loads until its chunk unloads, by the position above it. A hopper's verdict is only
+ * checked again when the acl of the chest above it changes, the manager tells which chests changed, or when the
+ * block above it changes, so a hopper under a chest locked later, by a command or by someone else, or whose
+ * placer was removed from the chest stops pulling too, and one under a chest that was broken pulls again. A
+ * group membership change doesn't tell which chests it affects, every watched hopper is checked again then.
+ * A hopper that may not pull is held on its transfer cooldown at the start of every tick, which costs a field
+ * write per held hopper.
+ *
+ * Hoppers placed before their placer was saved have none and never pull from a locked chest, placing them again
+ * saves it.
+ *
+ * Only used on the server thread.
+ */
+public final class ChestLockHopperGuards {
+    // Saved with the hopper, the name resolves the UUID in a registry that hasn't seen the player yet
+    private static final String PLACER_TAG = "chestlock.placer";
+    private static final String PLACER_NAME_TAG = "chestlock.placerName";
+    // The cooldown is counted down before the hopper checks it, so it has to be above 1 to skip the tick
+    private static final int HELD_COOLDOWN_TICKS = 2;
+
+    private final Map<World, WorldHoppers> hoppersByWorld;
+
+    ChestLockHopperGuards() {
+        this.hoppersByWorld = new WeakHashMap<>();
+    }
+
+    /**
+     * @return true if the block under the chest is a hopper the player didn't place, it won't pull from the
+     * chest once it is locked to the player.
+     */
+    public static boolean hasForeignHopperBelow(final ChestLockManager manager,
+                                                final World world,
+                                                final BlockPos chestPos,
+                                                final int playerId) {
+        TileEntity tileEntity = world.getTileEntity(chestPos.down());
+        return tileEntity instanceof TileEntityHopper && placerOf(manager, (TileEntityHopper) tileEntity) != playerId;
+    }
+
+    /**
+     * Saves the placer on a hopper that was placed and starts watching it.
+     */
+    void placed(final ChestLockManager manager, final World world, final BlockPos hopperPos, final EntityPlayer player) {
+        TileEntity tileEntity = world.getTileEntity(hopperPos);
+
+        if (!(tileEntity instanceof TileEntityHopper)) {
+            return;
+        }
+
+        TileEntityHopper hopper = (TileEntityHopper) tileEntity;
+        NBTTagCompound data = hopper.getTileData();
+        data.setUniqueId(PLACER_TAG, player.getUniqueID());
+        data.setString(PLACER_NAME_TAG, player.getName());
+        hopper.markDirty();
+        watch(manager, world, hopper);
+    }
+
+    /**
+     * Starts watching the hoppers of a chunk that loaded.
+     */
+    void chunkLoaded(final ChestLockManager manager, final Chunk chunk) {
+        for (TileEntity tileEntity : chunk.getTileEntityMap().values()) {
+            if (tileEntity instanceof TileEntityHopper) {
+                watch(manager, chunk.getWorld(), (TileEntityHopper) tileEntity);
+            }
+        }
+    }
+
+    /**
+     * Stops watching the hoppers of a chunk that unloaded.
+     */
+    void chunkUnloaded(final Chunk chunk) {
+        WorldHoppers worldHoppers = hoppersByWorld.get(chunk.getWorld());
+
+        if (worldHoppers == null) {
+            return;
+        }
+
+        for (TileEntity tileEntity : chunk.getTileEntityMap().values()) {
+            if (tileEntity instanceof TileEntityHopper) {
+                BlockPos hopperPos = tileEntity.getPos();
+                Guard guard = worldHoppers.guards.get(ChestPos.pack(hopperPos.getX(), hopperPos.getY() + 1, hopperPos.getZ()));
+
+                if (guard != null && guard.hopper == tileEntity) {
+                    worldHoppers.drop(guard);
+                }
+            }
+        }
+    }
+
+    /**
+     * Called after a block changed, the hopper under it is checked again at the start of the next tick, once
+     * a block that is being broken is gone. If the block was a watched hopper it is dropped then.
+     */
+    void blockChanged(final World world, final BlockPos blockPos) {
+        WorldHoppers worldHoppers = hoppersByWorld.get(world);
+
+        if (worldHoppers == null) {
+            return;
+        }
+
+        long packedPos = ChestPos.pack(blockPos.getX(), blockPos.getY(), blockPos.getZ());
+        long packedPosAbove = ChestPos.pack(blockPos.getX(), blockPos.getY() + 1, blockPos.getZ());
+
+        if (worldHoppers.guards.containsKey(packedPos)) {
+            worldHoppers.changed.add(packedPos);
+        }
+
+        if (worldHoppers.guards.containsKey(packedPosAbove)) {
+            worldHoppers.changed.add(packedPosAbove);
+        }
+    }
+
+    /**
+     * Called at the start of every tick of the world, before its hoppers update.
+     */
+    void tick(final ChestLockManager manager, final World world) {
+        WorldHoppers worldHoppers = hoppersByWorld.get(world);
+
+        if (worldHoppers == null) {
+            return;
+        }
+
+        if (worldHoppers.bind(manager) || worldHoppers.groupVersion != manager.getGroupVersion()) {
+            worldHoppers.groupVersion = manager.getGroupVersion();
+            worldHoppers.changed.clear();
+            // Checking drops the hoppers that were broken
+            Lists.newArrayList(worldHoppers.guards.values()).forEach(guard -> worldHoppers.check(world, guard));
+        }
+
+        for (Long packedPos = worldHoppers.changed.poll(); packedPos != null; packedPos = worldHoppers.changed.poll()) {
+            Guard guard = worldHoppers.guards.get(packedPos);
+
+            if (guard != null) {
+                worldHoppers.check(world, guard);
+            }
+        }
+
+        for (Iterator<Guard> iterator = worldHoppers.held.iterator(); iterator.hasNext(); ) {
+            Guard guard = iterator.next();
+
+            // Broken since it was checked
+            if (guard.hopper.isInvalid()) {
+                iterator.remove();
+                worldHoppers.guards.remove(guard.packedPos, guard);
+            } else {
+                guard.hopper.setTransferCooldown(HELD_COOLDOWN_TICKS);
+            }
+        }
+    }
+
+    private void watch(final ChestLockManager manager, final World world, final TileEntityHopper hopper) {
+        WorldHoppers worldHoppers = hoppersByWorld.computeIfAbsent(world, key -> new WorldHoppers());
+        BlockPos hopperPos = hopper.getPos();
+        Guard guard = new Guard(hopper, ChestPos.pack(hopperPos.getX(), hopperPos.getY() + 1, hopperPos.getZ()),
+                placerOf(manager, hopper));
+        Guard oldGuard = worldHoppers.guards.put(guard.packedPos, guard);
+
+        if (oldGuard != null) {
+            worldHoppers.held.remove(oldGuard);
+        }
+
+        // Every hopper is checked on the first tick with a new manager, before that its verdict can wait too
+        if (worldHoppers.manager == manager) {
+            worldHoppers.check(world, guard);
+        }
+    }
+
+    private static boolean mayPull(final ChestLockManager manager,
+                                   final World world,
+                                   final TileEntityHopper hopper,
+                                   final int placerId) {
+        BlockPos chestPos = hopper.getPos().up();
+        Block block = world.getBlockState(chestPos).getBlock();
+        return manager.canPull(placerId, block, chestPos);
+    }
+
+    /**
+     * @return the id of the player that placed the hopper, {@link ChestLockManager#NO_PLAYER} if it wasn't saved.
+     */
+    private static int placerOf(final ChestLockManager manager, final TileEntityHopper hopper) {
+        NBTTagCompound data = hopper.getTileData();
+
+        if (!data.hasUniqueId(PLACER_TAG)) {
+            return ChestLockManager.NO_PLAYER;
+        }
+
+        return manager.getPlayerId(data.getUniqueId(PLACER_TAG), data.getString(PLACER_NAME_TAG));
+    }
+
+    private static final class Guard {
+        private final TileEntityHopper hopper;
+        // The position above the hopper
+        private final long packedPos;
+        private final int placerId;
+
+        private Guard(final TileEntityHopper hopper, final long packedPos, final int placerId) {
+            this.hopper = hopper;
+            this.packedPos = packedPos;
+            this.placerId = placerId;
+        }
+    }
+
+    private static final class WorldHoppers {
+        // Every watched hopper by the position above it
+        private final Map<Long, Guard> guards = Maps.newHashMap();
+        // The hoppers that may not pull
+        private final Set<Guard> held = Sets.newLinkedHashSet();
+        // Positions above watched hoppers whose acl or block changed, the manager adds to it on any thread
+        private final Queue<Long> changed = new ConcurrentLinkedQueue<>();
+        private final LongConsumer aclListener = changed::add;
+        private ChestLockManager manager;
+        private long groupVersion;
+
+        /**
+         * Listens to the acl changes of the manager, a dimension that loads again has a new one.
+         * @return true if the manager is new, every hopper has to be checked again.
+         */
+        private boolean bind(final ChestLockManager chestLockManager) {
+            if (manager == chestLockManager) {
+                return false;
+            }
+
+            if (manager != null) {
+                manager.removeAclListener(aclListener);
+            }
+
+            chestLockManager.addAclListener(aclListener);
+            manager = chestLockManager;
+            return true;
+        }
+
+        private void check(final World world, final Guard guard) {
+            if (guard.hopper.isInvalid()) {
+                drop(guard);
+            } else if (mayPull(manager, world, guard.hopper, guard.placerId)) {
+                held.remove(guard);
+            } else {
+                held.add(guard);
+            }
+        }
+
+        private void drop(final Guard guard) {
+            guards.remove(guard.packedPos, guard);
+            held.remove(guard);
+        }
+    }
+}
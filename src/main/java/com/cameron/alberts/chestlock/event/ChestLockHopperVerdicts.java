@@ -0,0 +1,78 @@
+package com.cameron.alberts.chestlock.event;
+
+import com.cameron.alberts.chestlock.ChestLockManager;
+import net.minecraft.entity.item.EntityMinecartHopper;
+import net.minecraft.util.math.BlockPos;
+
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * Keeps hopper minecarts from pulling items out of locked chests. A cart pulls from the block above its rail,
+ * the verdict of whether that is a locked chest is cached per cart and only looked up again once the cart moves
+ * to another rail or an acl in its dimension changes, so a cart costs a few comparisons per tick.
+ *
+ * A cart has no owner to check the acl against, so it never pulls from a locked chest. It is disabled the same
+ * way an unpowered activator rail disables it, and enabled again once it leaves the chest. The flag is saved on
+ * the cart so a cart that unloads while under a chest is still enabled again later.
+ *
+ * Only used on the server thread.
+ */
+final class ChestLockHopperVerdicts {
+    // Set on carts this disabled, saved with the cart
+    private static final String DISABLED_TAG = "chestlock.disabled";
+
+    private final Map<EntityMinecartHopper, Verdict> verdicts;
+
+    ChestLockHopperVerdicts() {
+        this.verdicts = new WeakHashMap<>();
+    }
+
+    /**
+     * Called every tick for every hopper minecart, before it pulls items.
+     * @param railPos the position of the rail the cart is on.
+     */
+    void update(final ChestLockManager manager, final EntityMinecartHopper minecart, final BlockPos railPos) {
+        long aclVersion = manager.getAclVersion();
+        Verdict verdict = verdicts.get(minecart);
+
+        if (verdict == null) {
+            verdict = new Verdict();
+            verdict.disabled = minecart.getEntityData().getBoolean(DISABLED_TAG);
+            verdicts.put(minecart, verdict);
+        }
+
+        if (verdict.manager != manager || verdict.aclVersion != aclVersion
+                || verdict.x != railPos.getX() || verdict.y != railPos.getY() || verdict.z != railPos.getZ()) {
+            verdict.manager = manager;
+            verdict.aclVersion = aclVersion;
+            verdict.x = railPos.getX();
+            verdict.y = railPos.getY();
+            verdict.z = railPos.getZ();
+            verdict.locked = manager.isLocked(minecart.getEntityWorld(), railPos.up());
+        }
+
+        if (verdict.locked && !verdict.disabled && minecart.getBlocked()) {
+            // getBlocked is true while the cart is allowed to pull
+            minecart.setBlocked(false);
+            minecart.getEntityData().setBoolean(DISABLED_TAG, true);
+            verdict.disabled = true;
+        } else if (!verdict.locked && verdict.disabled) {
+            minecart.setBlocked(true);
+            minecart.getEntityData().removeTag(DISABLED_TAG);
+            verdict.disabled = false;
+        }
+    }
+
+    private static final class Verdict {
+        private ChestLockManager manager;
+        private long aclVersion;
+        private int x;
+        private int y;
+        private int z;
+        // True if the block above the rail is a locked chest
+        private boolean locked;
+        // True while the cart is disabled by this
+        private boolean disabled;
+    }
+}
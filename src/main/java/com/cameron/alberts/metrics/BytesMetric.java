@@ -0,0 +1,64 @@
+package com.cameron.alberts.metrics;
+
+import com.google.common.collect.Maps;
+
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * Sizes of something written over and over, like region files. Create one per name and keep it in a static
+ * field. The {@link MetricWriter} writes the last recorded size each summary interval, and the running total
+ * of every size recorded as {@code <name>.total}. A metric disabled in {@link MetricSettings} is never written
+ * and ignores what is recorded.
+ */
+public final class BytesMetric {
+    private static final String VERSION = "1.0";
+    private static final String METRIC_TYPE = "BytesMetric";
+    private static final String UNIT = "BYTES";
+    private static final String TOTAL_SUFFIX = ".total";
+    private static final Map<String, BytesMetric> SIZES = Maps.newConcurrentMap();
+
+    private static final BytesMetric DISABLED = new BytesMetric(false);
+
+    private final boolean enabled;
+    private final LongAdder total;
+    private volatile long last;
+
+    private BytesMetric(final boolean enabled) {
+        this.enabled = enabled;
+        this.total = new LongAdder();
+    }
+
+    /**
+     * @return the metric with this name, every call with the same name returns the same metric.
+     */
+    public static BytesMetric create(final String metricName) {
+        if (MetricSettings.sampleRateOf(metricName) == MetricSettings.DISABLED) {
+            return DISABLED;
+        }
+
+        return SIZES.computeIfAbsent(metricName, name -> new BytesMetric(true));
+    }
+
+    public void record(final long bytes) {
+        if (enabled) {
+            last = bytes;
+            total.add(bytes);
+        }
+    }
+
+    /**
+     * Passes a record of every metric's last size and one of its running total.
+     */
+    static void report(final Consumer<MetricRecord> consumer) {
+        SIZES.forEach((metricName, size) -> {
+            MetricRecord lastRecord = new MetricRecord();
+            MetricRecord totalRecord = new MetricRecord();
+            lastRecord.set(metricName, size.last, METRIC_TYPE, UNIT, VERSION);
+            totalRecord.set(metricName + TOTAL_SUFFIX, size.total.sum(), METRIC_TYPE, UNIT, VERSION);
+            consumer.accept(lastRecord);
+            consumer.accept(totalRecord);
+        });
+    }
+}
@@ -0,0 +1,64 @@
+package com.cameron.alberts.metrics;
+
+import com.google.common.collect.Maps;
+
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * Counts how often something happens. Create one per name and keep it in a static field, incrementing is a
+ * striped {@link LongAdder} add so threads counting at once don't contend. The {@link MetricWriter} writes the
+ * running total of every counter each summary interval, the change between two lines is what happened in
+ * between. A counter disabled in {@link MetricSettings} is never written and ignores increments.
+ */
+public final class CounterMetric {
+    static final String VERSION = "1.0";
+    static final String METRIC_TYPE = "CounterMetric";
+    static final String UNIT = "COUNT";
+    private static final Map<String, CounterMetric> COUNTERS = Maps.newConcurrentMap();
+
+    private static final CounterMetric DISABLED = new CounterMetric(false);
+
+    private final boolean enabled;
+    private final LongAdder count;
+
+    private CounterMetric(final boolean enabled) {
+        this.enabled = enabled;
+        this.count = new LongAdder();
+    }
+
+    /**
+     * @return the counter with this name, every call with the same name returns the same counter.
+     */
+    public static CounterMetric create(final String metricName) {
+        if (MetricSettings.sampleRateOf(metricName) == MetricSettings.DISABLED) {
+            return DISABLED;
+        }
+
+        return COUNTERS.computeIfAbsent(metricName, name -> new CounterMetric(true));
+    }
+
+    public void increment() {
+        if (enabled) {
+            count.increment();
+        }
+    }
+
+    public void add(final long amount) {
+        if (enabled) {
+            count.add(amount);
+        }
+    }
+
+    /**
+     * Passes a record of every counter's running total.
+     */
+    static void report(final Consumer<MetricRecord> consumer) {
+        COUNTERS.forEach((metricName, counter) -> {
+            MetricRecord record = new MetricRecord();
+            record.set(metricName, counter.count.sum(), METRIC_TYPE, UNIT, VERSION);
+            consumer.accept(record);
+        });
+    }
+}
@@ -0,0 +1,50 @@
+package com.cameron.alberts.metrics;
+
+import com.google.common.collect.Maps;
+import lombok.extern.log4j.Log4j2;
+
+import java.util.Map;
+import java.util.function.Consumer;
+import java.util.function.LongSupplier;
+
+/**
+ * A value that goes up and down, like the number of locked chests. Nothing is recorded while the game runs,
+ * the {@link MetricWriter} reads every registered gauge each summary interval on its own thread, so the
+ * supplier has to be safe to call from any thread.
+ */
+@Log4j2
+public final class GaugeMetric {
+    private static final String VERSION = "1.0";
+    private static final String METRIC_TYPE = "GaugeMetric";
+    private static final Map<String, LongSupplier> GAUGES = Maps.newConcurrentMap();
+
+    private GaugeMetric() {}
+
+    /**
+     * Registers the gauge, replacing any gauge registered with the same name before. Does nothing if the gauge
+     * is disabled in {@link MetricSettings}.
+     */
+    public static void register(final String metricName, final LongSupplier supplier) {
+        if (MetricSettings.sampleRateOf(metricName) != MetricSettings.DISABLED) {
+            GAUGES.put(metricName, supplier);
+        }
+    }
+
+    /**
+     * Passes a record of every gauge's current value, a gauge that throws is skipped.
+     */
+    static void report(final Consumer<MetricRecord> consumer) {
+        GAUGES.forEach((metricName, supplier) -> {
+            MetricRecord record = new MetricRecord();
+
+            try {
+                record.set(metricName, supplier.getAsLong(), METRIC_TYPE, CounterMetric.UNIT, VERSION);
+            } catch (RuntimeException e) {
+                log.error("Failed to read gauge {}", metricName, e);
+                return;
+            }
+
+            consumer.accept(record);
+        });
+    }
+}
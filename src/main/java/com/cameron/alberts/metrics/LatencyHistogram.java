@@ -0,0 +1,107 @@
+package com.cameron.alberts.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+
+/**
+ * Fixed size histogram of latencies in microseconds with the log-linear buckets of an HDR histogram. Values
+ * below {@code 2 * }{@value #SUB_BUCKETS} have a bucket each, above that every power of two is split into
+ * {@value #SUB_BUCKETS} buckets, so any value is reported within 1% of what was recorded. Values above an hour
+ * are counted as an hour.
+ *
+ * Any thread can record. {@link #summarize(String)} moves the counts out bucket by bucket, so a value recorded
+ * while it runs is reported in either this interval or the next one, never both.
+ */
+final class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 7;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    // Values with up to this many bits have a bucket each
+    private static final int LINEAR_BITS = SUB_BUCKET_BITS + 1;
+    private static final int LINEAR_BUCKETS = 1 << LINEAR_BITS;
+    static final long MAX_VALUE = 60L * 60 * 1000 * 1000;
+    private static final double[] PERCENTILES = {50, 90, 99, 99.9};
+
+    private final AtomicLongArray counts;
+    private final AtomicLong count;
+    private final AtomicLong sum;
+    private final LongAccumulator max;
+
+    LatencyHistogram() {
+        this.counts = new AtomicLongArray(indexOf(MAX_VALUE) + 1);
+        this.count = new AtomicLong();
+        this.sum = new AtomicLong();
+        this.max = new LongAccumulator(Math::max, 0);
+    }
+
+    void record(final long value) {
+        long clampedValue = Math.max(0, Math.min(value, MAX_VALUE));
+
+        counts.incrementAndGet(indexOf(clampedValue));
+        sum.addAndGet(clampedValue);
+        max.accumulate(clampedValue);
+        count.incrementAndGet();
+    }
+
+    /**
+     * Summarizes everything recorded since the last summary and starts the next interval.
+     * @return the summary, or null if nothing was recorded.
+     */
+    TimerSummary summarize(final String metricName) {
+        long intervalCount = count.getAndSet(0);
+
+        if (intervalCount == 0) {
+            return null;
+        }
+
+        long intervalSum = sum.getAndSet(0);
+        long intervalMax = max.getThenReset();
+        long[] intervalCounts = new long[counts.length()];
+        long bucketedCount = 0;
+
+        for (int index = 0; index < intervalCounts.length; index++) {
+            intervalCounts[index] = counts.getAndSet(index, 0);
+            bucketedCount += intervalCounts[index];
+        }
+
+        long[] percentileValues = new long[PERCENTILES.length];
+        long seen = 0;
+        int percentile = 0;
+
+        for (int index = 0; index < intervalCounts.length && percentile < PERCENTILES.length; index++) {
+            seen += intervalCounts[index];
+
+            while (percentile < PERCENTILES.length && seen > 0 && seen >= Math.ceil(bucketedCount * PERCENTILES[percentile] / 100)) {
+                // Never above the max, the bucket's highest value can be
+                percentileValues[percentile++] = Math.min(highestValueOf(index), intervalMax);
+            }
+        }
+
+        return new TimerSummary(metricName, intervalCount, (double) intervalSum / intervalCount,
+                percentileValues[0], percentileValues[1], percentileValues[2], percentileValues[3], intervalMax);
+    }
+
+    static int indexOf(final long value) {
+        int bits = 64 - Long.numberOfLeadingZeros(value);
+
+        if (bits <= LINEAR_BITS) {
+            return (int) value;
+        }
+
+        int shift = bits - LINEAR_BITS;
+        return LINEAR_BUCKETS + (shift - 1) * SUB_BUCKETS + (int) (value >>> shift) - SUB_BUCKETS;
+    }
+
+    /**
+     * @return the highest value counted in the bucket.
+     */
+    static long highestValueOf(final int index) {
+        if (index < LINEAR_BUCKETS) {
+            return index;
+        }
+
+        int shift = (index - LINEAR_BUCKETS) / SUB_BUCKETS + 1;
+        long subBucket = (index - LINEAR_BUCKETS) % SUB_BUCKETS + SUB_BUCKETS;
+        return ((subBucket + 1) << shift) - 1;
+    }
+}
@@ -1,26 +1,6 @@
 package com.cameron.alberts.metrics;
 
-import com.google.gson.Gson;
-import com.google.gson.GsonBuilder;
-
-import java.io.File;
-import java.io.FileWriter;
-import java.io.IOException;
-import java.io.PrintWriter;
-
 public class Metric implements AutoCloseable {
-    private static final Gson GSON = new GsonBuilder().create();
-
-    private static PrintWriter printWriter;
-
-    static {
-        try {
-            printWriter = new PrintWriter(new FileWriter(new File("metrics.json"), true));
-        } catch (IOException e) {
-            throw new RuntimeException(e);
-        }
-    }
-
     private String metricName;
     private double metricValue;
     private String metricType;
@@ -36,18 +16,21 @@ public class Metric implements AutoCloseable {
         this.metricName = metricName;
     }
 
+    String getMetricName() {
+        return metricName;
+    }
+
     void setMetricValue(final double metricValue, final String unit) {
         this.metricValue = metricValue;
         this.unit = unit;
     }
 
+    /**
+     * Queues the metric to be written to metrics.json by the {@link MetricWriter}, this never blocks and
+     * drops the metric if the writer is too far behind.
+     */
     @Override
     public void close() {
-        Metric.writeMetric(this);
-    }
-
-    private static void writeMetric(final Metric metric) {
-        printWriter.println(GSON.toJson(metric));
-        printWriter.flush();
+        MetricWriter.get().write(metricName, metricValue, metricType, unit, version);
     }
 }
@@ -0,0 +1,25 @@
+package com.cameron.alberts.metrics;
+
+/**
+ * One slot of the {@link MetricRingBuffer}, allocated once and filled in again for every metric written
+ * through it. Field names match {@link Metric}, so a record serializes to the same json line a metric did.
+ */
+final class MetricRecord {
+    String metricName;
+    double metricValue;
+    String metricType;
+    String unit;
+    String version;
+
+    void set(final String metricName,
+             final double metricValue,
+             final String metricType,
+             final String unit,
+             final String version) {
+        this.metricName = metricName;
+        this.metricValue = metricValue;
+        this.metricType = metricType;
+        this.unit = unit;
+        this.version = version;
+    }
+}
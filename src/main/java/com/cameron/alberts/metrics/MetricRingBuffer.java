@@ -0,0 +1,107 @@
+package com.cameron.alberts.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * Bounded lock-free queue of {@link MetricRecord}s, any number of threads offer records and one writer drains
+ * them. Every slot is allocated up front, so offering a record allocates nothing and never blocks. When the
+ * writer falls behind and the buffer is full the record is dropped and counted instead, the tick is never
+ * held up by metrics.
+ *
+ * Each slot has a sequence number. A slot is free for the producer claiming position {@code p} when its
+ * sequence is {@code p}, is published by setting it to {@code p + 1}, and is handed back by the writer by
+ * setting it to {@code p + capacity}, the position that next maps to it.
+ */
+final class MetricRingBuffer {
+    private final MetricRecord[] records;
+    private final AtomicLongArray sequences;
+    private final int mask;
+    // Next position a producer claims
+    private final AtomicLong tail;
+    private final LongAdder dropped;
+    // Next position the writer reads, only touched by the writer
+    private long head;
+
+    /**
+     * @param capacity the number of records the buffer holds, a power of two.
+     */
+    MetricRingBuffer(final int capacity) {
+        if (Integer.bitCount(capacity) != 1) {
+            throw new IllegalArgumentException("The capacity has to be a power of two, was " + capacity);
+        }
+
+        this.records = new MetricRecord[capacity];
+        this.sequences = new AtomicLongArray(capacity);
+        this.mask = capacity - 1;
+        this.tail = new AtomicLong();
+        this.dropped = new LongAdder();
+
+        for (int index = 0; index < capacity; index++) {
+            records[index] = new MetricRecord();
+            sequences.set(index, index);
+        }
+    }
+
+    /**
+     * Copies the metric into a free slot.
+     * @return false if the buffer was full and the metric was dropped.
+     */
+    boolean offer(final String metricName,
+                  final double metricValue,
+                  final String metricType,
+                  final String unit,
+                  final String version) {
+        while (true) {
+            long position = tail.get();
+            int index = (int) position & mask;
+            long sequence = sequences.get(index);
+
+            if (sequence == position) {
+                if (tail.compareAndSet(position, position + 1)) {
+                    records[index].set(metricName, metricValue, metricType, unit, version);
+                    sequences.lazySet(index, position + 1);
+                    return true;
+                }
+            } else if (sequence < position) {
+                // The writer hasn't handed this slot back since the last time around
+                dropped.increment();
+                return false;
+            }
+
+            // Another producer claimed the position first, try the next one
+        }
+    }
+
+    /**
+     * Passes every published record to {@code consumer} in the order they were claimed, then hands the slots
+     * back. A record is only valid during the call, it is reused once its slot is handed back. Only the
+     * writer calls this.
+     * @return the number of records drained.
+     */
+    int drain(final Consumer<MetricRecord> consumer) {
+        int drained = 0;
+
+        while (true) {
+            int index = (int) head & mask;
+
+            if (sequences.get(index) != head + 1) {
+                return drained;
+            }
+
+            consumer.accept(records[index]);
+            sequences.lazySet(index, head + records.length);
+            head++;
+            drained++;
+        }
+    }
+
+    /**
+     * @return the number of records dropped because the buffer was full.
+     */
+    long getDropped() {
+        return dropped.sum();
+    }
+}
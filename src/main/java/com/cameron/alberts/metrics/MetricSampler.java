@@ -0,0 +1,59 @@
+package com.cameron.alberts.metrics;
+
+import com.google.common.collect.Lists;
+
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Decides which calls of a {@link TimerMetric} are timed. Create one per name and keep it in a static final
+ * field, a disabled timer costs a field read and one comparison and {@link TimerMetric#start(MetricSampler)}
+ * allocates nothing.
+ *
+ * Samplers are created by static initializers, which can run before the configuration is read, so every
+ * sampler reads its rate from {@link MetricSettings} again each time they are configured.
+ */
+public final class MetricSampler {
+    private static final List<MetricSampler> SAMPLERS = Lists.newCopyOnWriteArrayList();
+
+    private final String metricName;
+    private volatile int sampleRate;
+
+    private MetricSampler(final String metricName) {
+        this.metricName = metricName;
+        this.sampleRate = MetricSettings.sampleRateOf(metricName);
+    }
+
+    public static MetricSampler of(final String metricName) {
+        MetricSampler sampler = new MetricSampler(metricName);
+        SAMPLERS.add(sampler);
+        return sampler;
+    }
+
+    /**
+     * Reads the rate of every sampler created so far again, called when {@link MetricSettings} change.
+     */
+    static void resolveAll() {
+        for (MetricSampler sampler : SAMPLERS) {
+            sampler.sampleRate = MetricSettings.sampleRateOf(sampler.metricName);
+        }
+    }
+
+    /**
+     * @return true if this call should be timed.
+     */
+    boolean sample() {
+        int rate = sampleRate;
+
+        if (rate == MetricSettings.DISABLED) {
+            return false;
+        }
+
+        // Random instead of a shared counter, so threads timing at once don't contend
+        return rate == MetricSettings.EVERY_CALL || ThreadLocalRandom.current().nextInt(rate) == 0;
+    }
+
+    String getMetricName() {
+        return metricName;
+    }
+}
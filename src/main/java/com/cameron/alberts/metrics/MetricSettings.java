@@ -0,0 +1,52 @@
+package com.cameron.alberts.metrics;
+
+import com.google.common.collect.ImmutableMap;
+
+import java.util.Map;
+
+/**
+ * How often each metric is recorded, set from the configuration before any metric is created. A sample rate of
+ * N records one in N timings, 1 records every one and {@value #DISABLED} turns the metric off. Counters, gauges
+ * and sizes aren't sampled, any rate above {@value #DISABLED} records them in full.
+ *
+ * Timers follow every change, their {@link MetricSampler}s read their rate again. Counters, gauges and sizes read
+ * their rate once, when they are created, so they have to be created after {@link #configure(int, Map)}, which
+ * the mod calls in pre-initialization before any class with a metric is loaded.
+ */
+public final class MetricSettings {
+    public static final int DISABLED = 0;
+    public static final int EVERY_CALL = 1;
+
+    private static volatile int defaultSampleRate = EVERY_CALL;
+    private static volatile Map<String, Integer> sampleRates = ImmutableMap.of();
+
+    private MetricSettings() {}
+
+    /**
+     * Starts the {@link MetricWriter} if any metric is enabled, while every metric is disabled metrics.json
+     * isn't even opened.
+     * @param defaultRate the sample rate of every metric without one of its own.
+     * @param rates the sample rate of each metric, by name.
+     */
+    public static void configure(final int defaultRate, final Map<String, Integer> rates) {
+        if (update(defaultRate, rates)) {
+            MetricWriter.get();
+        }
+    }
+
+    /**
+     * Changes the sample rates without starting the {@link MetricWriter}.
+     * @return true if any metric is enabled.
+     */
+    static boolean update(final int defaultRate, final Map<String, Integer> rates) {
+        sampleRates = ImmutableMap.copyOf(rates);
+        defaultSampleRate = defaultRate;
+        MetricSampler.resolveAll();
+
+        return defaultRate > DISABLED || rates.values().stream().anyMatch(rate -> rate > DISABLED);
+    }
+
+    static int sampleRateOf(final String metricName) {
+        return Math.max(DISABLED, sampleRates.getOrDefault(metricName, defaultSampleRate));
+    }
+}
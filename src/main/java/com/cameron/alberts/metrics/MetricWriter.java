@@ -0,0 +1,181 @@
+package com.cameron.alberts.metrics;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import lombok.extern.log4j.Log4j2;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Drains the {@link MetricRingBuffer} on a background thread and appends each record to {@code metrics.json}
+ * as a json line. Everything drained in one pass is written with one flush. When the buffer had to drop
+ * records the running total is written as a {@value #DROPPED_METRIC_NAME} counter, so gaps in the file are
+ * visible. Every {@link TimerMetric#getSummaryIntervalNanos()} the writer also writes a {@link TimerSummary} of
+ * each timer and the current value of every {@link CounterMetric}, {@link GaugeMetric} and {@link BytesMetric}.
+ * Whatever is still buffered when the JVM exits is written by a shutdown hook.
+ *
+ * The writer is started, and the file opened, once {@link MetricSettings} are configured with any metric
+ * enabled. While every metric is disabled nothing is ever opened.
+ */
+@Log4j2
+final class MetricWriter {
+    static final String DROPPED_METRIC_NAME = "droppedMetrics";
+    private static final String FILE_NAME = "metrics.json";
+    // Enough for a few seconds of every event handler firing every tick
+    private static final int CAPACITY = 1 << 13;
+    private static final long IDLE_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+    private static final long SHUTDOWN_TIMEOUT_MILLIS = 1000;
+    private static final Gson GSON = new GsonBuilder().create();
+
+    private static volatile boolean started;
+
+    private final MetricRingBuffer buffer;
+    private final MetricRecord droppedRecord;
+    private final Thread thread;
+    private volatile boolean closing;
+    // Only touched by the writer thread
+    private Writer writer;
+    private long writtenDropped;
+    private long lastSummaryNanos;
+
+    private MetricWriter() {
+        this.buffer = new MetricRingBuffer(CAPACITY);
+        this.droppedRecord = new MetricRecord();
+
+        try {
+            this.writer = new BufferedWriter(new FileWriter(new File(FILE_NAME), true));
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+
+        this.thread = new Thread(this::run, "ChestLock Metric Writer");
+        this.thread.setDaemon(true);
+        this.thread.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(this::close, "ChestLock Metric Writer Shutdown"));
+        started = true;
+    }
+
+    /**
+     * @return the writer, opening metrics.json and starting the writer thread the first time.
+     */
+    static MetricWriter get() {
+        return Holder.INSTANCE;
+    }
+
+    /**
+     * @return true once {@link #get()} started the writer.
+     */
+    static boolean isStarted() {
+        return started;
+    }
+
+    /**
+     * Queues a metric to be written, never blocks.
+     * @return false if the buffer was full and the metric was dropped.
+     */
+    boolean write(final String metricName,
+                  final double metricValue,
+                  final String metricType,
+                  final String unit,
+                  final String version) {
+        return buffer.offer(metricName, metricValue, metricType, unit, version);
+    }
+
+    private void run() {
+        lastSummaryNanos = System.nanoTime();
+
+        while (!closing) {
+            if (System.nanoTime() - lastSummaryNanos >= TimerMetric.getSummaryIntervalNanos()) {
+                writeSummaries();
+            }
+
+            if (writeBatch() == 0) {
+                LockSupport.parkNanos(this, IDLE_NANOS);
+            }
+        }
+
+        // The shutdown hook is waiting, write what is left
+        writeBatch();
+        writeSummaries();
+
+        try {
+            writer.close();
+        } catch (IOException e) {
+            log.error("Failed to close {}", FILE_NAME, e);
+        }
+    }
+
+    /**
+     * @return the number of records drained.
+     */
+    private int writeBatch() {
+        int drained = buffer.drain(this::append);
+        long dropped = buffer.getDropped();
+
+        boolean droppedChanged = dropped != writtenDropped;
+
+        if (droppedChanged) {
+            droppedRecord.set(DROPPED_METRIC_NAME, dropped, CounterMetric.METRIC_TYPE, CounterMetric.UNIT, CounterMetric.VERSION);
+            append(droppedRecord);
+            writtenDropped = dropped;
+        }
+
+        if (drained > 0 || droppedChanged) {
+            try {
+                writer.flush();
+            } catch (IOException e) {
+                log.error("Failed to write {}", FILE_NAME, e);
+            }
+        }
+
+        return drained;
+    }
+
+    private void writeSummaries() {
+        lastSummaryNanos = System.nanoTime();
+        TimerMetric.summarize(this::append);
+        CounterMetric.report(this::append);
+        GaugeMetric.report(this::append);
+        BytesMetric.report(this::append);
+
+        try {
+            writer.flush();
+        } catch (IOException e) {
+            log.error("Failed to write {}", FILE_NAME, e);
+        }
+    }
+
+    /**
+     * Appends the record or summary as a json line, it is written once the writer is flushed.
+     */
+    private void append(final Object record) {
+        try {
+            writer.write(GSON.toJson(record));
+            writer.write(System.lineSeparator());
+        } catch (IOException e) {
+            log.error("Failed to write {}", FILE_NAME, e);
+        }
+    }
+
+    private void close() {
+        closing = true;
+        LockSupport.unpark(thread);
+
+        try {
+            thread.join(SHUTDOWN_TIMEOUT_MILLIS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // Initialized on first use, so the file isn't opened unless a metric is enabled
+    private static final class Holder {
+        private static final MetricWriter INSTANCE = new MetricWriter();
+    }
+}
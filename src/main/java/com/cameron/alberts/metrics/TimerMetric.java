@@ -1,30 +1,97 @@
 package com.cameron.alberts.metrics;
 
 import com.google.common.base.Stopwatch;
+import com.google.common.collect.Maps;
 
+import java.util.Map;
 import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
 
+/**
+ * Times a block of code. Timings are aggregated into a {@link LatencyHistogram} per metric name and the
+ * {@link MetricWriter} writes a {@link TimerSummary} of each every summary interval. In raw mode every timing
+ * is written on its own line instead, like before histograms, which is useful while debugging.
+ *
+ * Only the calls picked by the timer's {@link MetricSampler} are timed, the summary's count is of those calls.
+ * Every other call gets a shared timer that does nothing when closed.
+ */
 public class TimerMetric extends Metric {
     private static final String VERSION = "1.0";
     private static final String METRIC_TYPE = "TimerMetric";
+    static final String UNIT = TimeUnit.MICROSECONDS.name();
+    private static final Map<String, LatencyHistogram> HISTOGRAMS = Maps.newConcurrentMap();
+    static final TimerMetric NOT_SAMPLED = new TimerMetric(null);
+
+    private static volatile boolean rawOutput;
+    private static volatile long summaryIntervalNanos = TimeUnit.SECONDS.toNanos(60);
 
     private transient Stopwatch stopwatch; // Marked transient to avoid Gson serialization
 
-    private TimerMetric() {
+    private TimerMetric(final Stopwatch stopwatch) {
         super(VERSION, METRIC_TYPE);
-        stopwatch = Stopwatch.createStarted();
+        this.stopwatch = stopwatch;
     }
 
-    public static TimerMetric create(final String metricName) {
-        TimerMetric metric = new TimerMetric();
-        metric.setMetricName(metricName);
+    /**
+     * Starts timing, if the sampler picks this call.
+     */
+    public static TimerMetric start(final MetricSampler sampler) {
+        if (!sampler.sample()) {
+            return NOT_SAMPLED;
+        }
+
+        TimerMetric metric = new TimerMetric(Stopwatch.createStarted());
+        metric.setMetricName(sampler.getMetricName());
 
         return metric;
     }
 
+    /**
+     * @param raw true to write every timing on its own line instead of periodic summaries.
+     * @param summaryIntervalSeconds how often the summaries are written.
+     */
+    public static void configure(final boolean raw, final long summaryIntervalSeconds) {
+        rawOutput = raw;
+        summaryIntervalNanos = TimeUnit.SECONDS.toNanos(summaryIntervalSeconds);
+    }
+
+    static long getSummaryIntervalNanos() {
+        return summaryIntervalNanos;
+    }
+
+    /**
+     * Passes a summary of every timer that recorded anything since the last call, then starts the next interval.
+     */
+    static void summarize(final Consumer<TimerSummary> consumer) {
+        HISTOGRAMS.forEach((metricName, histogram) -> {
+            TimerSummary summary = histogram.summarize(metricName);
+
+            if (summary != null) {
+                consumer.accept(summary);
+            }
+        });
+    }
+
     @Override
     public void close() {
-        setMetricValue(stopwatch.elapsed(TimeUnit.MICROSECONDS), TimeUnit.MICROSECONDS.name());
-        super.close();
+        if (stopwatch == null) {
+            return;
+        }
+
+        long elapsedMicros = stopwatch.elapsed(TimeUnit.MICROSECONDS);
+
+        if (rawOutput) {
+            setMetricValue(elapsedMicros, UNIT);
+            super.close();
+            return;
+        }
+
+        LatencyHistogram histogram = HISTOGRAMS.get(getMetricName());
+
+        if (histogram == null) {
+            histogram = HISTOGRAMS.computeIfAbsent(getMetricName(), name -> new LatencyHistogram());
+        }
+
+        histogram.record(elapsedMicros);
     }
 }
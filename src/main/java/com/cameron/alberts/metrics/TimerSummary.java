@@ -0,0 +1,59 @@
+package com.cameron.alberts.metrics;
+
+/**
+ * One interval of a {@link TimerMetric}'s {@link LatencyHistogram}, written as a single json line in place of
+ * a line per timed call. Every value is in microseconds.
+ */
+final class TimerSummary {
+    private static final String VERSION = "1.0";
+    private static final String METRIC_TYPE = "TimerSummary";
+
+    private final String metricName;
+    private final String metricType;
+    private final String unit;
+    private final String version;
+    private final long count;
+    private final double mean;
+    private final long p50;
+    private final long p90;
+    private final long p99;
+    private final long p999;
+    private final long max;
+
+    TimerSummary(final String metricName,
+                 final long count,
+                 final double mean,
+                 final long p50,
+                 final long p90,
+                 final long p99,
+                 final long p999,
+                 final long max) {
+        this.metricName = metricName;
+        this.metricType = METRIC_TYPE;
+        this.unit = TimerMetric.UNIT;
+        this.version = VERSION;
+        this.count = count;
+        this.mean = mean;
+        this.p50 = p50;
+        this.p90 = p90;
+        this.p99 = p99;
+        this.p999 = p999;
+        this.max = max;
+    }
+
+    long getCount() {
+        return count;
+    }
+
+    long getP50() {
+        return p50;
+    }
+
+    long getP99() {
+        return p99;
+    }
+
+    long getMax() {
+        return max;
+    }
+}
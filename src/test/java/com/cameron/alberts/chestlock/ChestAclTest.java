@@ -0,0 +1,39 @@
+package com.cameron.alberts.chestlock;
+
+import com.google.common.collect.ImmutableMap;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ChestAclTest {
+    private static final int OWNER = 7;
+    private static final int FRIEND = 3;
+    private static final int NOBODY = 42;
+
+    @Test
+    public void equalAclsAreInternedToOneReference() {
+        final ChestAcl acl = ChestAcl.of(ImmutableMap.of(OWNER, ChestPermissions.ROOT, FRIEND, ChestPermissions.USER));
+        final ChestAcl sameAcl = ChestAcl.of(ImmutableMap.of(FRIEND, ChestPermissions.USER, OWNER, ChestPermissions.ROOT));
+
+        Assert.assertSame(acl, sameAcl);
+    }
+
+    @Test
+    public void withReturnsCanonicalAclAndLeavesOriginalUnchanged() {
+        final ChestAcl acl = ChestAcl.root(OWNER);
+        final ChestAcl changedAcl = acl.with(FRIEND, ChestPermissions.MOD);
+
+        Assert.assertNull(acl.get(FRIEND));
+        Assert.assertEquals(ChestPermissions.MOD, changedAcl.get(FRIEND));
+        Assert.assertEquals(FRIEND, changedAcl.playerIdAt(0));
+        Assert.assertSame(changedAcl, ChestAcl.of(ImmutableMap.of(OWNER, ChestPermissions.ROOT, FRIEND, ChestPermissions.MOD)));
+    }
+
+    @Test
+    public void withoutReturnsToTheOriginalAcl() {
+        final ChestAcl acl = ChestAcl.root(OWNER);
+
+        Assert.assertSame(acl, acl.with(FRIEND, ChestPermissions.USER).without(FRIEND));
+        Assert.assertSame(acl, acl.without(NOBODY));
+        Assert.assertSame(acl, acl.with(OWNER, ChestPermissions.ROOT));
+    }
+}
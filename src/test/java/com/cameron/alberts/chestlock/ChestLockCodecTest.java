@@ -0,0 +1,69 @@
+package com.cameron.alberts.chestlock;
+
+import com.google.common.collect.Lists;
+import net.minecraft.init.Bootstrap;
+import net.minecraft.nbt.NBTTagCompound;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.UUID;
+
+public class ChestLockCodecTest {
+    static {
+        // ChestBlock registers the vanilla chests when it loads
+        Bootstrap.register();
+    }
+
+    private static final UUID OWNER_UUID = UUID.fromString("6a085b2c-19fb-4986-b453-231aa942bbec");
+    private static final UUID MEMBER_UUID = UUID.fromString("0f4a2e4c-8d7b-4c6e-9a53-5b1d9c2e7f10");
+
+    @Test
+    public void snapshotRoundTripsThroughNbt() {
+        final ChestLockPlayerRegistry registry = new ChestLockPlayerRegistry(name -> UUID.randomUUID());
+        final int owner = registry.idOf(OWNER_UUID, "Steve");
+        final int member = registry.idOf(MEMBER_UUID, "Alex");
+        final ChestAcl sharedAcl = ChestAcl.root(owner).with(member, ChestPermissions.USER);
+        final ChestBlock[] chestBlocks = {
+                new ChestBlock("tile.chest", new ChestPos(-5, 64, 7)),
+                new ChestBlock("tile.chest", new ChestPos(-4, 64, 7)),
+                new ChestBlock("tile.enderChest", new ChestPos(30000000, -1, -30000000))
+        };
+        final ChestLockSnapshot snapshot = new ChestLockSnapshot(chestBlocks, new int[] {0, 0, 1},
+                Lists.newArrayList(sharedAcl, ChestAcl.root(member)),
+                new int[] {owner, ChestLockPlayerRegistry.NO_PLAYER, member}, 42);
+        final NBTTagCompound compound = new NBTTagCompound();
+
+        ChestLockCodec.write(compound, snapshot, registry);
+        Assert.assertTrue(ChestLockCodec.isBinaryFormat(compound));
+        Assert.assertEquals(42, ChestLockCodec.readSequence(compound));
+
+        // A restarted server hands out different ids, players are matched by UUID
+        final ChestLockPlayerRegistry restartedRegistry = new ChestLockPlayerRegistry(name -> UUID.randomUUID());
+        restartedRegistry.idOf(UUID.randomUUID(), "Notch");
+        final ChestLockSnapshot readSnapshot = ChestLockCodec.read(compound, restartedRegistry);
+        final int readOwner = restartedRegistry.idOf(OWNER_UUID, "Steve");
+        final int readMember = restartedRegistry.idOf(MEMBER_UUID, "Alex");
+
+        Assert.assertArrayEquals(chestBlocks, readSnapshot.getChestBlocks());
+        Assert.assertArrayEquals(new int[] {0, 0, 1}, readSnapshot.getAclIndexes());
+        Assert.assertEquals(Lists.newArrayList(ChestAcl.root(readOwner).with(readMember, ChestPermissions.USER),
+                ChestAcl.root(readMember)), readSnapshot.getAcls());
+        Assert.assertArrayEquals(new int[] {readOwner, ChestLockPlayerRegistry.NO_PLAYER, readMember},
+                readSnapshot.getOwners());
+        Assert.assertEquals(42, readSnapshot.getSequence());
+        Assert.assertEquals("Alex", restartedRegistry.nameOf(readMember));
+    }
+
+    @Test
+    public void emptySnapshotRoundTrips() {
+        final ChestLockPlayerRegistry registry = new ChestLockPlayerRegistry(name -> UUID.randomUUID());
+        final NBTTagCompound compound = new NBTTagCompound();
+
+        ChestLockCodec.write(compound, new ChestLockSnapshot(new ChestBlock[0], new int[0], Lists.newArrayList(),
+                new int[0], 0), registry);
+        final ChestLockSnapshot readSnapshot = ChestLockCodec.read(compound, registry);
+
+        Assert.assertEquals(0, readSnapshot.getChestBlocks().length);
+        Assert.assertTrue(readSnapshot.getAcls().isEmpty());
+    }
+}
@@ -0,0 +1,37 @@
+package com.cameron.alberts.chestlock;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ChestLockDecisionCacheTest {
+    private static final int CHEST = 0;
+
+    @Test
+    public void decisionIsOnlyUsedAtTheVersionItWasMadeAt() {
+        final ChestLockDecisionCache cache = new ChestLockDecisionCache();
+        final long packedPos = ChestPos.pack(10, 64, -20);
+
+        cache.put(packedPos, CHEST, 1, false);
+
+        Assert.assertEquals(Boolean.FALSE, cache.get(packedPos, CHEST, 1));
+        Assert.assertNull(cache.get(packedPos, CHEST, 2));
+        Assert.assertNull(cache.get(packedPos, CHEST + 1, 1));
+    }
+
+    @Test
+    public void leastRecentlyUsedDecisionIsReplaced() {
+        final ChestLockDecisionCache cache = new ChestLockDecisionCache();
+
+        for (int x = 0; x < ChestLockDecisionCache.CAPACITY; x++) {
+            cache.put(ChestPos.pack(x, 64, 0), CHEST, 0, true);
+        }
+
+        // Using the first decision makes the second one the least recently used
+        Assert.assertEquals(Boolean.TRUE, cache.get(ChestPos.pack(0, 64, 0), CHEST, 0));
+        cache.put(ChestPos.pack(-1, 64, 0), CHEST, 0, true);
+
+        Assert.assertEquals(Boolean.TRUE, cache.get(ChestPos.pack(0, 64, 0), CHEST, 0));
+        Assert.assertNull(cache.get(ChestPos.pack(1, 64, 0), CHEST, 0));
+        Assert.assertEquals(Boolean.TRUE, cache.get(ChestPos.pack(-1, 64, 0), CHEST, 0));
+    }
+}
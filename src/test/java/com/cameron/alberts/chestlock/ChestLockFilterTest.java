@@ -0,0 +1,52 @@
+package com.cameron.alberts.chestlock;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ChestLockFilterTest {
+    private static final ChestAcl ACL = ChestAcl.root(0);
+
+    @Test
+    public void neverRejectsALockedPosition() {
+        final ChestLockTable table = new ChestLockTable();
+        ChestLockFilter filter = ChestLockFilter.empty();
+
+        for (int x = 0; x < 5000; x++) {
+            long packedPos = ChestPos.pack(x, 64, x * 7);
+            table.put(packedPos, 0, ACL, 0);
+
+            if (filter.isFull(table.size())) {
+                filter = ChestLockFilter.of(table);
+            } else {
+                filter.add(packedPos);
+            }
+        }
+
+        for (int x = 0; x < 5000; x++) {
+            Assert.assertTrue(filter.mightContain(ChestPos.pack(x, 64, x * 7)));
+        }
+    }
+
+    @Test
+    public void rejectsMostUnlockedPositions() {
+        final ChestLockTable table = new ChestLockTable();
+
+        for (int x = 0; x < 1000; x++) {
+            table.put(ChestPos.pack(x, 64, 0), 0, ACL, 0);
+        }
+
+        final ChestLockFilter filter = ChestLockFilter.of(table);
+        int falsePositives = 0;
+
+        for (int z = 1; z <= 100; z++) {
+            for (int x = 0; x < 1000; x++) {
+                if (filter.mightContain(ChestPos.pack(x, 64, z))) {
+                    falsePositives++;
+                }
+            }
+        }
+
+        // Expected to be well under 1% of the 100000 unlocked positions
+        Assert.assertTrue("False positives: " + falsePositives, falsePositives < 1000);
+    }
+}
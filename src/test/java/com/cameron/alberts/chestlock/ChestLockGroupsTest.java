@@ -0,0 +1,45 @@
+package com.cameron.alberts.chestlock;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.UUID;
+
+public class ChestLockGroupsTest {
+    @Test
+    public void membershipChangesBumpTheVersion() {
+        final ChestLockPlayerRegistry registry = new ChestLockPlayerRegistry(name -> UUID.randomUUID());
+        final ChestLockGroups groups = new ChestLockGroups(registry);
+        final int owner = registry.idOf(UUID.randomUUID(), "Steve");
+        final int member = registry.idOf(UUID.randomUUID(), "Alex");
+        final int outsider = registry.idOf(UUID.randomUUID(), "Notch");
+
+        Assert.assertEquals(ChestLockManagerResult.SUCCESSFULLY_CREATED_GROUP, groups.create(owner, "Team"));
+        final int groupId = groups.getGroupId("#team");
+        final long version = groups.getVersion();
+
+        Assert.assertEquals(ChestLockManagerResult.SUCCESSFULLY_ADDED_MEMBER, groups.addMember(owner, groupId, member));
+        Assert.assertTrue(groups.isMember(groupId, member));
+        Assert.assertFalse(groups.isMember(groupId, outsider));
+        Assert.assertTrue(groups.getVersion() > version);
+
+        Assert.assertEquals(ChestLockManagerResult.SUCCESSFULLY_REMOVED_MEMBER, groups.removeMember(owner, groupId, member));
+        Assert.assertFalse(groups.isMember(groupId, member));
+    }
+
+    @Test
+    public void onlyTheOwnerChangesMembers() {
+        final ChestLockPlayerRegistry registry = new ChestLockPlayerRegistry(name -> UUID.randomUUID());
+        final ChestLockGroups groups = new ChestLockGroups(registry);
+        final int owner = registry.idOf(UUID.randomUUID(), "Steve");
+        final int member = registry.idOf(UUID.randomUUID(), "Alex");
+
+        groups.create(owner, "Team");
+        final int groupId = groups.getGroupId("Team");
+
+        Assert.assertEquals(ChestLockManagerResult.GROUP_ALREADY_EXISTS, groups.create(member, "team"));
+        Assert.assertEquals(ChestLockManagerResult.PERMISSION_DENIED, groups.addMember(member, groupId, member));
+        Assert.assertEquals(ChestLockManagerResult.INVALID_GROUP_NAME, groups.create(owner, "not a name"));
+        Assert.assertEquals(ChestLockGroups.NO_GROUP, groups.getGroupId("#other"));
+    }
+}
@@ -0,0 +1,309 @@
+package com.cameron.alberts.chestlock;
+
+import com.google.common.collect.Lists;
+import net.minecraft.init.Bootstrap;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.List;
+import java.util.UUID;
+import java.util.zip.CRC32;
+
+public class ChestLockJournalTest {
+    static {
+        // ChestBlock registers the vanilla chests when it loads
+        Bootstrap.register();
+    }
+
+    private static final String NAME = "chestLocks";
+    private static final String CHEST = "tile.chest";
+    private static final ChestBlock CHEST_BLOCK = new ChestBlock(CHEST, new ChestPos(10, 64, -20));
+    private static final ChestBlock PARTNER_CHEST_BLOCK = new ChestBlock(CHEST, new ChestPos(11, 64, -20));
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void appendedRecordsAreReplayed() throws IOException {
+        final File directory = folder.getRoot();
+        final ChestLockPlayerRegistry registry = new ChestLockPlayerRegistry(name -> UUID.randomUUID());
+        final int owner = registry.idOf(UUID.randomUUID(), "Steve");
+        final int member = registry.idOf(UUID.randomUUID(), "Alex");
+
+        try (ChestLockJournal journal = new ChestLockJournal(directory, NAME, registry)) {
+            journal.open(0, new RecordingReplayer());
+            journal.appendRegister(CHEST_BLOCK, owner);
+            journal.appendLink(CHEST_BLOCK, PARTNER_CHEST_BLOCK);
+            journal.appendSetPermission(CHEST_BLOCK, member, ChestPermissions.USER);
+            journal.appendRemovePermission(CHEST_BLOCK, member);
+            Assert.assertEquals(4, journal.getLastSequence());
+        }
+
+        final RecordingReplayer replayer = new RecordingReplayer();
+        try (ChestLockJournal journal = new ChestLockJournal(directory, NAME, registry)) {
+            journal.open(0, replayer);
+            Assert.assertEquals(4, journal.getLastSequence());
+        }
+
+        Assert.assertEquals(Lists.newArrayList(
+                "1 register " + CHEST_BLOCK + " " + owner,
+                "2 link " + CHEST_BLOCK + " " + PARTNER_CHEST_BLOCK,
+                "3 set " + CHEST_BLOCK + " " + member + " " + ChestPermissions.USER,
+                "4 remove " + CHEST_BLOCK + " " + member), replayer.records);
+    }
+
+    @Test
+    public void playersAreReplayedByUuid() throws IOException {
+        final File directory = folder.getRoot();
+        final UUID playerUuid = UUID.randomUUID();
+        final ChestLockPlayerRegistry registry = new ChestLockPlayerRegistry(name -> UUID.randomUUID());
+
+        try (ChestLockJournal journal = new ChestLockJournal(directory, NAME, registry)) {
+            journal.open(0, new RecordingReplayer());
+            journal.appendRegister(CHEST_BLOCK, registry.idOf(playerUuid, "Steve"));
+        }
+
+        // A restarted server hands out ids in a different order
+        final ChestLockPlayerRegistry restartedRegistry = new ChestLockPlayerRegistry(name -> UUID.randomUUID());
+        restartedRegistry.idOf(UUID.randomUUID(), "Alex");
+        final RecordingReplayer replayer = new RecordingReplayer();
+        try (ChestLockJournal journal = new ChestLockJournal(directory, NAME, restartedRegistry)) {
+            journal.open(0, replayer);
+        }
+
+        Assert.assertEquals(Lists.newArrayList("1 register " + CHEST_BLOCK + " " + restartedRegistry.idOf(playerUuid, "Steve")),
+                replayer.records);
+    }
+
+    @Test
+    public void recordsContainedBySnapshotAreSkipped() throws IOException {
+        final File directory = folder.getRoot();
+        final ChestLockPlayerRegistry registry = new ChestLockPlayerRegistry(name -> UUID.randomUUID());
+        final int owner = registry.idOf(UUID.randomUUID(), "Steve");
+
+        try (ChestLockJournal journal = new ChestLockJournal(directory, NAME, registry)) {
+            journal.open(0, new RecordingReplayer());
+            journal.appendRegister(CHEST_BLOCK, owner);
+            journal.appendLink(CHEST_BLOCK, PARTNER_CHEST_BLOCK);
+            journal.appendRemovePermission(CHEST_BLOCK, owner);
+        }
+
+        final RecordingReplayer replayer = new RecordingReplayer();
+        try (ChestLockJournal journal = new ChestLockJournal(directory, NAME, registry)) {
+            journal.open(2, replayer);
+            journal.appendRegister(PARTNER_CHEST_BLOCK, owner);
+            Assert.assertEquals(4, journal.getLastSequence());
+        }
+
+        Assert.assertEquals(Lists.newArrayList("3 remove " + CHEST_BLOCK + " " + owner), replayer.records);
+    }
+
+    @Test
+    public void tornTailIsDroppedAndOverwritten() throws IOException {
+        final File directory = folder.getRoot();
+        final ChestLockPlayerRegistry registry = new ChestLockPlayerRegistry(name -> UUID.randomUUID());
+        final int owner = registry.idOf(UUID.randomUUID(), "Steve");
+
+        try (ChestLockJournal journal = new ChestLockJournal(directory, NAME, registry)) {
+            journal.open(0, new RecordingReplayer());
+            journal.appendRegister(CHEST_BLOCK, owner);
+            journal.appendRegister(PARTNER_CHEST_BLOCK, owner);
+        }
+
+        // A crash in the middle of the second record
+        final File segment = new File(directory, NAME + "_1.journal");
+        try (RandomAccessFile file = new RandomAccessFile(segment, "rw")) {
+            file.setLength(file.length() - 3);
+        }
+
+        RecordingReplayer replayer = new RecordingReplayer();
+        try (ChestLockJournal journal = new ChestLockJournal(directory, NAME, registry)) {
+            journal.open(0, replayer);
+            Assert.assertEquals(1, journal.getLastSequence());
+            journal.appendLink(CHEST_BLOCK, PARTNER_CHEST_BLOCK);
+        }
+
+        Assert.assertEquals(Lists.newArrayList("1 register " + CHEST_BLOCK + " " + owner), replayer.records);
+
+        // The record appended after the crash reuses the torn record's sequence number in a new segment
+        replayer = new RecordingReplayer();
+        try (ChestLockJournal journal = new ChestLockJournal(directory, NAME, registry)) {
+            journal.open(0, replayer);
+        }
+
+        Assert.assertEquals(Lists.newArrayList(
+                "1 register " + CHEST_BLOCK + " " + owner,
+                "2 link " + CHEST_BLOCK + " " + PARTNER_CHEST_BLOCK), replayer.records);
+    }
+
+    @Test
+    public void replayStopsAtChecksumMismatch() throws IOException {
+        final File directory = folder.getRoot();
+        final ChestLockPlayerRegistry registry = new ChestLockPlayerRegistry(name -> UUID.randomUUID());
+        final int owner = registry.idOf(UUID.randomUUID(), "Steve");
+
+        try (ChestLockJournal journal = new ChestLockJournal(directory, NAME, registry)) {
+            journal.open(0, new RecordingReplayer());
+            journal.appendRegister(CHEST_BLOCK, owner);
+            journal.appendRegister(PARTNER_CHEST_BLOCK, owner);
+            journal.appendLink(CHEST_BLOCK, PARTNER_CHEST_BLOCK);
+        }
+
+        // Flip a bit in the second record's payload, its length and checksum are left intact
+        final File segment = new File(directory, NAME + "_1.journal");
+        try (RandomAccessFile file = new RandomAccessFile(segment, "rw")) {
+            long secondRecord = Integer.BYTES + file.readInt() + Integer.BYTES;
+            file.seek(secondRecord);
+            long position = secondRecord + Integer.BYTES + file.readInt() / 2;
+            file.seek(position);
+            int value = file.read();
+            file.seek(position);
+            file.write(value ^ 1);
+        }
+
+        final RecordingReplayer replayer = new RecordingReplayer();
+        try (ChestLockJournal journal = new ChestLockJournal(directory, NAME, registry)) {
+            journal.open(0, replayer);
+        }
+
+        Assert.assertEquals(Lists.newArrayList("1 register " + CHEST_BLOCK + " " + owner), replayer.records);
+    }
+
+    @Test
+    public void onlySegmentsContainedBySnapshotAreDeleted() throws IOException {
+        final File directory = folder.getRoot();
+        final ChestLockPlayerRegistry registry = new ChestLockPlayerRegistry(name -> UUID.randomUUID());
+        final int owner = registry.idOf(UUID.randomUUID(), "Steve");
+
+        try (ChestLockJournal journal = new ChestLockJournal(directory, NAME, registry)) {
+            journal.open(0, new RecordingReplayer());
+            journal.appendRegister(CHEST_BLOCK, owner);
+            journal.appendRegister(PARTNER_CHEST_BLOCK, owner);
+            journal.rollover();
+            journal.appendLink(CHEST_BLOCK, PARTNER_CHEST_BLOCK);
+
+            // Record 2 isn't in the snapshot yet, the first segment still has to be replayed
+            journal.deleteSegmentsContainedBy(1);
+            Assert.assertTrue(new File(directory, NAME + "_1.journal").exists());
+
+            journal.deleteSegmentsContainedBy(2);
+            Assert.assertFalse(new File(directory, NAME + "_1.journal").exists());
+            Assert.assertTrue(new File(directory, NAME + "_3.journal").exists());
+
+            // The open segment is never deleted
+            journal.deleteSegmentsContainedBy(3);
+            Assert.assertTrue(new File(directory, NAME + "_3.journal").exists());
+        }
+    }
+
+    @Test
+    public void emptyNewestSegmentKeepsSequenceNumbers() throws IOException {
+        final File directory = folder.getRoot();
+        final ChestLockPlayerRegistry registry = new ChestLockPlayerRegistry(name -> UUID.randomUUID());
+        final int owner = registry.idOf(UUID.randomUUID(), "Steve");
+
+        try (ChestLockJournal journal = new ChestLockJournal(directory, NAME, registry)) {
+            journal.open(0, new RecordingReplayer());
+            journal.appendRegister(CHEST_BLOCK, owner);
+            journal.appendRegister(PARTNER_CHEST_BLOCK, owner);
+            journal.rollover();
+            journal.deleteSegmentsContainedBy(2);
+        }
+
+        // Only the empty segment is left, its name still says record 2 was written
+        final RecordingReplayer replayer = new RecordingReplayer();
+        try (ChestLockJournal journal = new ChestLockJournal(directory, NAME, registry)) {
+            journal.open(0, replayer);
+            Assert.assertEquals(2, journal.getLastSequence());
+            journal.appendLink(CHEST_BLOCK, PARTNER_CHEST_BLOCK);
+            Assert.assertEquals(3, journal.getLastSequence());
+        }
+
+        Assert.assertTrue(replayer.records.isEmpty());
+    }
+
+    @Test
+    public void nameOnlyRecordsAreResolved() throws IOException {
+        final File directory = folder.getRoot();
+        final UUID resolvedUuid = UUID.randomUUID();
+        final ChestLockPlayerRegistry registry = new ChestLockPlayerRegistry(name -> resolvedUuid);
+
+        try (DataOutputStream segment = new DataOutputStream(new FileOutputStream(new File(directory, NAME + "_1.journal")))) {
+            writeNameOnlyRecord(segment, 0, 1, "Steve", -1);
+            writeNameOnlyRecord(segment, 2, 2, "Steve", ChestPermissions.USER.ordinal());
+            writeNameOnlyRecord(segment, 3, 3, "Steve", -1);
+        }
+
+        final RecordingReplayer replayer = new RecordingReplayer();
+        try (ChestLockJournal journal = new ChestLockJournal(directory, NAME, registry)) {
+            journal.open(0, replayer);
+            Assert.assertEquals(3, journal.getLastSequence());
+        }
+
+        final int playerId = registry.idOfName("Steve");
+        Assert.assertEquals(resolvedUuid, registry.uuidOf(playerId));
+        Assert.assertEquals(Lists.newArrayList(
+                "1 register " + CHEST_BLOCK + " " + playerId,
+                "2 set " + CHEST_BLOCK + " " + playerId + " " + ChestPermissions.USER,
+                "3 remove " + CHEST_BLOCK + " " + playerId), replayer.records);
+    }
+
+    /**
+     * Writes a record the way the journal did before it stored UUIDs.
+     */
+    private static void writeNameOnlyRecord(final DataOutputStream segment,
+                                            final int operation,
+                                            final long sequence,
+                                            final String userName,
+                                            final int permission) throws IOException {
+        final ByteArrayOutputStream recordBuffer = new ByteArrayOutputStream();
+        final DataOutputStream record = new DataOutputStream(recordBuffer);
+        record.writeByte(operation);
+        record.writeLong(sequence);
+        record.writeLong(CHEST_BLOCK.getChestPos().toLong());
+        record.writeUTF(CHEST_BLOCK.getUnlocalizedName());
+        record.writeUTF(userName);
+        if (permission >= 0) {
+            record.writeByte(permission);
+        }
+
+        final CRC32 crc = new CRC32();
+        crc.update(recordBuffer.toByteArray());
+        segment.writeInt(recordBuffer.size());
+        recordBuffer.writeTo(segment);
+        segment.writeInt((int) crc.getValue());
+    }
+
+    private static final class RecordingReplayer implements ChestLockJournal.Replayer {
+        private final List<String> records = Lists.newArrayList();
+
+        @Override
+        public void register(final long sequence, final ChestBlock chestBlock, final int playerId) {
+            records.add(sequence + " register " + chestBlock + " " + playerId);
+        }
+
+        @Override
+        public void link(final long sequence, final ChestBlock chestBlock, final ChestBlock partnerChestBlock) {
+            records.add(sequence + " link " + chestBlock + " " + partnerChestBlock);
+        }
+
+        @Override
+        public void setPermission(final long sequence, final ChestBlock chestBlock, final int playerId,
+                                  final ChestPermissions permission) {
+            records.add(sequence + " set " + chestBlock + " " + playerId + " " + permission);
+        }
+
+        @Override
+        public void removePermission(final long sequence, final ChestBlock chestBlock, final int playerId) {
+            records.add(sequence + " remove " + chestBlock + " " + playerId);
+        }
+    }
+}
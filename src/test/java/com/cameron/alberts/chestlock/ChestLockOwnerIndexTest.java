@@ -0,0 +1,140 @@
+package com.cameron.alberts.chestlock;
+
+import net.minecraft.init.Bootstrap;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.UUID;
+
+public class ChestLockOwnerIndexTest {
+    static {
+        // ChestBlock registers the vanilla chests when it loads
+        Bootstrap.register();
+    }
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private ChestLockPlayerRegistry registry;
+    private File file;
+    private int chest;
+    private int owner;
+    private int friend;
+
+    @Before
+    public void setUp() {
+        registry = new ChestLockPlayerRegistry(name -> UUID.randomUUID());
+        file = new File(folder.getRoot(), "owners.dat");
+        chest = ChestBlock.getTypeId("tile.chest");
+        owner = registry.idOf(UUID.randomUUID(), "Steve");
+        friend = registry.idOf(UUID.randomUUID(), "Alex");
+    }
+
+    @Test
+    public void updateFollowsAclChanges() {
+        final ChestLockOwnerIndex index = new ChestLockOwnerIndex(file, registry);
+        final long packedPos = ChestPos.pack(1, 64, 1);
+        final ChestAcl ownerOnly = ChestAcl.root(owner);
+        final ChestAcl withFriend = ownerOnly.with(friend, ChestPermissions.USER);
+
+        index.update(packedPos, chest, null, ownerOnly);
+        Assert.assertEquals(1, count(index, owner, ChestPermissions.ROOT));
+        Assert.assertEquals(0, index.chestsOf(friend).size());
+
+        index.update(packedPos, chest, ownerOnly, withFriend);
+        Assert.assertEquals(1, count(index, friend, ChestPermissions.USER));
+
+        index.update(packedPos, chest, withFriend, withFriend.with(friend, ChestPermissions.MOD));
+        Assert.assertEquals(0, count(index, friend, ChestPermissions.USER));
+        Assert.assertEquals(1, count(index, friend, ChestPermissions.MOD));
+
+        index.update(packedPos, chest, withFriend, ownerOnly);
+        Assert.assertEquals(0, index.chestsOf(friend).size());
+        Assert.assertEquals(1, index.chestsOf(owner).size());
+    }
+
+    @Test
+    public void countsEveryChestOfAPlayer() {
+        final ChestLockOwnerIndex index = new ChestLockOwnerIndex(file, registry);
+
+        for (int x = 0; x < 10; x++) {
+            index.update(ChestPos.pack(x, 64, 0), chest, null, ChestAcl.root(owner));
+        }
+
+        Assert.assertEquals(10, index.chestsOf(owner).size());
+        Assert.assertEquals(10, count(index, owner, ChestPermissions.ROOT));
+        Assert.assertEquals(10, index.getLockedChests());
+    }
+
+    @Test
+    public void mergedChangesAreReadBackFromTheFile() throws IOException {
+        final ChestLockOwnerIndex index = new ChestLockOwnerIndex(file, registry);
+        final ChestAcl shared = ChestAcl.root(owner).with(friend, ChestPermissions.USER);
+
+        Assert.assertFalse(index.open());
+        index.update(ChestPos.pack(0, 64, 0), chest, null, shared);
+        index.update(ChestPos.pack(-30000000, 0, 30000000), chest, null, ChestAcl.root(owner));
+        index.capture(7).run();
+
+        final ChestLockOwnerIndex reopenedIndex = new ChestLockOwnerIndex(file, registry);
+        Assert.assertTrue(reopenedIndex.open());
+        Assert.assertEquals(7, reopenedIndex.getSequence());
+        Assert.assertEquals(2, reopenedIndex.getLockedChests());
+        Assert.assertEquals(3, reopenedIndex.getAclEntries());
+        Assert.assertEquals(2, count(reopenedIndex, owner, ChestPermissions.ROOT));
+        Assert.assertEquals(ChestPermissions.USER,
+                reopenedIndex.chestsOf(friend).get(new ChestBlock("tile.chest", new ChestPos(0, 64, 0))));
+    }
+
+    @Test
+    public void everyPlayerIsFoundInTheDirectory() throws IOException {
+        final ChestLockOwnerIndex index = new ChestLockOwnerIndex(file, registry);
+        final int[] playerIds = new int[50];
+
+        for (int x = 0; x < playerIds.length; x++) {
+            playerIds[x] = registry.idOf(UUID.randomUUID(), "Player" + x);
+            index.update(ChestPos.pack(x, 64, 0), chest, null, ChestAcl.root(playerIds[x]));
+        }
+        index.capture(1).run();
+
+        final ChestLockOwnerIndex reopenedIndex = new ChestLockOwnerIndex(file, registry);
+        Assert.assertTrue(reopenedIndex.open());
+        for (int x = 0; x < playerIds.length; x++) {
+            Assert.assertEquals(ChestPermissions.ROOT,
+                    reopenedIndex.chestsOf(playerIds[x]).get(new ChestBlock("tile.chest", new ChestPos(x, 64, 0))));
+        }
+        Assert.assertEquals(0, reopenedIndex.chestsOf(owner).size());
+    }
+
+    @Test
+    public void changesAreLaidOverTheFile() throws IOException {
+        final ChestLockOwnerIndex index = new ChestLockOwnerIndex(file, registry);
+        final long packedPos = ChestPos.pack(5, 70, 5);
+        final ChestAcl shared = ChestAcl.root(owner).with(friend, ChestPermissions.USER);
+
+        index.update(packedPos, chest, null, shared);
+        index.capture(1).run();
+        index.update(packedPos, chest, shared, ChestAcl.root(owner));
+
+        Assert.assertEquals(0, index.chestsOf(friend).size());
+        Assert.assertEquals(1, index.chestsOf(owner).size());
+        Assert.assertEquals(1, index.getAclEntries());
+
+        // The unlocked chest is dropped from the file by the next merge
+        index.update(packedPos, chest, ChestAcl.root(owner), null);
+        index.capture(2).run();
+
+        Assert.assertEquals(0, index.chestsOf(owner).size());
+        Assert.assertEquals(0, index.getLockedChests());
+        Assert.assertEquals(2, index.getSequence());
+    }
+
+    private static long count(final ChestLockOwnerIndex index, final int playerId, final ChestPermissions permission) {
+        return index.chestsOf(playerId).values().stream().filter(permission::equals).count();
+    }
+}
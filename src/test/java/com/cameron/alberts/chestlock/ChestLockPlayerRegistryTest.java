@@ -0,0 +1,46 @@
+package com.cameron.alberts.chestlock;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.UUID;
+
+public class ChestLockPlayerRegistryTest {
+    private static final UUID PLAYER_UUID = UUID.fromString("6a085b2c-19fb-4986-b453-231aa942bbec");
+
+    @Test
+    public void sameUuidGetsSameId() {
+        final ChestLockPlayerRegistry registry = new ChestLockPlayerRegistry(name -> UUID.randomUUID());
+        final int playerId = registry.idOf(PLAYER_UUID, "Steve");
+
+        Assert.assertEquals(playerId, registry.idOf(PLAYER_UUID, "Steve"));
+        Assert.assertEquals(playerId, registry.idOfName("steve"));
+        Assert.assertEquals(PLAYER_UUID, registry.uuidOf(playerId));
+        Assert.assertEquals(1, registry.size());
+    }
+
+    @Test
+    public void renameKeepsIdAndMovesName() {
+        final ChestLockPlayerRegistry registry = new ChestLockPlayerRegistry(name -> UUID.randomUUID());
+        final int playerId = registry.idOf(PLAYER_UUID, "Steve");
+
+        // Names read back from disk don't replace the name of a known player, only a player that was seen does
+        Assert.assertEquals(playerId, registry.idOf(PLAYER_UUID, "OldName"));
+        Assert.assertEquals("Steve", registry.nameOf(playerId));
+
+        Assert.assertEquals(playerId, registry.playerSeen(PLAYER_UUID, "Alex"));
+        Assert.assertEquals("Alex", registry.nameOf(playerId));
+        Assert.assertEquals(playerId, registry.idOfName("Alex"));
+        Assert.assertEquals(ChestLockPlayerRegistry.NO_PLAYER, registry.idOfName("Steve"));
+    }
+
+    @Test
+    public void resolveUsesResolverForUnknownNames() {
+        final UUID resolvedUuid = UUID.randomUUID();
+        final ChestLockPlayerRegistry registry = new ChestLockPlayerRegistry(name -> resolvedUuid);
+        final int playerId = registry.resolve("Notch");
+
+        Assert.assertEquals(resolvedUuid, registry.uuidOf(playerId));
+        Assert.assertEquals(playerId, registry.resolve("notch"));
+    }
+}
@@ -0,0 +1,34 @@
+package com.cameron.alberts.chestlock;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+public class ChestLockQueriesTest {
+    private static final List<String> ENTRIES = IntStream.range(0, ChestLockQueries.PAGE_SIZE * 2 + 3)
+            .mapToObj(Integer::toString)
+            .collect(Collectors.toList());
+
+    @Test
+    public void pageHoldsItsSliceOfTheEntries() {
+        final List<String> lines = ChestLockQueries.page("Chests", ENTRIES, 2);
+
+        Assert.assertEquals(ChestLockQueries.PAGE_SIZE + 1, lines.size());
+        Assert.assertTrue(lines.get(0).endsWith("(page 2 of 3)"));
+        Assert.assertEquals(ENTRIES.subList(ChestLockQueries.PAGE_SIZE, ChestLockQueries.PAGE_SIZE * 2), lines.subList(1, lines.size()));
+    }
+
+    @Test
+    public void pageIsClampedToThePagesThereAre() {
+        final List<String> lastPage = ChestLockQueries.page("Chests", ENTRIES, 10);
+        final List<String> firstPage = ChestLockQueries.page("Chests", ENTRIES, -1);
+
+        Assert.assertTrue(lastPage.get(0).endsWith("(page 3 of 3)"));
+        Assert.assertEquals(4, lastPage.size());
+        Assert.assertTrue(firstPage.get(0).endsWith("(page 1 of 3)"));
+        Assert.assertEquals("0", firstPage.get(1));
+    }
+}
@@ -0,0 +1,44 @@
+package com.cameron.alberts.chestlock;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ChestLockRegionTest {
+    private static final int CHEST = 0;
+    private static final int OWNER = 0;
+    private static final ChestAcl ACL = ChestAcl.root(OWNER);
+
+    @Test
+    public void sectionMaskOnlyCoversLockedSections() {
+        final ChestLockRegion region = new ChestLockRegion(ChestLockRegion.keyOf(100, -100), 0);
+
+        region.put(ChestPos.pack(100, 70, -100), CHEST, ACL, OWNER);
+
+        // Block 100, -100 is in chunk 6, -7 and y 70 is in section 4
+        Assert.assertTrue(region.hasLocksInSections(6, -7, 4, 4));
+        Assert.assertTrue(region.hasLocksInSections(6, -7, 0, 15));
+        Assert.assertFalse(region.hasLocksInSections(6, -7, 5, 15));
+        Assert.assertFalse(region.hasLocksInSections(6, -6, 0, 15));
+    }
+
+    @Test
+    public void isLockedMatchesOnlyLockedPositions() {
+        final ChestLockRegion region = new ChestLockRegion(ChestLockRegion.keyOf(0, 0), 0);
+
+        region.put(ChestPos.pack(3, 64, 5), CHEST, ACL, OWNER);
+
+        Assert.assertTrue(region.isLocked(3, 64, 5));
+        Assert.assertFalse(region.isLocked(3, 65, 5));
+        Assert.assertFalse(region.isLocked(4, 64, 5));
+    }
+
+    @Test
+    public void positionsOutsideBuildHeightAreStillFound() {
+        final ChestLockRegion region = new ChestLockRegion(ChestLockRegion.keyOf(0, 0), 0);
+
+        region.put(ChestPos.pack(0, 300, 0), CHEST, ACL, OWNER);
+
+        Assert.assertTrue(region.hasLocksInSections(0, 0, 18, 18));
+        Assert.assertTrue(region.isLocked(0, 300, 0));
+    }
+}
@@ -0,0 +1,95 @@
+package com.cameron.alberts.chestlock;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import net.minecraft.init.Bootstrap;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.UUID;
+
+public class ChestLockSnapshotWriterTest {
+    static {
+        // ChestBlock registers the vanilla chests when it loads
+        Bootstrap.register();
+    }
+
+    private static final long REGION_KEY = ChestLockRegion.keyOf(-600, 1200);
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void writtenRegionIsReadBackFromItsFile() throws IOException {
+        final File directory = new File(folder.getRoot(), "chestLocks");
+        final ChestLockPlayerRegistry registry = new ChestLockPlayerRegistry(name -> UUID.randomUUID());
+        final int owner = registry.idOf(UUID.randomUUID(), "Steve");
+        final ChestLockSnapshotWriter writer = new ChestLockSnapshotWriter(directory, registry, 0);
+
+        writer.writeNow(ImmutableMap.of(REGION_KEY, snapshot(owner, 3)), 3);
+
+        Assert.assertEquals(3, writer.getDurableSequence());
+        Assert.assertEquals(Lists.newArrayList(REGION_KEY), writer.listRegionKeys());
+        // Nothing is left behind by the move
+        Assert.assertArrayEquals(new String[] {"r.-2.2.dat"}, directory.list());
+
+        final ChestLockSnapshot readSnapshot = new ChestLockSnapshotWriter(directory, registry, 3).read(REGION_KEY);
+        Assert.assertNotNull(readSnapshot);
+        Assert.assertEquals(3, readSnapshot.getSequence());
+        Assert.assertArrayEquals(new int[] {owner}, readSnapshot.getOwners());
+    }
+
+    @Test
+    public void newerSnapshotReplacesTheFile() throws IOException {
+        final File directory = folder.getRoot();
+        final ChestLockPlayerRegistry registry = new ChestLockPlayerRegistry(name -> UUID.randomUUID());
+        final int owner = registry.idOf(UUID.randomUUID(), "Steve");
+        final ChestLockSnapshotWriter writer = new ChestLockSnapshotWriter(directory, registry, 0);
+
+        writer.write(ImmutableMap.of(REGION_KEY, snapshot(owner, 1)), 1);
+        writer.write(ImmutableMap.of(REGION_KEY, snapshot(owner, 2)), 2);
+        // Queued snapshots are still read before the writer gets to them
+        Assert.assertEquals(2, writer.read(REGION_KEY).getSequence());
+
+        writer.setSynchronous();
+
+        Assert.assertEquals(2, writer.getDurableSequence());
+        Assert.assertEquals(2, new ChestLockSnapshotWriter(directory, registry, 2).read(REGION_KEY).getSequence());
+    }
+
+    @Test
+    public void failedWriteIsRetriedBeforeTheSequenceIsDurable() throws IOException {
+        final File directory = new File(folder.getRoot(), "chestLocks");
+        final ChestLockPlayerRegistry registry = new ChestLockPlayerRegistry(name -> UUID.randomUUID());
+        final int owner = registry.idOf(UUID.randomUUID(), "Steve");
+        final ChestLockSnapshotWriter writer = new ChestLockSnapshotWriter(directory, registry, 0);
+
+        // A file in the way of the directory makes every write fail
+        Assert.assertTrue(directory.createNewFile());
+        writer.writeNow(ImmutableMap.of(REGION_KEY, snapshot(owner, 1)), 1);
+        Assert.assertEquals(0, writer.getDurableSequence());
+
+        Assert.assertTrue(directory.delete());
+        writer.writeNow(ImmutableMap.of(), 1);
+        Assert.assertEquals(1, writer.getDurableSequence());
+        Assert.assertEquals(1, new ChestLockSnapshotWriter(directory, registry, 1).read(REGION_KEY).getSequence());
+    }
+
+    @Test
+    public void regionThatWasNeverWrittenIsNull() throws IOException {
+        final ChestLockPlayerRegistry registry = new ChestLockPlayerRegistry(name -> UUID.randomUUID());
+        final ChestLockSnapshotWriter writer = new ChestLockSnapshotWriter(folder.getRoot(), registry, 0);
+
+        Assert.assertNull(writer.read(REGION_KEY));
+        Assert.assertFalse(writer.hasRegionFiles());
+    }
+
+    private static ChestLockSnapshot snapshot(final int owner, final long sequence) {
+        return new ChestLockSnapshot(new ChestBlock[] {new ChestBlock("tile.chest", new ChestPos(-600, 64, 1200))},
+                new int[] {0}, Lists.newArrayList(ChestAcl.root(owner)), new int[] {owner}, sequence);
+    }
+}
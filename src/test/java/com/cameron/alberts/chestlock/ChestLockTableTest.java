@@ -0,0 +1,80 @@
+package com.cameron.alberts.chestlock;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ChestLockTableTest {
+    private static final int CHEST = 0;
+    private static final int ENDER_CHEST = 1;
+    private static final int OWNER = 0;
+    private static final ChestAcl ACL = ChestAcl.root(OWNER);
+
+    @Test
+    public void putAndGet() {
+        final ChestLockTable table = new ChestLockTable();
+        final long packedPos = ChestPos.pack(10, 64, -20);
+
+        table.put(packedPos, CHEST, ACL, OWNER);
+
+        Assert.assertTrue(table.contains(packedPos, CHEST));
+        Assert.assertSame(ACL, table.getAcl(packedPos, CHEST));
+        Assert.assertEquals(OWNER, table.getOwner(packedPos, CHEST));
+        Assert.assertEquals(1, table.size());
+    }
+
+    @Test
+    public void differentTypeAtSamePositionDoesNotMatch() {
+        final ChestLockTable table = new ChestLockTable();
+        final long packedPos = ChestPos.pack(10, 64, -20);
+
+        table.put(packedPos, CHEST, ACL, OWNER);
+
+        Assert.assertFalse(table.contains(packedPos, ENDER_CHEST));
+        Assert.assertNull(table.getAcl(packedPos, ENDER_CHEST));
+    }
+
+    @Test
+    public void replaceAclOnlySwapsTheExpectedAcl() {
+        final ChestLockTable table = new ChestLockTable();
+        final long packedPos = ChestPos.pack(10, 64, -20);
+        final ChestAcl changedAcl = ACL.with(1, ChestPermissions.USER);
+
+        table.put(packedPos, CHEST, ACL, OWNER);
+
+        Assert.assertTrue(table.replaceAcl(packedPos, CHEST, ACL, changedAcl));
+        Assert.assertFalse(table.replaceAcl(packedPos, CHEST, ACL, ACL.with(2, ChestPermissions.USER)));
+        Assert.assertSame(changedAcl, table.getAcl(packedPos, CHEST));
+        Assert.assertEquals(OWNER, table.getOwner(packedPos, CHEST));
+    }
+
+    @Test
+    public void growKeepsEveryEntry() {
+        final ChestLockTable table = new ChestLockTable();
+
+        for (int x = 0; x < 1000; x++) {
+            table.put(ChestPos.pack(x, 64, -x), CHEST, ACL, x);
+        }
+
+        Assert.assertEquals(1000, table.size());
+        for (int x = 0; x < 1000; x++) {
+            Assert.assertEquals(x, table.getOwner(ChestPos.pack(x, 64, -x), CHEST));
+        }
+    }
+
+    @Test
+    public void iterateVisitsEveryEntry() {
+        final ChestLockTable table = new ChestLockTable();
+
+        for (int y = 0; y < 50; y++) {
+            table.put(ChestPos.pack(5, y, 5), CHEST, ACL, OWNER);
+        }
+
+        int visited = 0;
+        for (int slot = table.nextSlot(0); slot != ChestLockTable.NOT_FOUND; slot = table.nextSlot(slot + 1)) {
+            Assert.assertEquals(5, ChestPos.unpackX(table.keyAt(slot)));
+            visited++;
+        }
+
+        Assert.assertEquals(50, visited);
+    }
+}
@@ -0,0 +1,42 @@
+package com.cameron.alberts.chestlock;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ChestPosTest {
+    @Test
+    public void packAndUnpackPositivePosition() {
+        final ChestPos chestPos = new ChestPos(1234, 64, 5678);
+
+        Assert.assertEquals(chestPos, ChestPos.fromLong(chestPos.toLong()));
+    }
+
+    @Test
+    public void packAndUnpackNegativePosition() {
+        final ChestPos chestPos = new ChestPos(-1234, -5, -5678);
+
+        Assert.assertEquals(chestPos, ChestPos.fromLong(chestPos.toLong()));
+    }
+
+    @Test
+    public void packAndUnpackWorldBorder() {
+        final ChestPos minPos = new ChestPos(-30000000, 0, -30000000);
+        final ChestPos maxPos = new ChestPos(30000000, 255, 30000000);
+
+        Assert.assertEquals(minPos, ChestPos.fromLong(minPos.toLong()));
+        Assert.assertEquals(maxPos, ChestPos.fromLong(maxPos.toLong()));
+    }
+
+    @Test
+    public void packedPositionNeverSetsTopBit() {
+        final ChestPos chestPos = new ChestPos(-1, -1, -1);
+
+        Assert.assertTrue(chestPos.toLong() >= 0);
+    }
+
+    @Test
+    public void differentPositionsPackDifferently() {
+        Assert.assertNotEquals(new ChestPos(1, 0, 0).toLong(), new ChestPos(0, 0, 1).toLong());
+        Assert.assertNotEquals(new ChestPos(0, 1, 0).toLong(), new ChestPos(0, 0, 1).toLong());
+    }
+}
@@ -0,0 +1,34 @@
+package com.cameron.alberts.metrics;
+
+import com.google.common.collect.Maps;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Map;
+
+public class CounterMetricTest {
+    @Test
+    public void sameNameSharesOneCount() {
+        final CounterMetric counter = CounterMetric.create("counterMetricTest");
+        final Map<String, Double> reported = Maps.newHashMap();
+
+        counter.increment();
+        CounterMetric.create("counterMetricTest").add(2);
+        CounterMetric.report(record -> reported.put(record.metricName, record.metricValue));
+
+        Assert.assertEquals(3, reported.get("counterMetricTest"), 0);
+    }
+
+    @Test
+    public void bytesReportLastAndTotal() {
+        final BytesMetric size = BytesMetric.create("bytesMetricTest");
+        final Map<String, Double> reported = Maps.newHashMap();
+
+        size.record(100);
+        size.record(40);
+        BytesMetric.report(record -> reported.put(record.metricName, record.metricValue));
+
+        Assert.assertEquals(40, reported.get("bytesMetricTest"), 0);
+        Assert.assertEquals(140, reported.get("bytesMetricTest.total"), 0);
+    }
+}
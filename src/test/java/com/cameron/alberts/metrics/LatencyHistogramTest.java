@@ -0,0 +1,33 @@
+package com.cameron.alberts.metrics;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class LatencyHistogramTest {
+    @Test
+    public void bucketsStayWithinOnePercent() {
+        for (long value = 1; value < LatencyHistogram.MAX_VALUE; value = value * 3 + 1) {
+            final long highestValue = LatencyHistogram.highestValueOf(LatencyHistogram.indexOf(value));
+
+            Assert.assertTrue(highestValue >= value);
+            Assert.assertTrue(highestValue - value <= value / 100 + 1);
+        }
+    }
+
+    @Test
+    public void summaryReportsPercentilesAndStartsTheNextInterval() {
+        final LatencyHistogram histogram = new LatencyHistogram();
+
+        for (long value = 1; value <= 1000; value++) {
+            histogram.record(value);
+        }
+
+        final TimerSummary summary = histogram.summarize("handlePlayerInteractRightClick");
+
+        Assert.assertEquals(1000, summary.getCount());
+        Assert.assertEquals(1000, summary.getMax());
+        Assert.assertEquals(500, summary.getP50(), 5);
+        Assert.assertEquals(990, summary.getP99(), 10);
+        Assert.assertNull(histogram.summarize("handlePlayerInteractRightClick"));
+    }
+}
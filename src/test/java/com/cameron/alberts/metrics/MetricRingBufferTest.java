@@ -0,0 +1,47 @@
+package com.cameron.alberts.metrics;
+
+import com.google.common.collect.Lists;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.List;
+
+public class MetricRingBufferTest {
+    private static final int CAPACITY = 4;
+
+    @Test
+    public void recordsAreDrainedInOrder() {
+        final MetricRingBuffer buffer = new MetricRingBuffer(CAPACITY);
+        final List<Double> values = Lists.newArrayList();
+
+        // Twice around the buffer, so every slot is handed back and reused
+        for (int round = 0; round < 2; round++) {
+            for (int value = 0; value < CAPACITY; value++) {
+                Assert.assertTrue(buffer.offer("metric", round * CAPACITY + value, "TimerMetric", "MICROSECONDS", "1.0"));
+            }
+
+            Assert.assertEquals(CAPACITY, buffer.drain(record -> values.add(record.metricValue)));
+        }
+
+        Assert.assertEquals(2 * CAPACITY, values.size());
+        for (int index = 0; index < values.size(); index++) {
+            Assert.assertEquals(index, values.get(index), 0);
+        }
+    }
+
+    @Test
+    public void fullBufferDropsAndCounts() {
+        final MetricRingBuffer buffer = new MetricRingBuffer(CAPACITY);
+
+        for (int value = 0; value < CAPACITY; value++) {
+            buffer.offer("metric", value, "CounterMetric", "COUNT", "1.0");
+        }
+
+        Assert.assertFalse(buffer.offer("metric", CAPACITY, "CounterMetric", "COUNT", "1.0"));
+        Assert.assertEquals(1, buffer.getDropped());
+
+        // Draining frees the slots again
+        buffer.drain(record -> { });
+        Assert.assertTrue(buffer.offer("metric", CAPACITY, "CounterMetric", "COUNT", "1.0"));
+    }
+}
@@ -0,0 +1,61 @@
+package com.cameron.alberts.metrics;
+
+import com.google.common.collect.ImmutableMap;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Test;
+
+public class MetricSettingsTest {
+    @After
+    public void restoreDefaults() {
+        MetricSettings.update(MetricSettings.EVERY_CALL, ImmutableMap.of());
+    }
+
+    @Test
+    public void disabledSamplerReturnsTheSharedTimer() {
+        final MetricSampler sampler = MetricSampler.of("disabledSamplerTest");
+
+        MetricSettings.update(MetricSettings.DISABLED, ImmutableMap.of());
+
+        Assert.assertSame(TimerMetric.NOT_SAMPLED, TimerMetric.start(sampler));
+        Assert.assertSame(TimerMetric.NOT_SAMPLED, TimerMetric.start(MetricSampler.of("otherDisabledSamplerTest")));
+    }
+
+    @Test
+    public void rateOfItsOwnOverridesTheDefault() {
+        MetricSettings.update(MetricSettings.DISABLED, ImmutableMap.of("overriddenSamplerTest", MetricSettings.EVERY_CALL));
+
+        Assert.assertTrue(MetricSampler.of("overriddenSamplerTest").sample());
+        Assert.assertFalse(MetricSampler.of("defaultSamplerTest").sample());
+        Assert.assertSame(CounterMetric.create("defaultCounterTest"), CounterMetric.create("otherDefaultCounterTest"));
+
+        MetricSettings.update(MetricSettings.EVERY_CALL, ImmutableMap.of(
+                "disabledCounterTest", MetricSettings.DISABLED,
+                "otherDisabledCounterTest", MetricSettings.DISABLED));
+
+        Assert.assertNotSame(CounterMetric.create("enabledCounterTest"), CounterMetric.create("disabledCounterTest"));
+        Assert.assertSame(CounterMetric.create("disabledCounterTest"), CounterMetric.create("otherDisabledCounterTest"));
+    }
+
+    @Test
+    public void samplerCreatedBeforeConfigurationFollowsIt() {
+        final MetricSampler sampler = MetricSampler.of("earlySamplerTest");
+        Assert.assertTrue(sampler.sample());
+
+        MetricSettings.update(MetricSettings.EVERY_CALL, ImmutableMap.of("earlySamplerTest", MetricSettings.DISABLED));
+
+        Assert.assertFalse(sampler.sample());
+    }
+
+    @Test
+    public void writerIsNotStartedWhileEveryMetricIsDisabled() {
+        Assert.assertFalse(MetricSettings.update(MetricSettings.DISABLED, ImmutableMap.of("disabledTest", MetricSettings.DISABLED)));
+        Assert.assertTrue(MetricSettings.update(MetricSettings.DISABLED, ImmutableMap.of("enabledTest", 10)));
+
+        // Nothing else in the tests starts the writer, but once started it can't be stopped again
+        Assume.assumeFalse(MetricWriter.isStarted());
+        MetricSettings.configure(MetricSettings.DISABLED, ImmutableMap.of("disabledTest", MetricSettings.DISABLED));
+        Assert.assertFalse(MetricWriter.isStarted());
+    }
+}